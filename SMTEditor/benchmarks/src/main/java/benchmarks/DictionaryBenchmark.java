@@ -0,0 +1,93 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import model.SMTGraph;
+import model.SMTLink;
+import model.SharedMulticastTree;
+import utils.Dictionary;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The link dictionary of SMTContentView, filled with the links of a random tree the way draw() fills it,
+ * and looked up by link. The dictionary scans its keys, so the node counts are kept smaller than for the tree.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DictionaryBenchmark {
+
+    private static final int PICKS = 1 << 12;
+
+    @Param({"100", "1000", "10000"})
+    public int nodeCount;
+
+    @Param({"2", "8"})
+    public int branching;
+
+    private List<SMTLink> links; // each link twice, once from each end, like draw() sees them
+    private SMTLink[] lookups;
+    private Dictionary<SMTLink, Integer> dictionary;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SharedMulticastTree tree = new SyntheticTree(nodeCount, branching, 42).newTree();
+        SMTGraph graph = tree.getGraph();
+
+        links = new ArrayList<SMTLink>();
+        for(int s = 0; s < graph.size(); s++)
+            for(int i = 0; i < graph.degree(s); i++)
+                links.add(new SMTLink(graph.idOf(s), graph.idOf(graph.neighbor(s, i))));
+
+        dictionary = fill();
+        SplittableRandom random = new SplittableRandom(7);
+        lookups = new SMTLink[PICKS];
+        for(int i = 0; i < PICKS; i++)
+            lookups[i] = links.get(random.nextInt(links.size()));
+    }
+
+    private Dictionary<SMTLink, Integer> fill() {
+        Dictionary<SMTLink, Integer> filled = new Dictionary<SMTLink, Integer>();
+        for(int i = 0; i < links.size(); i++) {
+            SMTLink link = links.get(i);
+            if(!filled.containsKey(link))
+                filled.put(link, i);
+        }
+        return filled;
+    }
+
+    /**
+     * Fills a new dictionary with all the links of the tree
+     */
+    @Benchmark
+    public Dictionary<SMTLink, Integer> put() {
+        return fill();
+    }
+
+    @Benchmark
+    public Integer get() {
+        next = (next + 1) & (PICKS - 1);
+        return dictionary.get(lookups[next]);
+    }
+}
@@ -0,0 +1,71 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import model.SMTParser;
+import model.SharedMulticastTree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parses a random tree written to a temporary file, the time includes building the tree from the parsed arrays
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"1000", "100000"})
+    public int nodeCount;
+
+    @Param({"2", "8"})
+    public int branching;
+
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = File.createTempFile("smt-benchmark", ".txt");
+        new SyntheticTree(nodeCount, branching, 42).write(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SMTParser.clear();
+        file.delete();
+    }
+
+    @Benchmark
+    public SharedMulticastTree parseFromFile() {
+        return SMTParser.parseFromFile(file);
+    }
+
+    @Benchmark
+    public SharedMulticastTree parseMapped() throws IOException {
+        return SMTParser.parse(file, SMTParser.Mode.MAPPED);
+    }
+
+    @Benchmark
+    public SharedMulticastTree parseParallel() throws IOException {
+        return SMTParser.parse(file, SMTParser.Mode.PARALLEL);
+    }
+}
@@ -0,0 +1,146 @@
+package benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import model.SMTGraph;
+import model.SharedMulticastTree;
+import model.SpatialGrid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The spatial index on uniformly spread nodes without links, against a linear scan over the nodes.
+ * The query points are drawn up front, the radius and rectangle queries are sized to hold about 16 nodes.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpatialGridBenchmark {
+
+    private static final int K = 8;
+    private static final int PICKS = 1 << 12;
+
+    @Param({"1000", "1000000"})
+    public int nodeCount;
+
+    private double[] nodeX, nodeY;
+    private SharedMulticastTree tree;
+    private SMTGraph graph;
+    private SpatialGrid grid;
+    private int[] ids; // random nodes
+    private double[] x, y; // random positions
+    private double radius, side;
+    private int[] slots;
+    private double[] distances;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        nodeX = new double[nodeCount];
+        nodeY = new double[nodeCount];
+        for(int i = 0; i < nodeCount; i++) {
+            nodeX[i] = random.nextDouble()*SyntheticTree.SIDE;
+            nodeY[i] = random.nextDouble()*SyntheticTree.SIDE;
+        }
+        tree = new SharedMulticastTree(nodeX, nodeY, nodeCount/2, new int[nodeCount + 1], new int[0]);
+        graph = tree.getGraph();
+        grid = tree.getSpatialIndex();
+
+        ids = new int[PICKS];
+        x = new double[PICKS];
+        y = new double[PICKS];
+        for(int i = 0; i < PICKS; i++) {
+            ids[i] = graph.idOf(random.nextInt(nodeCount));
+            x[i] = random.nextDouble()*SyntheticTree.SIDE;
+            y[i] = random.nextDouble()*SyntheticTree.SIDE;
+        }
+        radius = SyntheticTree.SIDE*Math.sqrt(16.0/nodeCount/Math.PI);
+        side = SyntheticTree.SIDE*Math.sqrt(16.0/nodeCount);
+        slots = new int[1 << 12];
+        distances = new double[K];
+    }
+
+    private int pick() {
+        next = (next + 1) & (PICKS - 1);
+        return next;
+    }
+
+    /**
+     * Builds the index of a new tree over the same nodes, the time includes making the tree
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public SpatialGrid build() {
+        return new SharedMulticastTree(nodeX, nodeY, nodeCount/2, new int[nodeCount + 1], new int[0]).getSpatialIndex();
+    }
+
+    @Benchmark
+    public int nearest() {
+        int i = pick();
+        return grid.nearest(x[i], y[i], K, SMTGraph.NO_SLOT, slots, distances);
+    }
+
+    @Benchmark
+    public int withinRadius() {
+        int i = pick();
+        return grid.withinRadius(x[i], y[i], radius, slots);
+    }
+
+    @Benchmark
+    public int inRectangle() {
+        int i = pick();
+        return grid.inRectangle(x[i], y[i], x[i] + side, y[i] + side, slots);
+    }
+
+    /**
+     * Moves a node, the tree keeps the index up to date
+     */
+    @Benchmark
+    public void relocateNode() {
+        int i = pick();
+        tree.relocateNode(x[i], y[i], ids[i]);
+    }
+
+    /**
+     * The K nearest nodes without the index
+     */
+    @Benchmark
+    public int nearestByScan() {
+        int i = pick();
+        int found = 0;
+        for(int s = 0; s < graph.size(); s++) {
+            double dx = graph.getX(s) - x[i];
+            double dy = graph.getY(s) - y[i];
+            double dist = dx*dx + dy*dy;
+            if(found == K && dist >= distances[K - 1])
+                continue;
+
+            int j = found == K ? K - 1 : found++;
+            for(; j > 0 && distances[j - 1] > dist; j--) {
+                slots[j] = slots[j - 1];
+                distances[j] = distances[j - 1];
+            }
+            slots[j] = s;
+            distances[j] = dist;
+        }
+        return found;
+    }
+}
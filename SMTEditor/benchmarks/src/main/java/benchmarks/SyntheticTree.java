@@ -0,0 +1,108 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+import model.SharedMulticastTree;
+
+/**
+ * A random tree for the benchmarks. The nodes are spread uniformly over a square, a tenth of them are
+ * destinations. Node i > 0 hangs under a random one of the nodes before it that still has fewer than
+ * branching children, so branching sets the degree of the relays and the depth of the tree
+ * (the average degree of any tree is just under 2).
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+final class SyntheticTree {
+
+    static final double SIDE = 10000;
+
+    final double[] x;
+    final double[] y;
+    final int[] offsets;
+    final int[] targets;
+    final int destinations;
+
+    SyntheticTree(int nodeCount, int branching, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        x = new double[nodeCount];
+        y = new double[nodeCount];
+        for(int i = 0; i < nodeCount; i++) {
+            x[i] = random.nextDouble()*SIDE;
+            y[i] = random.nextDouble()*SIDE;
+        }
+        destinations = Math.max(1, nodeCount/10);
+
+        // Parents are drawn from the nodes that can still take a child, kept in open[0 ... openCount - 1]
+        int[] parent = new int[nodeCount];
+        int[] children = new int[nodeCount];
+        int[] open = new int[nodeCount];
+        int openCount = 0;
+        if(nodeCount > 0)
+            open[openCount++] = 0;
+        for(int i = 1; i < nodeCount; i++) {
+            int k = random.nextInt(openCount);
+            int p = open[k];
+            parent[i] = p;
+            if(++children[p] == branching)
+                open[k] = open[--openCount];
+            open[openCount++] = i;
+        }
+
+        offsets = new int[nodeCount + 1];
+        for(int i = 1; i < nodeCount; i++) {
+            offsets[i + 1]++;
+            offsets[parent[i] + 1]++;
+        }
+        for(int i = 0; i < nodeCount; i++)
+            offsets[i + 1] += offsets[i];
+
+        targets = new int[offsets[nodeCount]];
+        int[] next = new int[nodeCount];
+        for(int i = 1; i < nodeCount; i++) {
+            int p = parent[i];
+            targets[offsets[i] + next[i]++] = p;
+            targets[offsets[p] + next[p]++] = i;
+        }
+    }
+
+    /**
+     *
+     * @return
+     *      a new recalculated tree, the arrays are copied so several trees can be made from one generator
+     */
+    SharedMulticastTree newTree() {
+        SharedMulticastTree tree = new SharedMulticastTree(x.clone(), y.clone(), destinations, offsets.clone(), targets.clone());
+        tree.recalculate();
+        return tree;
+    }
+
+    /**
+     * Writes the tree in the format read by SMTParser
+     * @param file
+     * @throws IOException
+     */
+    void write(File file) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+        try {
+            writer.write("---------\n");
+            writer.write(x.length + "\n");
+            writer.write(destinations + "\n");
+            for(int i = 0; i < x.length; i++)
+                writer.write(x[i] + " " + y[i] + "\n");
+
+            writer.write("----------------\n");
+            for(int i = 0; i < x.length; i++) {
+                writer.write(i + " |");
+                for(int k = offsets[i]; k < offsets[i + 1]; k++)
+                    writer.write(" " + targets[k]);
+                writer.write("\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package benchmarks;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import model.SMTGraph;
+import model.SMTNode;
+import model.SharedMulticastTree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The hot paths of SharedMulticastTree on random trees. The nodes and links each operation works on are
+ * drawn up front, so the measurements don't include the random number generator.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeBenchmark {
+
+    private static final int PICKS = 1 << 12;
+
+    @Param({"1000", "100000"})
+    public int nodeCount;
+
+    @Param({"2", "8"})
+    public int branching;
+
+    private SharedMulticastTree tree;
+    private int[] ids; // random nodes
+    private int[] linkEnds; // a neighbor of each of them
+    private double[] x, y; // random positions
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        tree = new SyntheticTree(nodeCount, branching, 42).newTree();
+        SMTGraph graph = tree.getGraph();
+
+        SplittableRandom random = new SplittableRandom(7);
+        ids = new int[PICKS];
+        linkEnds = new int[PICKS];
+        x = new double[PICKS];
+        y = new double[PICKS];
+        for(int i = 0; i < PICKS; i++) {
+            int slot = random.nextInt(graph.size());
+            ids[i] = graph.idOf(slot);
+            linkEnds[i] = graph.idOf(graph.neighbor(slot, random.nextInt(graph.degree(slot))));
+            x[i] = random.nextDouble()*SyntheticTree.SIDE;
+            y[i] = random.nextDouble()*SyntheticTree.SIDE;
+        }
+    }
+
+    private int pick() {
+        next = (next + 1) & (PICKS - 1);
+        return next;
+    }
+
+    @Benchmark
+    public double recalculate() {
+        tree.recalculate();
+        return tree.getCost();
+    }
+
+    /**
+     * Cuts a link and puts it back, the tree is the same afterwards. Only the edits, the tree
+     * is not recalculated.
+     */
+    @Benchmark
+    public void removeAndAddLink() {
+        int i = pick();
+        tree.removeLink(ids[i], linkEnds[i]);
+        tree.addLink(ids[i], linkEnds[i]);
+    }
+
+    /**
+     * Cuts a link and puts it back, then recalculates incrementally like the editor does after a link edit
+     */
+    @Benchmark
+    public double removeAndAddLinkRecalculated() {
+        int i = pick();
+        tree.removeLink(ids[i], linkEnds[i]);
+        tree.addLink(ids[i], linkEnds[i]);
+        tree.recalculateIncremental();
+        return tree.getCost();
+    }
+
+    /**
+     * Moves a node and recalculates incrementally, like the editor does after a drag
+     */
+    @Benchmark
+    public double relocateNode() {
+        int i = pick();
+        tree.relocateNode(x[i], y[i], ids[i]);
+        tree.recalculateIncremental();
+        return tree.getCost();
+    }
+
+    @Benchmark
+    public List<SMTNode> getNeighborsOfNode() {
+        return tree.getNeighborsOfNode(ids[pick()]);
+    }
+}
@@ -6,6 +6,7 @@ import java.awt.Toolkit;
 import javafx.application.Application;
 import javafx.scene.Group;
 import javafx.stage.Stage;
+import model.Metrics;
 
 
 public class Main extends Application {
@@ -28,6 +29,7 @@ public class Main extends Application {
 
 
 	public static void main(String[] args) {
+		Metrics.setEnabled(Boolean.getBoolean("smt.metrics")); // -Dsmt.metrics=true to time the engine phases
 		launch(args);
 	}
 }
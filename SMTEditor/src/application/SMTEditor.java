@@ -7,6 +7,9 @@ import javafx.scene.Group;
 import javafx.scene.Scene;
 import javafx.scene.control.Label;
 import javafx.scene.control.Slider;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
 import javafx.scene.text.TextAlignment;
 import model.SharedMulticastTree;
 import application_componentview.SMTComponentView;
@@ -88,6 +91,11 @@ public class SMTEditor extends Scene {
                 }
             });
 
+        // Undo and redo, Ctrl on Windows and Linux, Cmd on Mac
+        getAccelerators().put(new KeyCodeCombination(KeyCode.Z, KeyCombination.SHORTCUT_DOWN), () -> editor.undo());
+        getAccelerators().put(new KeyCodeCombination(KeyCode.Y, KeyCombination.SHORTCUT_DOWN), () -> editor.redo());
+        getAccelerators().put(new KeyCodeCombination(KeyCode.Z, KeyCombination.SHORTCUT_DOWN, KeyCombination.SHIFT_DOWN), () -> editor.redo());
+
         layoutSubviews(width, height); // layout logic separated for autoresizing behavior
 
         root.getChildren().addAll(editor, components, buttons, output, zoom, zoomLabel);
@@ -0,0 +1,40 @@
+package application_headless;
+
+import java.io.File;
+import java.io.IOException;
+
+import model.SMTBinaryFile;
+import model.SMTParser;
+import model.SharedMulticastTree;
+
+/**
+ * Converts a tree file in the text format to the binary format of SMTBinaryFile, from the command line:
+ * <pre>
+ *     java application_headless.ConvertTree input output.smtb
+ * </pre>
+ * A text file with coordinates only gets the tree SMTTreeBuilder builds.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public class ConvertTree {
+
+    public static void main(String[] args) {
+        if(args.length != 2) {
+            System.err.println("Usage: ConvertTree input output" + SMTBinaryFile.EXTENSION);
+            System.exit(2);
+        }
+
+        try {
+            File input = new File(args[0]);
+            File output = new File(args[1]);
+            long start = System.nanoTime();
+            SharedMulticastTree tree = SMTParser.parse(input, SMTParser.Mode.MAPPED);
+            SMTBinaryFile.write(tree, output);
+            System.out.printf("Wrote %d nodes to %s in %.1f s (%d MB)%n", tree.getGraph().nodeCount(), output,
+                    (System.nanoTime() - start)/1e9, output.length() >> 20);
+        } catch(IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
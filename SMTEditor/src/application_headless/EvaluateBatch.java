@@ -0,0 +1,118 @@
+package application_headless;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import model.BatchEvaluator;
+import model.SMTParser;
+
+/**
+ * Scores tree files from the command line, without starting the editor. One line per file is printed,
+ * CSV with a header or JSON lines:
+ * <pre>
+ *     java application_headless.EvaluateBatch [options] file|directory ...
+ *
+ *     --list file                       also evaluate the files listed in file, one path per line
+ *     --threads n                       the number of cores by default
+ *     --format csv|json                 csv by default
+ *     --parser mapped|parallel|reader   how text files are read, mapped by default
+ * </pre>
+ * The files of a directory are evaluated in name order, subdirectories are skipped.
+ * Exits with 1 if any file failed.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public class EvaluateBatch {
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean json = false;
+        SMTParser.Mode parserMode = SMTParser.Mode.MAPPED;
+        List<File> files = new ArrayList<File>();
+
+        try {
+            for(int i = 0; i < args.length; i++) {
+                switch(args[i]) {
+                case "--threads":
+                    threads = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--format":
+                    String format = value(args, ++i);
+                    if(!format.equals("csv") && !format.equals("json"))
+                        throw new IllegalArgumentException("Unknown format " + format);
+                    json = format.equals("json");
+                    break;
+                case "--parser":
+                    String parser = value(args, ++i);
+                    try {
+                        parserMode = SMTParser.Mode.valueOf(parser.toUpperCase(Locale.ROOT));
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("Unknown parser " + parser);
+                    }
+                    break;
+                case "--list":
+                    addListed(new File(value(args, ++i)), files);
+                    break;
+                default:
+                    add(new File(args[i]), files);
+                }
+            }
+            if(files.isEmpty())
+                throw new IllegalArgumentException("Usage: EvaluateBatch [--list file] [--threads n] [--format csv|json] [--parser mapped|parallel|reader] file|directory ...");
+
+            PrintStream out = System.out;
+            if(!json)
+                out.println(BatchEvaluator.Result.csvHeader());
+            final boolean asJson = json;
+            BatchEvaluator evaluator = new BatchEvaluator(threads);
+            evaluator.setParserMode(parserMode);
+            int failed = evaluator.evaluate(files, result -> out.println(asJson ? result.toJson() : result.toCsv()));
+            out.flush();
+            System.exit(failed == 0 ? 0 : 1);
+        } catch(IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        } catch(InterruptedException e) {
+            System.exit(130);
+        }
+    }
+
+    private static String value(String[] args, int i) throws IllegalArgumentException {
+        if(i >= args.length)
+            throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        return args[i];
+    }
+
+    private static void add(File file, List<File> files) throws IllegalArgumentException {
+        if(file.isDirectory()) {
+            File[] children = file.listFiles();
+            if(children == null)
+                throw new IllegalArgumentException("Can't list " + file);
+            Arrays.sort(children);
+            for(File child : children)
+                if(child.isFile())
+                    files.add(child);
+        }
+        else
+            files.add(file); // missing files show up as failed results
+    }
+
+    private static void addListed(File list, List<File> files) throws IOException, IllegalArgumentException {
+        BufferedReader reader = new BufferedReader(new FileReader(list));
+        try {
+            String line;
+            while((line = reader.readLine()) != null)
+                if(!line.trim().isEmpty())
+                    add(new File(line.trim()), files);
+        } finally {
+            reader.close();
+        }
+    }
+}
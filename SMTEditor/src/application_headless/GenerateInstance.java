@@ -0,0 +1,76 @@
+package application_headless;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import model.InstanceGenerator;
+import model.InstanceGenerator.PointSet;
+import model.InstanceGenerator.Topology;
+
+/**
+ * Writes a random instance from the command line, without starting the editor:
+ * <pre>
+ *     java application_headless.GenerateInstance file nodes [options]
+ *
+ *     --seed n                            1 by default
+ *     --points uniform|clustered|corridor uniform by default
+ *     --topology mst|random|star_heavy    mst by default
+ *     --destinations fraction             0.1 by default
+ *     --clusters n                        for clustered points
+ * </pre>
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public class GenerateInstance {
+
+    public static void main(String[] args) {
+        if(args.length < 2) {
+            System.err.println("Usage: GenerateInstance file nodes [--seed n] [--points uniform|clustered|corridor] "
+                    + "[--topology mst|random|star_heavy] [--destinations fraction] [--clusters n]");
+            System.exit(2);
+        }
+
+        try {
+            File file = new File(args[0]);
+            int nodes = Integer.parseInt(args[1]);
+            long seed = 1;
+            for(int i = 2; i < args.length; i++) // find the seed first, the generator needs it
+                if(args[i].equals("--seed") && i + 1 < args.length)
+                    seed = Long.parseLong(args[i + 1]);
+
+            InstanceGenerator generator = new InstanceGenerator(nodes, seed);
+            for(int i = 2; i < args.length; i += 2) {
+                if(i + 1 >= args.length)
+                    throw new IllegalArgumentException("Missing value for " + args[i]);
+                String value = args[i + 1];
+                switch(args[i]) {
+                case "--seed":
+                    break;
+                case "--points":
+                    generator.setPointSet(PointSet.valueOf(value.toUpperCase(Locale.ROOT)));
+                    break;
+                case "--topology":
+                    generator.setTopology(Topology.valueOf(value.toUpperCase(Locale.ROOT)));
+                    break;
+                case "--destinations":
+                    generator.setDestinationFraction(Double.parseDouble(value));
+                    break;
+                case "--clusters":
+                    generator.setClusterCount(Integer.parseInt(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+
+            long start = System.nanoTime();
+            generator.write(file);
+            System.out.printf("Wrote %d nodes, %d destinations, to %s in %.1f s (%d MB)%n", nodes,
+                    generator.getDestinationCount(), file, (System.nanoTime() - start)/1e9, file.length() >> 20);
+        } catch(IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
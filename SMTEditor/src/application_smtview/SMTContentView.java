@@ -12,7 +12,9 @@ import javafx.scene.Node;
 import javafx.scene.effect.BlendMode;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import model.EditHistory;
 import model.IdTracker;
+import model.Metrics;
 import model.SMTFactory;
 import model.SMTLink;
 import model.SMTNode;
@@ -31,6 +33,7 @@ import application_componentview.Components;
 public class SMTContentView extends Group {
 
     private SharedMulticastTree tree;
+    private EditHistory history; // undo and redo of the edits made in the view
     private Components componentType;
 
     private final double maxDimension = 5000; /* TODO some of this "extra" data might be redundant...
@@ -94,6 +97,7 @@ public class SMTContentView extends Group {
 
 
     public void draw() {
+        long drawStart = Metrics.start();
         ObservableList<Node> children = getChildren();
         children.clear();
         children.add(background);
@@ -139,6 +143,8 @@ public class SMTContentView extends Group {
         // Add stats popup
         children.add(statsPopup);
         // Done
+        Metrics.lap(Metrics.Phase.DRAW, drawStart);
+        Metrics.count(Metrics.Counter.DRAWN_NODES, nodes.size());
     }
 
     private Point2D nodeCoordinatesToVisual(SMTNode node) {
@@ -337,6 +343,7 @@ public class SMTContentView extends Group {
         // If a node is placed and the tree is null, init a new tree
         if(componentType.isNode() && tree == null) {
             tree = SMTFactory.emptyTree();
+            history = new EditHistory(tree);
          // System.out.println("New tree created, node placed");
         }
 
@@ -353,6 +360,8 @@ public class SMTContentView extends Group {
 
             tree.addNode(modelX, modelY, componentType == Components.DESTINATION,
                     IdTracker.getNextNodeId(), null); // order of these two calls is important
+            tree.recalculateIncremental();
+            history.record();
 
             getChildren().add(view);
         }
@@ -375,10 +384,18 @@ public class SMTContentView extends Group {
 
     /**
      * Anchors the link "in progress" to the selected node, i.e the selected node will be the end point of the link.
-     * This also finalizes the node in progress and resets related fields
+     * This also finalizes the node in progress and resets related fields. A link that would close a cycle
+     * is rejected, the tree stays a tree.
      * @param selectedNode
      */
     private void anchorLinkTo(SMTNodeView selectedNode) {
+        if(tree.wouldCreateCycle(linkInProgress.getStartId(), selectedNode.getNodeId())) {
+            System.out.println("Link rejected, it would create a cycle");
+            getChildren().remove(linkInProgress);
+            resetLinkInProgress();
+            return;
+        }
+
         double d = getCurrentNodeDimension()/2;
         System.out.println("Anchoring link!");
         Point2D coordinates = selectedNode.getCoordinatesWithinParent();
@@ -403,6 +420,8 @@ public class SMTContentView extends Group {
      */
     private void updateTreeWithNewLink(SMTLinkView newLink) {
         tree.addLink(newLink.getStartId(), newLink.getEndId());
+        tree.recalculateIncremental();
+        history.record();
     }
 
     /**
@@ -502,16 +521,47 @@ public class SMTContentView extends Group {
         if(!isDraggingNodesAllowed())
             return;
 
-        // Recalculate data
-        double time = tree.recalculate(); // TODO pass time up in hierarchy for display...
+        // Recalculate data, only the dragged node and its neighbors have changed
+        double time = tree.recalculateIncremental(); // TODO pass time up in hierarchy for display...
         System.out.println("recalculation took " + time + "!");
+        history.record();
         // Redraw tree, cache scroll position
         parent.cacheScroll();
         draw();
         parent.restoreScrollFromCache();
+
+        if(Metrics.isEnabled())
+            System.out.print(Metrics.report());
     }
 
 
+    /**
+     * Undoes the last edit, the tree gets back the costs it had before it, nothing is recalculated
+     */
+    public void undo() {
+        if(history == null || isLinking || isDragging || !history.undo())
+            return;
+        redraw();
+    }
+
+    /**
+     * Redoes the last undone edit
+     */
+    public void redo() {
+        if(history == null || isLinking || isDragging || !history.redo())
+            return;
+        redraw();
+    }
+
+    /**
+     * Redraws the tree, keeping the scroll position
+     */
+    private void redraw() {
+        parent.cacheScroll();
+        draw();
+        parent.restoreScrollFromCache();
+    }
+
     public List<SMTLinkView> getLinkViews(List<SMTLink> links) {
         List<SMTLinkView> linkViews = new ArrayList<SMTLinkView>();
         for(SMTLink l : links)
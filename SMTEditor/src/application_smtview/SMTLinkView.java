@@ -3,6 +3,7 @@ package application_smtview;
 import javafx.geometry.Point2D;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Line;
+import model.Geometry;
 import model.SMTLink;
 
 public class SMTLinkView extends Line {
@@ -104,10 +105,7 @@ public class SMTLinkView extends Line {
     }
 
     double getLength() {
-        double dx = this.getEndX() - this.getStartX();
-        double dy = this.getEndY() - this.getStartY();
-
-        return Math.sqrt(Math.pow(dx,2) + Math.pow(dy,2));
+        return Geometry.distance(this.getStartX(), this.getStartY(), this.getEndX(), this.getEndY());
     }
 
     public SMTLink getLink() {
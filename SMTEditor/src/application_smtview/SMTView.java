@@ -147,6 +147,14 @@ public class SMTView extends ScrollPane {
         content.zoomDidChange(newPercentageValue);
     }
 
+    public void undo() {
+        content.undo();
+    }
+
+    public void redo() {
+        content.redo();
+    }
+
     private void updateCursorForComponentType() {
         if(cursor == Components.CURSOR) {
             this.setCursor(defaultCursor);
@@ -0,0 +1,288 @@
+package model;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Parses and evaluates many tree files in parallel, for scoring deployments without the editor.
+ * Each thread holds one tree at a time and only a window of results is kept ahead of the consumer,
+ * so memory stays bounded however many files there are. Results come out in the order of the files.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public class BatchEvaluator {
+
+    /**
+     * The evaluation of one file, or the reason it failed
+     */
+    public static final class Result {
+
+        private final File file;
+        private final int nodes, destinations, links;
+        private final boolean isTree;
+        private final double cost;
+        private final long parseNanos, evaluationNanos;
+        private final String error;
+
+        private Result(File file, int nodes, int destinations, int links, boolean isTree, double cost,
+                long parseNanos, long evaluationNanos, String error) {
+            this.file = file;
+            this.nodes = nodes;
+            this.destinations = destinations;
+            this.links = links;
+            this.isTree = isTree;
+            this.cost = cost;
+            this.parseNanos = parseNanos;
+            this.evaluationNanos = evaluationNanos;
+            this.error = error;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public int getNodeCount() {
+            return nodes;
+        }
+
+        public int getDestinationCount() {
+            return destinations;
+        }
+
+        public int getLinkCount() {
+            return links;
+        }
+
+        /**
+         *
+         * @return
+         *      false if the links don't form a single tree, the cost isn't meaningful then
+         */
+        public boolean isTree() {
+            return isTree;
+        }
+
+        public double getCost() {
+            return cost;
+        }
+
+        /**
+         *
+         * @return
+         *      the time to read the file into coordinate and neighbor arrays, or for a binary file
+         *      to map it and check its checksum
+         */
+        public long getParseNanos() {
+            return parseNanos;
+        }
+
+        /**
+         *
+         * @return
+         *      the time to build and calculate the tree, including the minimum spanning tree of files
+         *      with coordinates only
+         */
+        public long getEvaluationNanos() {
+            return evaluationNanos;
+        }
+
+        /**
+         *
+         * @return
+         *      why the file couldn't be evaluated, null if it was
+         */
+        public String getError() {
+            return error;
+        }
+
+        public boolean failed() {
+            return error != null;
+        }
+
+        public static String csvHeader() {
+            return "file,nodes,destinations,links,tree,cost,parse_ms,evaluation_ms,error";
+        }
+
+        public String toCsv() {
+            return csvField(file.getPath()) + "," + nodes + "," + destinations + "," + links + "," + isTree + ","
+                    + (failed() ? "" : Double.toString(cost)) + "," + millis(parseNanos) + "," + millis(evaluationNanos) + ","
+                    + (failed() ? csvField(error) : "");
+        }
+
+        public String toJson() {
+            return "{\"file\":" + jsonString(file.getPath()) + ",\"nodes\":" + nodes + ",\"destinations\":" + destinations
+                    + ",\"links\":" + links + ",\"tree\":" + isTree + ",\"cost\":" + (failed() ? "null" : jsonNumber(cost))
+                    + ",\"parse_ms\":" + millis(parseNanos) + ",\"evaluation_ms\":" + millis(evaluationNanos)
+                    + ",\"error\":" + (failed() ? jsonString(error) : "null") + "}";
+        }
+
+        @Override
+        public String toString() {
+            return toCsv();
+        }
+
+        private static String millis(long nanos) {
+            return String.format(Locale.ROOT, "%.3f", nanos/1e6);
+        }
+
+        private static String csvField(String value) {
+            if(value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0)
+                return value;
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+
+        private static String jsonNumber(double value) {
+            return Double.isFinite(value) ? Double.toString(value) : "null";
+        }
+
+        private static String jsonString(String value) {
+            StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+            for(int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if(c == '"' || c == '\\')
+                    json.append('\\').append(c);
+                else if(c < 0x20)
+                    json.append(String.format("\\u%04x", (int) c));
+                else
+                    json.append(c);
+            }
+            return json.append('"').toString();
+        }
+    }
+
+    private final int threads;
+    private SMTParser.Mode parserMode = SMTParser.Mode.MAPPED;
+
+    public BatchEvaluator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     *
+     * @param threads
+     *      the number of files evaluated at the same time
+     */
+    public BatchEvaluator(int threads) throws IllegalArgumentException {
+        if(threads < 1)
+            throw new IllegalArgumentException("Need at least one thread, threads = " + threads);
+        this.threads = threads;
+    }
+
+    /**
+     *
+     * @param parserMode
+     *      how the files are read, MAPPED by default
+     */
+    public void setParserMode(SMTParser.Mode parserMode) throws IllegalArgumentException {
+        if(parserMode == null)
+            throw new IllegalArgumentException("Parser mode can't be null");
+        this.parserMode = parserMode;
+    }
+
+    /**
+     * Evaluates the files, a file that can't be read or parsed gives a failed result and the others go on
+     * @param files
+     * @param consumer
+     *      gets the results in the order of files, on the calling thread
+     * @return
+     *      the number of files that failed
+     * @throws InterruptedException
+     */
+    public int evaluate(List<File> files, Consumer<Result> consumer) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            int window = 2*threads; // results waiting for the consumer, or being worked on
+            Deque<Future<Result>> pending = new ArrayDeque<Future<Result>>(window);
+            int failed = 0;
+            int next = 0;
+
+            while(next < files.size() || !pending.isEmpty()) {
+                while(next < files.size() && pending.size() < window) {
+                    File file = files.get(next++);
+                    SMTParser.Mode mode = parserMode;
+                    pending.add(pool.submit(new Callable<Result>() {
+                        @Override
+                        public Result call() {
+                            return evaluate(file, mode);
+                        }
+                    }));
+                }
+
+                Result result;
+                try {
+                    result = pending.poll().get();
+                } catch (ExecutionException e) { // evaluate(File) catches everything it expects
+                    throw new IllegalStateException(e.getCause());
+                }
+                if(result.failed())
+                    failed++;
+                consumer.accept(result);
+            }
+            return failed;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Evaluates one file on the calling thread, read from a memory-mapped file
+     * @param file
+     * @return
+     */
+    public static Result evaluate(File file) {
+        return evaluate(file, SMTParser.Mode.MAPPED);
+    }
+
+    /**
+     * Evaluates one file on the calling thread, files with SMTBinaryFile.EXTENSION are read as binary tree files
+     * @param file
+     * @param parserMode
+     *      how text files are read
+     * @return
+     */
+    public static Result evaluate(File file, SMTParser.Mode parserMode) {
+        long start = System.nanoTime();
+        long parsed = 0;
+        try {
+            SharedMulticastTree tree;
+            int destinations;
+            if(SMTBinaryFile.isBinary(file)) {
+                SMTBinaryFile binary = SMTBinaryFile.open(file);
+                binary.verify();
+                parsed = System.nanoTime();
+                tree = binary.newTree();
+                destinations = binary.getDestinationCount();
+            }
+            else {
+                SMTParser.Contents contents = SMTParser.readFile(file, parserMode);
+                parsed = System.nanoTime();
+                tree = contents.newTree();
+                destinations = contents.numDestinations;
+            }
+            long evaluated = System.nanoTime();
+
+            SMTGraph graph = tree.getGraph();
+            int links = 0;
+            for(int s = 0; s < graph.size; s++)
+                links += graph.degrees[s];
+
+            return new Result(file, graph.count, destinations, links/2, tree.isTree(), tree.getCost(),
+                    parsed - start, evaluated - parsed, null);
+        } catch (Exception e) {
+            long end = System.nanoTime();
+            String error = e.getClass().getSimpleName() + (e.getMessage() == null ? "" : ": " + e.getMessage());
+            if(parsed == 0) // failed while parsing
+                return new Result(file, 0, 0, 0, false, Double.NaN, end - start, 0, error);
+            return new Result(file, 0, 0, 0, false, Double.NaN, parsed - start, end - parsed, error);
+        }
+    }
+}
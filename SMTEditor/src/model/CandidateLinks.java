@@ -0,0 +1,86 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Links the optimizers may add to a tree, given as slot pairs: u at even and v at odd indexes
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+final class CandidateLinks {
+
+    private CandidateLinks() {
+    }
+
+    /**
+     * Pairs every node with its k nearest nodes, found with a SpatialGrid
+     * @param graph
+     * @param k
+     * @return
+     *      distinct slot pairs
+     */
+    static int[] nearest(SMTGraph graph, int k) {
+        int[] nearest = new int[k];
+        double[] nearestDistances = new double[k];
+        SpatialGrid grid = SpatialGrid.build(graph);
+
+        LongIntMap seen = new LongIntMap(graph.count*k);
+        int[] pairs = new int[16];
+        int length = 0;
+
+        for(int s = 0; s < graph.size; s++) {
+            if(!graph.isAlive(s))
+                continue;
+
+            int found = grid.nearest(graph.x[s], graph.y[s], k, s, nearest, nearestDistances);
+            for(int i = 0; i < found; i++) {
+                int t = nearest[i];
+                long key = ((long) Math.min(s, t) << 32) | Math.max(s, t);
+                if(seen.get(key) != LongIntMap.MISSING)
+                    continue;
+                seen.put(key, 0);
+
+                if(length + 2 > pairs.length)
+                    pairs = Arrays.copyOf(pairs, pairs.length*2);
+                pairs[length++] = s;
+                pairs[length++] = t;
+            }
+        }
+
+        return Arrays.copyOf(pairs, length);
+    }
+
+    /**
+     * The links of the Delaunay triangulation of the nodes, about 3 per node, the Euclidean minimum spanning tree
+     * among them
+     * @param graph
+     * @return
+     *      distinct slot pairs
+     */
+    static int[] delaunay(SMTGraph graph) {
+        return DelaunayTriangulation.edges(graph);
+    }
+
+    /**
+     * Pairs every node with every other node
+     * @param graph
+     * @return
+     *      distinct slot pairs
+     */
+    static int[] complete(SMTGraph graph) {
+        int n = graph.count;
+        int[] pairs = new int[n*(n - 1)];
+        int length = 0;
+        for(int s = 0; s < graph.size; s++) {
+            if(!graph.isAlive(s))
+                continue;
+            for(int t = s + 1; t < graph.size; t++) {
+                if(!graph.isAlive(t))
+                    continue;
+                pairs[length++] = s;
+                pairs[length++] = t;
+            }
+        }
+        return pairs;
+    }
+}
@@ -0,0 +1,36 @@
+package model;
+
+/**
+ * Neumaier's variant of Kahan summation, keeps the rounding error of a long running sum
+ * in a separate compensation term. Partial sums of disjoint chunks can be merged, so the
+ * total doesn't drift with the number of values or with how the work was split up.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+final class CompensatedSum {
+
+    private double sum;
+    private double compensation;
+
+    void add(double value) {
+        double t = sum + value;
+        if(Math.abs(sum) >= Math.abs(value))
+            compensation += (sum - t) + value;
+        else
+            compensation += (value - t) + sum;
+        sum = t;
+    }
+
+    /**
+     * Adds another partial sum to this one
+     * @param other
+     */
+    void add(CompensatedSum other) {
+        add(other.sum);
+        compensation += other.compensation;
+    }
+
+    double value() {
+        return sum + compensation;
+    }
+}
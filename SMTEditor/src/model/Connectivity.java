@@ -0,0 +1,125 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * The connected components of a graph, by union-find over its slots with union by size and path halving.
+ * Adding nodes and links, and asking whether two nodes are connected, costs O(alpha(n)) amortized.
+ * Union-find can't split a component, so after a link or a linked node is removed the owner drops
+ * the structure and builds it again in O(n) on the next query.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+final class Connectivity {
+
+    private int[] parent; // NO_SLOT for free slots
+    private int[] componentSize; // only meaningful for roots
+    private int nodes;
+    private int links;
+    private int components;
+
+    private Connectivity(int capacity) {
+        parent = new int[Math.max(capacity, 16)];
+        componentSize = new int[parent.length];
+        Arrays.fill(parent, SMTGraph.NO_SLOT);
+    }
+
+    /**
+     * Builds the components of graph in O(n alpha(n))
+     * @param graph
+     * @return
+     */
+    static Connectivity build(SMTGraph graph) {
+        Connectivity connectivity = new Connectivity(graph.size);
+        for(int s = 0; s < graph.size; s++)
+            if(graph.isAlive(s))
+                connectivity.addNode(s);
+
+        for(int s = 0; s < graph.size; s++)
+            for(int i = 0; i < graph.degrees[s]; i++) {
+                int t = graph.neighbor(s, i);
+                if(s < t)
+                    connectivity.link(s, t);
+            }
+        return connectivity;
+    }
+
+    /**
+     * Adds a node without links
+     * @param slot
+     */
+    void addNode(int slot) {
+        if(slot >= parent.length) {
+            int capacity = Math.max(slot + 1, parent.length + (parent.length >> 1));
+            int old = parent.length;
+            parent = Arrays.copyOf(parent, capacity);
+            componentSize = Arrays.copyOf(componentSize, capacity);
+            Arrays.fill(parent, old, capacity, SMTGraph.NO_SLOT);
+        }
+        parent[slot] = slot;
+        componentSize[slot] = 1;
+        nodes++;
+        components++;
+    }
+
+    /**
+     * Removes a node without links, a node with links can't be removed
+     * @param slot
+     */
+    void removeIsolatedNode(int slot) {
+        parent[slot] = SMTGraph.NO_SLOT;
+        nodes--;
+        components--;
+    }
+
+    /**
+     * Adds the link s1-s2
+     * @param s1
+     * @param s2
+     */
+    void link(int s1, int s2) {
+        links++;
+        int r1 = find(s1);
+        int r2 = find(s2);
+        if(r1 == r2)
+            return;
+
+        if(componentSize[r1] < componentSize[r2]) {
+            int r = r1;
+            r1 = r2;
+            r2 = r;
+        }
+        parent[r2] = r1;
+        componentSize[r1] += componentSize[r2];
+        components--;
+    }
+
+    boolean connected(int s1, int s2) {
+        return find(s1) == find(s2);
+    }
+
+    int componentCount() {
+        return components;
+    }
+
+    /**
+     *
+     * @return
+     *      true if there is a closed path, or a link is there twice
+     */
+    boolean hasCycle() {
+        return links > nodes - components;
+    }
+
+    boolean isTree() {
+        return components == 1 && !hasCycle();
+    }
+
+    private int find(int slot) {
+        while(parent[slot] != slot) {
+            parent[slot] = parent[parent[slot]];
+            slot = parent[slot];
+        }
+        return slot;
+    }
+}
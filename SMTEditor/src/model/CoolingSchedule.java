@@ -0,0 +1,20 @@
+package model;
+
+/**
+ * The temperature of a simulated annealing run as a function of how much of its budget is used.
+ * An uphill move raising the cost by delta is accepted with probability exp(-delta/temperature),
+ * so the temperature is in the unit of the cost model.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public interface CoolingSchedule {
+
+    /**
+     *
+     * @param progress
+     *      the used part of the budget, from 0 to 1
+     * @return
+     *      the temperature, 0 only accepts moves that don't raise the cost
+     */
+    double temperature(double progress);
+}
@@ -0,0 +1,313 @@
+package model;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Answers what the cost of a tree would become after an edit, without applying it. Built in O(n) from the power
+ * levels and subtree counts of a recalculated tree, and read-only afterwards, so any number of threads can query it.
+ * <p>
+ * Adding or removing a link changes the number of destinations of whole components, and with it the cost of every
+ * node in them: a node w gaining (losing) d destinations on the side of a link end x pays d times its second highest
+ * power level p2(w) if x lies behind its most distant neighbor, d times its highest p1(w) otherwise. With the forest
+ * rooted as in SubtreeCounts, and q(w) = p1(w) - p2(w), the sum of those over a component or subtree follows from
+ * <ul>
+ * <li>highestBelow[v], the sum of p1 over the subtree of v</li>
+ * <li>upwardBelow[v], the sum of q over the nodes of the subtree of v whose most distant neighbor is their parent</li>
+ * <li>pathSum[v], the sum of q over the ancestors of v (v included) whose most distant neighbor is their parent,
+ * minus the sum over the strict ancestors whose most distant neighbor is the child towards v</li>
+ * </ul>
+ * so an edit costs O(degree of its ends), only the ends get new power levels.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+final class CostAggregates {
+
+    private static final int QUERY_CHUNK_SIZE = 1 << 8; // queries per task of a batch
+
+    final long version; // of the tree the aggregates were built from
+
+    private final SMTGraph graph;
+    private final SubtreeCounts counts;
+    private final CostModel costModel;
+    private final double cost;
+
+    private final int[] root;
+    private final double[] highestBelow;
+    private final double[] upwardBelow;
+    private final double[] pathSum;
+
+    /**
+     * Builds the aggregates, the tree must be recalculated and is not modified
+     */
+    CostAggregates(SMTGraph graph, SubtreeCounts counts, CostModel costModel, double cost, long version) {
+        this.graph = graph;
+        this.counts = counts;
+        this.costModel = costModel;
+        this.cost = cost;
+        this.version = version;
+
+        int size = graph.size;
+        root = new int[size];
+        highestBelow = new double[size];
+        upwardBelow = new double[size];
+        pathSum = new double[size];
+
+        // Parents before children, component by component
+        int[] order = new int[graph.count];
+        int length = 0;
+        for(int s = 0; s < size; s++) {
+            if(!graph.isAlive(s) || counts.parent[s] != SMTGraph.NO_SLOT)
+                continue;
+            root[s] = s;
+            order[length++] = s;
+            for(int head = length - 1; head < length; head++) {
+                int v = order[head];
+                int end = graph.offsets[v] + graph.degrees[v];
+                for(int i = graph.offsets[v]; i < end; i++) {
+                    int c = graph.targets[i];
+                    if(counts.parent[c] != v)
+                        continue;
+                    root[c] = s;
+                    order[length++] = c;
+
+                    pathSum[c] = pathSum[v] + (graph.farthest[c] == v ? q(c) : 0) - (graph.farthest[v] == c ? q(v) : 0);
+                }
+            }
+        }
+
+        for(int i = length - 1; i >= 0; i--) {
+            int v = order[i];
+            int p = counts.parent[v];
+            highestBelow[v] += graph.highestPowerLevels[v];
+            if(p == SMTGraph.NO_SLOT)
+                continue;
+            if(graph.farthest[v] == p)
+                upwardBelow[v] += q(v);
+            highestBelow[p] += highestBelow[v];
+            upwardBelow[p] += upwardBelow[v];
+        }
+    }
+
+    /**
+     *
+     * @param id1
+     * @param id2
+     * @return
+     *      the cost of the tree with the link id1-id2 added
+     * @throws IllegalArgumentException
+     *      if the nodes are linked already, or the link would close a cycle
+     */
+    double ifAddLink(int id1, int id2) throws IllegalArgumentException {
+        int u = slotOf(id1);
+        int v = slotOf(id2);
+        if(u == v || graph.hasTarget(u, v))
+            throw new IllegalArgumentException("Nodes " + id1 + " and " + id2 + " are linked already");
+        if(root[u] == root[v])
+            throw new IllegalArgumentException("Link " + id1 + "-" + id2 + " would create a cycle");
+
+        int du = counts.componentDestinations(u);
+        int dv = counts.componentDestinations(v);
+
+        double delta = dv*rest(u) + du*rest(v);
+        delta += cost(u, graph.x[u], graph.y[u], SMTGraph.NO_SLOT, v, dv, SMTGraph.NO_SLOT, 0, 0, du + dv) - graph.nodeCosts[u];
+        delta += cost(v, graph.x[v], graph.y[v], SMTGraph.NO_SLOT, u, du, SMTGraph.NO_SLOT, 0, 0, du + dv) - graph.nodeCosts[v];
+        return cost + delta;
+    }
+
+    /**
+     *
+     * @param id1
+     * @param id2
+     * @return
+     *      the cost of the tree with the link id1-id2 removed
+     * @throws IllegalArgumentException
+     *      if the nodes aren't linked
+     */
+    double ifRemoveLink(int id1, int id2) throws IllegalArgumentException {
+        int a = slotOf(id1);
+        int b = slotOf(id2);
+        if(!graph.hasTarget(a, b))
+            throw new IllegalArgumentException("Nodes " + id1 + " and " + id2 + " are not linked");
+
+        int total = counts.componentDestinations(a);
+        int child = counts.parent[b] == a ? b : counts.parent[a] == b ? a : SMTGraph.NO_SLOT;
+        if(child == SMTGraph.NO_SLOT) { // the link closes a cycle, the component stays whole
+            double delta = cost(a, graph.x[a], graph.y[a], b, SMTGraph.NO_SLOT, 0, SMTGraph.NO_SLOT, 0, 0, total) - graph.nodeCosts[a];
+            delta += cost(b, graph.x[b], graph.y[b], a, SMTGraph.NO_SLOT, 0, SMTGraph.NO_SLOT, 0, 0, total) - graph.nodeCosts[b];
+            return cost + delta;
+        }
+        int parent = child == a ? b : a;
+        int top = root[parent];
+
+        // The subtree of child loses the destinations above, the rest of the component those of the subtree
+        int below = counts.down[child];
+        int above = total - below;
+        double restBelow = highestBelow[child] - graph.highestPowerLevels[child]
+                - (upwardBelow[child] - (graph.farthest[child] == parent ? q(child) : 0));
+        double restAbove = highestBelow[top] - highestBelow[child] - graph.highestPowerLevels[parent]
+                - (upwardBelow[top] - pathSum[parent] - upwardBelow[child]);
+
+        double delta = -below*restAbove - above*restBelow;
+        delta += cost(child, graph.x[child], graph.y[child], parent, SMTGraph.NO_SLOT, 0, SMTGraph.NO_SLOT, 0, 0, below) - graph.nodeCosts[child];
+        delta += cost(parent, graph.x[parent], graph.y[parent], child, SMTGraph.NO_SLOT, 0, SMTGraph.NO_SLOT, 0, 0, above) - graph.nodeCosts[parent];
+        return cost + delta;
+    }
+
+    /**
+     *
+     * @param id
+     * @param x
+     * @param y
+     * @return
+     *      the cost of the tree with the node moved to (x, y), only the node and its neighbors change
+     */
+    double ifRelocate(int id, double x, double y) throws IllegalArgumentException {
+        int s = slotOf(id);
+        double delta = cost(s, x, y, SMTGraph.NO_SLOT, SMTGraph.NO_SLOT, 0, SMTGraph.NO_SLOT, 0, 0, counts.componentDestinations(s)) - graph.nodeCosts[s];
+
+        int end = graph.offsets[s] + graph.degrees[s];
+        for(int i = graph.offsets[s]; i < end; i++) {
+            int t = graph.targets[i];
+            delta += cost(t, graph.x[t], graph.y[t], SMTGraph.NO_SLOT, SMTGraph.NO_SLOT, 0, s, x, y, counts.componentDestinations(t)) - graph.nodeCosts[t];
+        }
+        return cost + delta;
+    }
+
+    /**
+     * Answers every query on its own, as if it was the only edit, spread over the pool in chunks
+     * of QUERY_CHUNK_SIZE queries
+     * @param queries
+     * @return
+     *      the cost after each of the edits
+     */
+    double[] ifAll(List<CostQuery> queries, ForkJoinPool pool) throws IllegalArgumentException {
+        double[] costs = new double[queries.size()];
+        if(costs.length <= QUERY_CHUNK_SIZE)
+            answer(queries, costs, 0, costs.length);
+        else
+            pool.invoke(new QueryTask(queries, costs, 0, costs.length));
+        return costs;
+    }
+
+    private void answer(List<CostQuery> queries, double[] costs, int from, int to) {
+        for(int i = from; i < to; i++) {
+            CostQuery query = queries.get(i);
+            switch(query.getKind()) {
+                case ADD_LINK:
+                    costs[i] = ifAddLink(query.getId1(), query.getId2());
+                    break;
+                case REMOVE_LINK:
+                    costs[i] = ifRemoveLink(query.getId1(), query.getId2());
+                    break;
+                default:
+                    costs[i] = ifRelocate(query.getId1(), query.getX(), query.getY());
+            }
+        }
+    }
+
+    /**
+     * The sum, over the component of x except x itself, of the power level every node pays per destination
+     * joining or leaving the component on the side of x
+     */
+    private double rest(int x) {
+        int top = root[x];
+        return highestBelow[top] - graph.highestPowerLevels[x] - (upwardBelow[top] - pathSum[x]);
+    }
+
+    private double q(int slot) {
+        return graph.highestPowerLevels[slot] - graph.secondPowerLevels[slot];
+    }
+
+    /**
+     * The cost of a node after an edit around it, computed like SharedMulticastTree.getCost
+     * @param s
+     * @param sx
+     *      the position of s
+     * @param sy
+     * @param skipped
+     *      a neighbor that is unlinked, or NO_SLOT
+     * @param added
+     *      a node that is linked, or NO_SLOT
+     * @param addedBehind
+     *      destinations behind the added node
+     * @param moved
+     *      a neighbor that is moved to (mx, my), or NO_SLOT
+     * @param mx
+     * @param my
+     * @param destinations
+     *      destinations of the component of s afterwards
+     * @return
+     *      the cost
+     */
+    private double cost(int s, double sx, double sy, int skipped, int added, int addedBehind,
+            int moved, double mx, double my, int destinations) {
+        int farthest = SMTGraph.NO_SLOT;
+        double highest = -1;
+        double second = -1;
+        int degree = 0;
+
+        int end = graph.offsets[s] + graph.degrees[s];
+        for(int i = graph.offsets[s]; i <= end; i++) {
+            int t = i < end ? graph.targets[i] : added;
+            if(t == SMTGraph.NO_SLOT || t == skipped)
+                continue;
+            double dx = (t == moved ? mx : graph.x[t]) - sx;
+            double dy = (t == moved ? my : graph.y[t]) - sy;
+            double distance = dx*dx + dy*dy;
+            degree++;
+
+            if(distance > highest) {
+                second = highest;
+                highest = distance;
+                farthest = t;
+            }
+            else if(distance > second)
+                second = distance;
+        }
+
+        if(degree == 0)
+            return 0;
+
+        double p1 = costModel.cost(highest);
+        double p2 = degree > 1 ? costModel.cost(second) : 0;
+        int behind = farthest == added ? addedBehind : counts.behind(s, farthest);
+        return behind*p2 + (destinations - behind)*p1;
+    }
+
+    private int slotOf(int id) throws IllegalArgumentException {
+        int slot = graph.slotOf(id);
+        if(slot == SMTGraph.NO_SLOT)
+            throw new IllegalArgumentException("No node with id " + id);
+        return slot;
+    }
+
+    /**
+     * Answers a range of a batch, splitting it in halves until the ranges are at most QUERY_CHUNK_SIZE long
+     */
+    private class QueryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final List<CostQuery> queries;
+        private final double[] costs;
+        private final int from, to;
+
+        QueryTask(List<CostQuery> queries, double[] costs, int from, int to) {
+            this.queries = queries;
+            this.costs = costs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from > QUERY_CHUNK_SIZE) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new QueryTask(queries, costs, from, mid), new QueryTask(queries, costs, mid, to));
+                return;
+            }
+            answer(queries, costs, from, to);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package model;
+
+/**
+ * The cost of a single transmission as a function of the distance it has to reach.
+ * The tree picks the power levels of a node on distance alone, so the cost must never
+ * decrease when the distance grows.
+ * <p>
+ * Distances are passed squared, models that only need the squared distance (such as d^2 path loss)
+ * never take a square root.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public interface CostModel {
+
+    /**
+     *
+     * @param squaredDistance
+     *      the squared distance the transmission has to reach
+     * @return
+     *      the cost of the transmission
+     */
+    double cost(double squaredDistance);
+
+    /**
+     * Replaces every squared distance of values[from] ... values[to - 1] by the cost of reaching it.
+     * Implementations should keep this a plain loop over the array so the JIT can vectorize it.
+     * @param values
+     * @param from
+     * @param to
+     */
+    default void costs(double[] values, int from, int to) {
+        for(int i = from; i < to; i++)
+            values[i] = cost(values[i]);
+    }
+}
@@ -0,0 +1,77 @@
+package model;
+
+/**
+ * An edit whose effect on the cost of a tree can be asked for without applying it,
+ * see SharedMulticastTree.costIf
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public final class CostQuery {
+
+    public enum Kind {
+        ADD_LINK,
+        REMOVE_LINK,
+        RELOCATE
+    }
+
+    private final Kind kind;
+    private final int id1, id2;
+    private final double x, y;
+
+    private CostQuery(Kind kind, int id1, int id2, double x, double y) {
+        this.kind = kind;
+        this.id1 = id1;
+        this.id2 = id2;
+        this.x = x;
+        this.y = y;
+    }
+
+    public static CostQuery addLink(int id1, int id2) {
+        return new CostQuery(Kind.ADD_LINK, id1, id2, 0, 0);
+    }
+
+    public static CostQuery removeLink(int id1, int id2) {
+        return new CostQuery(Kind.REMOVE_LINK, id1, id2, 0, 0);
+    }
+
+    public static CostQuery relocate(int id, double x, double y) {
+        return new CostQuery(Kind.RELOCATE, id, id, x, y);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public int getId1() {
+        return id1;
+    }
+
+    /**
+     *
+     * @return
+     *      the other end of the link, the node itself for a relocation
+     */
+    public int getId2() {
+        return id2;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    @Override
+    public String toString() {
+        switch(kind) {
+            case ADD_LINK:
+                return "add link " + id1 + "-" + id2;
+            case REMOVE_LINK:
+                return "remove link " + id1 + "-" + id2;
+            default:
+                return "relocate " + id1 + " to (" + x + ", " + y + ")";
+        }
+    }
+}
@@ -0,0 +1,731 @@
+package model;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Delaunay triangulation of a point set, a sparse candidate graph (at most 3n - 6 links) that contains
+ * the Euclidean minimum spanning tree and every link between nearest neighbors.
+ * <p>
+ * The triangulation is built by a sweep over the convex hull: the points are inserted by increasing distance
+ * from the circumcenter of a seed triangle, so every point lies outside the hull built so far. A point is linked
+ * to every hull link it can see, and the new triangles are flipped until they are Delaunay again. A hash of the
+ * hull by angle finds the visible links in O(1) expected time, the build takes O(n log n) for the sort.
+ * The center is rounded, so a point can turn out to lie inside the hull after all, it is then inserted into the
+ * triangle containing it, found by walking from the hull.
+ * <p>
+ * The orientation and in-circle tests are robust. They are evaluated in double precision with an error bound,
+ * and only redone exactly when the sign is in doubt, which only happens for (nearly) degenerate input.
+ * <p>
+ * Triangles are stored as vertex triples, ordered clockwise with the y-axis pointing up. Half-edge e of triangle
+ * e/3 runs from vertex e to the next vertex of its triangle, halfedges[e] is the opposite half-edge of the
+ * neighboring triangle, or -1 on the hull.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public final class DelaunayTriangulation {
+
+    private static final double HALF_EPSILON = Math.ulp(1.0)/2; // the unit roundoff of doubles
+    private static final double ORIENT_BOUND = (3 + 16*HALF_EPSILON)*HALF_EPSILON;
+    private static final double INCIRCLE_BOUND = (10 + 96*HALF_EPSILON)*HALF_EPSILON;
+    private static final int NONE = -1;
+
+    private final double[] x, y;
+    private final int n;
+
+    private int[] triangles;
+    private int[] halfedges;
+    private int trianglesLength;
+
+    // the hull while it is swept, as a doubly linked list over the points
+    private int[] hullPrevious, hullNext, hullTriangle, hullHash;
+    private int hullStart;
+    private int hashSize;
+    private double originX, originY; // the first seed point
+    private double centerX, centerY; // relative to the origin, so it keeps its precision far from zero
+
+    private int[] edgeStack = new int[512];
+    private int[] extraLinks = new int[16]; // links of points left out of the triangles, point pairs
+    private int extraLength;
+
+    private DelaunayTriangulation(double[] x, double[] y) {
+        this.x = x;
+        this.y = y;
+        this.n = x.length;
+    }
+
+    /**
+     * Triangulates the points
+     * @param x
+     * @param y
+     * @return
+     *      the triangulation, the points are referred to by index
+     */
+    public static DelaunayTriangulation build(double[] x, double[] y) throws IllegalArgumentException {
+        if(x.length != y.length)
+            throw new IllegalArgumentException("Coordinates must be of same length, x.length = " + x.length + ", y.length = " + y.length);
+
+        DelaunayTriangulation triangulation = new DelaunayTriangulation(x, y);
+        triangulation.triangulate();
+        return triangulation;
+    }
+
+    /**
+     * The links of the triangulation over the live nodes of a graph
+     * @param graph
+     * @return
+     *      distinct slot pairs, u at even and v at odd indexes
+     */
+    public static int[] edges(SMTGraph graph) {
+        int[] slots = new int[graph.count];
+        double[] x = new double[graph.count];
+        double[] y = new double[graph.count];
+        int length = 0;
+        for(int s = 0; s < graph.size; s++) {
+            if(!graph.isAlive(s))
+                continue;
+            slots[length] = s;
+            x[length] = graph.x[s];
+            y[length++] = graph.y[s];
+        }
+
+        int[] edges = build(x, y).getEdges();
+        for(int i = 0; i < edges.length; i++)
+            edges[i] = slots[edges[i]];
+        return edges;
+    }
+
+    /**
+     *
+     * @return
+     *      the number of points
+     */
+    public int size() {
+        return n;
+    }
+
+    public int getTriangleCount() {
+        return trianglesLength/3;
+    }
+
+    /**
+     *
+     * @return
+     *      the vertices of every triangle, three by three
+     */
+    public int[] getTriangles() {
+        return Arrays.copyOf(triangles, trianglesLength);
+    }
+
+    /**
+     *
+     * @return
+     *      the opposite half-edge of every half-edge, -1 on the hull
+     */
+    public int[] getHalfedges() {
+        return Arrays.copyOf(halfedges, trianglesLength);
+    }
+
+    /**
+     * The links of the triangulation, every link once. Points left out of the triangles, duplicates and collinear
+     * points, are linked to a point at the same place or to their neighbors on the line, so the links connect
+     * all the points.
+     * @return
+     *      point pairs, u at even and v at odd indexes
+     */
+    public int[] getEdges() {
+        int count = extraLength/2;
+        for(int e = 0; e < trianglesLength; e++)
+            if(halfedges[e] < e)
+                count++;
+
+        int[] edges = new int[2*count];
+        int length = 0;
+        for(int e = 0; e < trianglesLength; e++)
+            if(halfedges[e] < e) {
+                edges[length++] = triangles[e];
+                edges[length++] = triangles[e % 3 == 2 ? e - 2 : e + 1];
+            }
+        System.arraycopy(extraLinks, 0, edges, length, extraLength);
+        return edges;
+    }
+
+    private void triangulate() {
+        int maxTriangles = Math.max(2*n - 5, 0);
+        triangles = new int[3*maxTriangles];
+        halfedges = new int[3*maxTriangles];
+
+        if(n < 2)
+            return;
+
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < n; i++) {
+            minX = Math.min(minX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxX = Math.max(maxX, x[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        double cx = (minX + maxX)/2;
+        double cy = (minY + maxY)/2;
+
+        // Seed triangle: the point closest to the center, its nearest point, and the point making the smallest circle
+        int i0 = 0;
+        double minDistance = Double.POSITIVE_INFINITY;
+        for(int i = 0; i < n; i++) {
+            double d = Geometry.distanceSquared(cx, cy, x[i], y[i]);
+            if(d < minDistance) {
+                i0 = i;
+                minDistance = d;
+            }
+        }
+
+        int i1 = NONE;
+        minDistance = Double.POSITIVE_INFINITY;
+        for(int i = 0; i < n; i++) {
+            double d = Geometry.distanceSquared(x[i0], y[i0], x[i], y[i]);
+            if(i != i0 && d < minDistance && d > 0) {
+                i1 = i;
+                minDistance = d;
+            }
+        }
+
+        int i2 = NONE;
+        double minRadius = Double.POSITIVE_INFINITY;
+        for(int i = 0; i1 != NONE && i < n; i++) {
+            if(i == i0 || i == i1)
+                continue;
+            double r = circumradius(x[i0], y[i0], x[i1], y[i1], x[i], y[i]);
+            if(r < minRadius && orient(x[i0], y[i0], x[i1], y[i1], x[i], y[i]) != 0) {
+                i2 = i;
+                minRadius = r;
+            }
+        }
+
+        if(i2 == NONE) {
+            linkCollinear();
+            return;
+        }
+
+        if(orient(x[i0], y[i0], x[i1], y[i1], x[i2], y[i2]) > 0) { // the triangles are clockwise
+            int i = i1;
+            i1 = i2;
+            i2 = i;
+        }
+
+        double ax = x[i0], ay = y[i0];
+        double dx = x[i1] - ax, dy = y[i1] - ay;
+        double ex = x[i2] - ax, ey = y[i2] - ay;
+        double bl = dx*dx + dy*dy;
+        double cl = ex*ex + ey*ey;
+        double d = 0.5/(dx*ey - dy*ex);
+        originX = ax;
+        originY = ay;
+        centerX = (ey*bl - dy*cl)*d;
+        centerY = (dx*cl - ex*bl)*d;
+
+        int[] ids = new int[n];
+        double[] distances = new double[n];
+        for(int i = 0; i < n; i++) {
+            ids[i] = i;
+            distances[i] = Geometry.distanceSquared(centerX, centerY, x[i] - originX, y[i] - originY);
+        }
+        sort(distances, ids, 0, n - 1);
+        sortTies(distances, ids);
+
+        hashSize = (int) Math.ceil(Math.sqrt(n));
+        hullPrevious = new int[n];
+        hullNext = new int[n];
+        hullTriangle = new int[n];
+        hullHash = new int[hashSize];
+        Arrays.fill(hullHash, NONE);
+
+        hullStart = i0;
+        hullNext[i0] = hullPrevious[i2] = i1;
+        hullNext[i1] = hullPrevious[i0] = i2;
+        hullNext[i2] = hullPrevious[i1] = i0;
+        hullTriangle[i0] = 0;
+        hullTriangle[i1] = 1;
+        hullTriangle[i2] = 2;
+        hullHash[hashKey(x[i0], y[i0])] = i0;
+        hullHash[hashKey(x[i1], y[i1])] = i1;
+        hullHash[hashKey(x[i2], y[i2])] = i2;
+
+        addTriangle(i0, i1, i2, NONE, NONE, NONE);
+
+        int previous = NONE;
+        for(int k = 0; k < n; k++) {
+            int i = ids[k];
+            double px = x[i], py = y[i];
+
+            if(previous != NONE && px == x[previous] && py == y[previous]) {
+                addExtraLink(i, previous); // duplicate
+                continue;
+            }
+            previous = i;
+            if(i == i0 || i == i1 || i == i2)
+                continue;
+
+            // A hull vertex near in angle, then the first hull link visible from the point
+            int start = 0;
+            for(int j = 0, key = hashKey(px, py); j < hashSize; j++) {
+                start = hullHash[(key + j) % hashSize];
+                if(start != NONE && start != hullNext[start])
+                    break;
+            }
+            start = hullPrevious[start];
+
+            int e = start;
+            int q;
+            while(!(orient(px, py, x[e], y[e], x[q = hullNext[e]], y[q]) > 0)) {
+                e = q;
+                if(e == start) {
+                    e = NONE;
+                    break;
+                }
+            }
+            if(e == NONE) { // not outside the hull after all, the sweep center is rounded
+                insertInside(i, hullTriangle[start]);
+                continue;
+            }
+
+            int t = addTriangle(e, i, hullNext[e], NONE, NONE, hullTriangle[e]);
+            hullTriangle[i] = legalize(t + 2);
+            hullTriangle[e] = t;
+
+            // Forward along the hull
+            int m = hullNext[e];
+            while(orient(px, py, x[m], y[m], x[q = hullNext[m]], y[q]) > 0) {
+                t = addTriangle(m, i, q, hullTriangle[i], NONE, hullTriangle[m]);
+                hullTriangle[i] = legalize(t + 2);
+                hullNext[m] = m; // removed from the hull
+                m = q;
+            }
+
+            // Backward along the hull
+            if(e == start) {
+                while(orient(px, py, x[q = hullPrevious[e]], y[q], x[e], y[e]) > 0) {
+                    t = addTriangle(q, i, e, NONE, hullTriangle[e], hullTriangle[q]);
+                    legalize(t + 2);
+                    hullTriangle[q] = t;
+                    hullNext[e] = e;
+                    e = q;
+                }
+            }
+
+            hullStart = hullPrevious[i] = e;
+            hullNext[e] = hullPrevious[m] = i;
+            hullNext[i] = m;
+
+            hullHash[hashKey(px, py)] = i;
+            hullHash[hashKey(x[e], y[e])] = e;
+        }
+
+        hullPrevious = hullNext = hullTriangle = hullHash = null;
+    }
+
+    /**
+     * Inserts a point inside the hull, or on it, into the triangle containing it, found by walking from
+     * the half-edge from. The triangle is split in three, or the two triangles at a link in two each.
+     */
+    private void insertInside(int i, int from) {
+        double px = x[i], py = y[i];
+
+        // Visibility walk, terminates in a Delaunay triangulation
+        int t = from - from % 3;
+        int k = 0;
+        for(int side = 0; side < 3; ) {
+            int e = t + (k + side) % 3;
+            int a = triangles[e], b = triangles[next(e)];
+            if(orient(x[a], y[a], x[b], y[b], px, py) > 0 && halfedges[e] != NONE) {
+                int f = halfedges[e];
+                t = f - f % 3;
+                k = f % 3 + 1; // not back through f
+                side = 0;
+            }
+            else
+                side++;
+        }
+
+        int on = NONE; // a link the point lies on
+        for(int side = 0; side < 3; side++) {
+            int a = triangles[t + side], b = triangles[next(t + side)];
+            double o = orient(x[a], y[a], x[b], y[b], px, py);
+            if(o > 0) { // outside of a hull link, cannot happen with exact predicates, link it anyway
+                addExtraLink(i, a);
+                return;
+            }
+            if(o == 0) {
+                if(on != NONE) { // at a vertex
+                    addExtraLink(i, triangles[next(t + side)] == triangles[on] ? b : a);
+                    return;
+                }
+                on = t + side;
+            }
+        }
+
+        if(on == NONE)
+            splitTriangle(i, t);
+        else
+            splitLink(i, on);
+    }
+
+    private void splitTriangle(int i, int t) {
+        int a = triangles[t], b = triangles[t + 1], c = triangles[t + 2];
+        int hb = halfedges[t + 1], hc = halfedges[t + 2];
+
+        triangles[t + 2] = i;
+        int t1 = addTriangle(b, c, i, hb, NONE, t + 1);
+        int t2 = addTriangle(c, a, i, hc, t + 2, t1 + 1);
+        if(hb == NONE)
+            hullTriangle[b] = t1;
+        if(hc == NONE)
+            hullTriangle[c] = t2;
+
+        legalize(t);
+        legalize(t1);
+        legalize(t2);
+    }
+
+    /**
+     * Splits the link e, from a to b, and the triangle at the other side of it if any
+     */
+    private void splitLink(int i, int e) {
+        int a = triangles[e], b = triangles[next(e)], c = triangles[next(next(e))];
+        int t = e - e % 3;
+        int hbc = halfedges[next(e)], hca = halfedges[next(next(e))];
+        int f = halfedges[e];
+
+        // (a, i, c) replaces the triangle, (i, b, c) is new
+        triangles[t] = a;
+        triangles[t + 1] = i;
+        triangles[t + 2] = c;
+        link(t + 2, hca);
+        int t1 = addTriangle(i, b, c, NONE, hbc, t + 1);
+        if(hca == NONE)
+            hullTriangle[c] = t + 2;
+        if(hbc == NONE)
+            hullTriangle[b] = t1 + 1;
+
+        if(f == NONE) { // on the hull, the point joins it
+            halfedges[t] = NONE;
+            hullNext[a] = hullPrevious[b] = i;
+            hullPrevious[i] = a;
+            hullNext[i] = b;
+            hullTriangle[a] = t;
+            hullTriangle[i] = t1;
+            hullHash[hashKey(x[i], y[i])] = i;
+        }
+        else {
+            int d = triangles[next(next(f))];
+            int u = f - f % 3;
+            int had = halfedges[next(f)], hdb = halfedges[next(next(f))];
+
+            // (b, i, d) replaces the other triangle, (i, a, d) is new
+            triangles[u] = b;
+            triangles[u + 1] = i;
+            triangles[u + 2] = d;
+            link(u, t1);
+            link(u + 2, hdb);
+            int u1 = addTriangle(i, a, d, t, had, u + 1);
+            if(hdb == NONE)
+                hullTriangle[d] = u + 2;
+            if(had == NONE)
+                hullTriangle[a] = u1 + 1;
+            legalize(u + 2);
+            legalize(u1 + 1);
+        }
+
+        legalize(t + 2);
+        legalize(t1 + 1);
+    }
+
+    private static int next(int e) {
+        return e % 3 == 2 ? e - 2 : e + 1;
+    }
+
+    /**
+     * All points are on a line (or at a point): links them in their order along it
+     */
+    private void linkCollinear() {
+        int[] ids = new int[n];
+        double[] distances = new double[n];
+        for(int i = 0; i < n; i++) {
+            ids[i] = i;
+            double d = x[i] - x[0];
+            distances[i] = d != 0 ? d : y[i] - y[0];
+        }
+        sort(distances, ids, 0, n - 1);
+        for(int i = 1; i < n; i++)
+            addExtraLink(ids[i - 1], ids[i]);
+    }
+
+    /**
+     * Flips the half-edge a and the ones behind it until their triangles are Delaunay
+     * @return
+     *      the half-edge that ends up where a + 2 of the triangle of a was
+     */
+    private int legalize(int a) {
+        int stack = 0;
+        int ar;
+
+        while(true) {
+            int b = halfedges[a];
+            int a0 = a - a % 3;
+            ar = a0 + (a + 2) % 3;
+
+            if(b == NONE) { // hull link
+                if(stack == 0)
+                    break;
+                a = edgeStack[--stack];
+                continue;
+            }
+
+            int b0 = b - b % 3;
+            int al = a0 + (a + 1) % 3;
+            int bl = b0 + (b + 2) % 3;
+
+            int p0 = triangles[ar];
+            int pr = triangles[a];
+            int pl = triangles[al];
+            int p1 = triangles[bl];
+
+            if(incircle(x[p0], y[p0], x[pr], y[pr], x[pl], y[pl], x[p1], y[p1]) < 0) {
+                triangles[a] = p1;
+                triangles[b] = p0;
+
+                int hbl = halfedges[bl];
+                if(hbl == NONE) { // the flipped link was on the hull at the other side, fix its reference
+                    int e = hullStart;
+                    do {
+                        if(hullTriangle[e] == bl) {
+                            hullTriangle[e] = a;
+                            break;
+                        }
+                        e = hullPrevious[e];
+                    } while(e != hullStart);
+                }
+                link(a, hbl);
+                link(b, halfedges[ar]);
+                link(ar, bl);
+
+                int br = b0 + (b + 1) % 3;
+                if(stack == edgeStack.length)
+                    edgeStack = Arrays.copyOf(edgeStack, stack*2);
+                edgeStack[stack++] = br;
+            }
+            else {
+                if(stack == 0)
+                    break;
+                a = edgeStack[--stack];
+            }
+        }
+
+        return ar;
+    }
+
+    private void link(int a, int b) {
+        halfedges[a] = b;
+        if(b != NONE)
+            halfedges[b] = a;
+    }
+
+    private int addTriangle(int i0, int i1, int i2, int a, int b, int c) {
+        int t = trianglesLength;
+        triangles[t] = i0;
+        triangles[t + 1] = i1;
+        triangles[t + 2] = i2;
+        link(t, a);
+        link(t + 1, b);
+        link(t + 2, c);
+        trianglesLength += 3;
+        return t;
+    }
+
+    private void addExtraLink(int u, int v) {
+        if(extraLength + 2 > extraLinks.length)
+            extraLinks = Arrays.copyOf(extraLinks, extraLinks.length*2);
+        extraLinks[extraLength++] = u;
+        extraLinks[extraLength++] = v;
+    }
+
+    private int hashKey(double px, double py) {
+        return (int) Math.floor(pseudoAngle(px - originX - centerX, py - originY - centerY)*hashSize) % hashSize;
+    }
+
+    /**
+     * Monotone in the angle of (dx, dy), from 0 to 1
+     */
+    private static double pseudoAngle(double dx, double dy) {
+        double p = dx/(Math.abs(dx) + Math.abs(dy));
+        return (dy > 0 ? 3 - p : 1 + p)/4;
+    }
+
+    private static double circumradius(double ax, double ay, double bx, double by, double cx, double cy) {
+        double dx = bx - ax, dy = by - ay;
+        double ex = cx - ax, ey = cy - ay;
+        double bl = dx*dx + dy*dy;
+        double cl = ex*ex + ey*ey;
+        double d = 0.5/(dx*ey - dy*ex);
+        double rx = (ey*bl - dy*cl)*d;
+        double ry = (dx*cl - ex*bl)*d;
+        double r = rx*rx + ry*ry;
+        return Double.isNaN(r) ? Double.POSITIVE_INFINITY : r;
+    }
+
+    /**
+     * Orientation of a, b, c, exact in sign
+     * @return
+     *      positive if c lies left of the line from a to b (counterclockwise with the y-axis up),
+     *      negative if right, 0 if the points are collinear
+     */
+    static double orient(double ax, double ay, double bx, double by, double cx, double cy) {
+        double left = (ax - cx)*(by - cy);
+        double right = (ay - cy)*(bx - cx);
+        double det = left - right;
+
+        double sum;
+        if(left > 0) {
+            if(right <= 0)
+                return det;
+            sum = left + right;
+        }
+        else if(left < 0) {
+            if(right >= 0)
+                return det;
+            sum = -left - right;
+        }
+        else
+            return det;
+
+        double bound = ORIENT_BOUND*sum;
+        if(det >= bound || -det >= bound)
+            return det;
+
+        BigDecimal acx = exact(ax).subtract(exact(cx)), bcy = exact(by).subtract(exact(cy));
+        BigDecimal acy = exact(ay).subtract(exact(cy)), bcx = exact(bx).subtract(exact(cx));
+        return acx.multiply(bcy).subtract(acy.multiply(bcx)).signum();
+    }
+
+    /**
+     * In-circle test of d against the circle through a, b, c, exact in sign
+     * @return
+     *      positive if d lies inside the circle and a, b, c are counterclockwise (with the y-axis up),
+     *      or outside and clockwise, negative for the opposite cases, 0 if d is on the circle
+     */
+    static double incircle(double ax, double ay, double bx, double by, double cx, double cy, double dx, double dy) {
+        double adx = ax - dx, ady = ay - dy;
+        double bdx = bx - dx, bdy = by - dy;
+        double cdx = cx - dx, cdy = cy - dy;
+
+        double bdxcdy = bdx*cdy, cdxbdy = cdx*bdy;
+        double cdxady = cdx*ady, adxcdy = adx*cdy;
+        double adxbdy = adx*bdy, bdxady = bdx*ady;
+        double alift = adx*adx + ady*ady;
+        double blift = bdx*bdx + bdy*bdy;
+        double clift = cdx*cdx + cdy*cdy;
+
+        double det = alift*(bdxcdy - cdxbdy) + blift*(cdxady - adxcdy) + clift*(adxbdy - bdxady);
+        double permanent = (Math.abs(bdxcdy) + Math.abs(cdxbdy))*alift
+                + (Math.abs(cdxady) + Math.abs(adxcdy))*blift
+                + (Math.abs(adxbdy) + Math.abs(bdxady))*clift;
+        double bound = INCIRCLE_BOUND*permanent;
+        if(det > bound || -det > bound)
+            return det;
+
+        BigDecimal eadx = exact(ax).subtract(exact(dx)), eady = exact(ay).subtract(exact(dy));
+        BigDecimal ebdx = exact(bx).subtract(exact(dx)), ebdy = exact(by).subtract(exact(dy));
+        BigDecimal ecdx = exact(cx).subtract(exact(dx)), ecdy = exact(cy).subtract(exact(dy));
+        BigDecimal ealift = eadx.multiply(eadx).add(eady.multiply(eady));
+        BigDecimal eblift = ebdx.multiply(ebdx).add(ebdy.multiply(ebdy));
+        BigDecimal eclift = ecdx.multiply(ecdx).add(ecdy.multiply(ecdy));
+        return ealift.multiply(ebdx.multiply(ecdy).subtract(ecdx.multiply(ebdy)))
+                .add(eblift.multiply(ecdx.multiply(eady).subtract(eadx.multiply(ecdy))))
+                .add(eclift.multiply(eadx.multiply(ebdy).subtract(ebdx.multiply(eady))))
+                .signum();
+    }
+
+    private static BigDecimal exact(double value) {
+        return new BigDecimal(value);
+    }
+
+    /**
+     * Sorts ids by keys, moving both, recursing into the smaller part only
+     */
+    private static void sort(double[] keys, int[] ids, int left, int right) {
+        while(right - left > 20) {
+            int mid = (left + right) >>> 1;
+            // median of three into left + 1
+            swap(keys, ids, mid, left + 1);
+            if(keys[left] > keys[right])
+                swap(keys, ids, left, right);
+            if(keys[left + 1] > keys[right])
+                swap(keys, ids, left + 1, right);
+            if(keys[left] > keys[left + 1])
+                swap(keys, ids, left, left + 1);
+
+            double pivot = keys[left + 1];
+            int i = left + 1;
+            int j = right;
+            while(true) {
+                do i++; while(keys[i] < pivot);
+                do j--; while(keys[j] > pivot);
+                if(j < i)
+                    break;
+                swap(keys, ids, i, j);
+            }
+            swap(keys, ids, left + 1, j);
+
+            if(j - left < right - j) {
+                sort(keys, ids, left, j - 1);
+                left = j + 1;
+            }
+            else {
+                sort(keys, ids, j + 1, right);
+                right = j - 1;
+            }
+        }
+
+        for(int i = left + 1; i <= right; i++) { // insertion sort of the small parts
+            double key = keys[i];
+            int id = ids[i];
+            int j = i - 1;
+            for(; j >= left && keys[j] > key; j--) {
+                keys[j + 1] = keys[j];
+                ids[j + 1] = ids[j];
+            }
+            keys[j + 1] = key;
+            ids[j + 1] = id;
+        }
+    }
+
+    /**
+     * Sorts the runs of equal distances by x, then y, so points at the same place end up next to each other
+     */
+    private void sortTies(double[] distances, int[] ids) {
+        for(int left = 0, right; left < n; left = right) {
+            for(right = left + 1; right < n && distances[right] == distances[left]; right++);
+            if(right - left < 2)
+                continue;
+
+            for(int k = left; k < right; k++)
+                distances[k] = x[ids[k]];
+            sort(distances, ids, left, right - 1);
+            for(int from = left, to; from < right; from = to) {
+                for(to = from + 1; to < right && distances[to] == distances[from]; to++);
+                for(int k = from; k < to; k++)
+                    distances[k] = y[ids[k]];
+                sort(distances, ids, from, to - 1);
+            }
+        }
+    }
+
+    private static void swap(double[] keys, int[] ids, int i, int j) {
+        double key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        int id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+    }
+}
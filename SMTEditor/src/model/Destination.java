@@ -2,8 +2,8 @@ package model;
 
 public class Destination extends SMTNode{
 
-    public Destination(double x, double y, int id) {
-        super(x, y, true, id);
+    public Destination(SMTGraph graph, int id) {
+        super(graph, id, true);
     }
 
 }
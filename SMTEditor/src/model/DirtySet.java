@@ -0,0 +1,61 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * A set of slots with O(1) insertion and clearing proportional to its size,
+ * used to remember which nodes need their data refreshed.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+final class DirtySet {
+
+    private boolean[] marked;
+    private int[] slots;
+    private int count;
+
+    DirtySet(int capacity) {
+        marked = new boolean[Math.max(capacity, 16)];
+        slots = new int[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Adds a slot to the set, does nothing if it's already in it
+     * @param slot
+     */
+    void add(int slot) {
+        if(slot >= marked.length)
+            marked = Arrays.copyOf(marked, Math.max(slot + 1, marked.length*2));
+        if(marked[slot])
+            return;
+
+        marked[slot] = true;
+        if(count == slots.length)
+            slots = Arrays.copyOf(slots, count*2);
+        slots[count++] = slot;
+    }
+
+    boolean contains(int slot) {
+        return slot < marked.length && marked[slot];
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     *
+     * @param i
+     * @return
+     *      the i-th slot in insertion order
+     */
+    int get(int i) {
+        return slots[i];
+    }
+
+    void clear() {
+        for(int i = 0; i < count; i++)
+            marked[slots[i]] = false;
+        count = 0;
+    }
+}
@@ -0,0 +1,115 @@
+package model;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Undo and redo for a tree, as a stack of snapshots. Recording a state after an edit copies the edited nodes and
+ * their neighbors, O(k log n) for k of them, and stepping back or forth restores only the nodes that differ,
+ * recounting the components whose links differ. States after a full recalculation copy every node, so besides
+ * the number of steps, the nodes copied by the steps kept are bounded too, the oldest steps are forgotten first.
+ * Every recorded state is also published to background readers, see SharedMulticastTree.readSnapshot.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public class EditHistory {
+
+    public static final int DEFAULT_CAPACITY = 1000;
+    public static final long DEFAULT_NODE_BUDGET = 1 << 20; // a full snapshot of this many nodes holds about a hundred MB
+
+    private final SharedMulticastTree tree;
+    private final int capacity;
+    private final long nodeBudget;
+    private long copiedNodes; // by the states kept, a measure of the memory they hold
+    private final Deque<TreeSnapshot> undo = new ArrayDeque<TreeSnapshot>();
+    private final Deque<TreeSnapshot> redo = new ArrayDeque<TreeSnapshot>();
+    private TreeSnapshot current;
+
+    public EditHistory(SharedMulticastTree tree) {
+        this(tree, DEFAULT_CAPACITY, DEFAULT_NODE_BUDGET);
+    }
+
+    public EditHistory(SharedMulticastTree tree, int capacity) throws IllegalArgumentException {
+        this(tree, capacity, DEFAULT_NODE_BUDGET);
+    }
+
+    /**
+     * Starts the history at the current state of the tree
+     * @param tree
+     *     a recalculated tree
+     * @param capacity
+     *     the number of steps that can be undone, older ones are forgotten
+     * @param nodeBudget
+     *     the number of nodes the kept steps may have copied, older steps are forgotten beyond it.
+     *     The last step is always kept.
+     */
+    public EditHistory(SharedMulticastTree tree, int capacity, long nodeBudget) throws IllegalArgumentException {
+        if(capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive, capacity = " + capacity);
+        if(nodeBudget <= 0)
+            throw new IllegalArgumentException("Node budget must be positive, nodeBudget = " + nodeBudget);
+        this.tree = tree;
+        this.capacity = capacity;
+        this.nodeBudget = nodeBudget;
+        this.current = tree.publish();
+        copiedNodes = current.copiedNodes;
+    }
+
+    /**
+     * Records the state of the tree after an edit, the redo steps are dropped. Does nothing if the tree
+     * didn't change.
+     */
+    public void record() {
+        TreeSnapshot state = tree.publish();
+        if(state == current)
+            return;
+
+        undo.push(current);
+        for(TreeSnapshot step : redo)
+            copiedNodes -= step.copiedNodes;
+        redo.clear();
+        current = state;
+        copiedNodes += state.copiedNodes;
+
+        while(undo.size() > capacity || (copiedNodes > nodeBudget && undo.size() > 1))
+            copiedNodes -= undo.removeLast().copiedNodes;
+    }
+
+    /**
+     * Brings the tree back to the previous recorded state
+     * @return
+     *      false if there was nothing to undo
+     */
+    public boolean undo() {
+        if(undo.isEmpty())
+            return false;
+
+        redo.push(current);
+        tree.restore(undo.pop());
+        current = tree.publish();
+        return true;
+    }
+
+    /**
+     * Brings the tree forth to the state last undone
+     * @return
+     *      false if there was nothing to redo
+     */
+    public boolean redo() {
+        if(redo.isEmpty())
+            return false;
+
+        undo.push(current);
+        tree.restore(redo.pop());
+        current = tree.publish();
+        return true;
+    }
+
+    public boolean canUndo() {
+        return !undo.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redo.isEmpty();
+    }
+}
@@ -0,0 +1,30 @@
+package model;
+
+/**
+ * The cost of a transmission is the distance it reaches
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public final class EuclideanCostModel implements CostModel {
+
+    public static final EuclideanCostModel INSTANCE = new EuclideanCostModel();
+
+    private EuclideanCostModel() {
+    }
+
+    @Override
+    public double cost(double squaredDistance) {
+        return Math.sqrt(squaredDistance);
+    }
+
+    @Override
+    public void costs(double[] values, int from, int to) {
+        for(int i = from; i < to; i++)
+            values[i] = Math.sqrt(values[i]);
+    }
+
+    @Override
+    public String toString() {
+        return "Euclidean";
+    }
+}
@@ -0,0 +1,464 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Euler tour tree over the links of a SMTGraph, answers how many destinations lie behind a link
+ * in O(log n) expected time while links are added and removed.
+ * <p>
+ * Every tree of the forest is stored as its Euler tour in an implicit treap (ordered by position, not by key):
+ * one occurrence node per vertex, weighted 1 for destinations, and one node per direction of every link.
+ * Seen from u, everything between the arc u-&gt;v and the arc v-&gt;u in the (cyclic) tour is the subtree
+ * behind v, so the count is a difference of two prefix sums. Linking and cutting rotate and splice tours.
+ * <p>
+ * Only links joining two trees are part of the tours. A link closing a cycle is only counted, and once a tree
+ * link is cut while such links exist the index can no longer tell the components apart, it then reports
+ * itself invalid and must be rebuilt.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+final class EulerTourIndex {
+
+    private static final int NIL = -1;
+
+    // treap nodes
+    private int[] left, right, parent, priority, size, weight, sum;
+    private int nodeCount;
+    private int[] freeNodes = new int[16];
+    private int freeCount;
+
+    private int[] vertexNode; // slot -> occurrence node
+    private final LongIntMap arcs; // (from << 32 | to) -> arc node
+
+    private int nonTreeLinks;
+    private boolean valid = true;
+
+    private int random = 0x2545F491;
+    private int splitLeft, splitRight;
+
+    private EulerTourIndex(int vertices, int links) {
+        int capacity = Math.max(16, vertices + 2*links);
+        left = new int[capacity];
+        right = new int[capacity];
+        parent = new int[capacity];
+        priority = new int[capacity];
+        size = new int[capacity];
+        weight = new int[capacity];
+        sum = new int[capacity];
+        vertexNode = new int[Math.max(16, vertices)];
+        Arrays.fill(vertexNode, NIL);
+        arcs = new LongIntMap(2*links);
+    }
+
+    /**
+     * Builds the index for every link of the graph in O(n)
+     * @param graph
+     * @return
+     *      the index
+     */
+    static EulerTourIndex build(SMTGraph graph) {
+        int links = graph.targetsEnd/2;
+        EulerTourIndex index = new EulerTourIndex(graph.size, links);
+
+        for(int s = 0; s < graph.size; s++)
+            if(graph.isAlive(s))
+                index.vertexNode[s] = index.newNode(graph.destination[s] ? 1 : 0);
+
+        // Write the tour of every tree with an iterative depth first traversal, then turn it into a treap
+        boolean[] visited = new boolean[graph.size];
+        int[] stack = new int[graph.size];
+        int[] cursor = new int[graph.size];
+        int[] from = new int[graph.size];
+        boolean[] skippedParent = new boolean[graph.size]; // the link back to from was passed over, further copies of it are parallel links
+        int[] tour = new int[graph.size + 2*links];
+        int cycleSightings = 0;
+
+        for(int root = 0; root < graph.size; root++) {
+            if(!graph.isAlive(root) || visited[root])
+                continue;
+
+            int length = 0;
+            int top = 0;
+            stack[top++] = root;
+            visited[root] = true;
+            from[root] = SMTGraph.NO_SLOT;
+            cursor[root] = 0;
+            skippedParent[root] = true;
+            tour[length++] = index.vertexNode[root];
+
+            while(top > 0) {
+                int v = stack[top - 1];
+                if(cursor[v] == graph.degrees[v]) { // done with v, walk back to where it came from
+                    top--;
+                    if(from[v] != SMTGraph.NO_SLOT)
+                        tour[length++] = index.newArc(v, from[v]);
+                    continue;
+                }
+
+                int u = graph.neighbor(v, cursor[v]++);
+                if(u == from[v] && !skippedParent[v]) {
+                    skippedParent[v] = true;
+                    continue;
+                }
+                if(visited[u]) { // closes a cycle, or is a parallel copy of a link, seen once from each end and not part of the tour
+                    cycleSightings++;
+                    continue;
+                }
+
+                visited[u] = true;
+                from[u] = v;
+                cursor[u] = 0;
+                skippedParent[u] = false;
+                stack[top++] = u;
+                tour[length++] = index.newArc(v, u);
+                tour[length++] = index.vertexNode[u];
+            }
+
+            index.buildTreap(tour, length);
+        }
+        index.nonTreeLinks = cycleSightings/2;
+
+        return index;
+    }
+
+    boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Adds an isolated vertex
+     * @param slot
+     * @param isDestination
+     */
+    void addVertex(int slot, boolean isDestination) {
+        if(slot >= vertexNode.length) {
+            int length = vertexNode.length;
+            vertexNode = Arrays.copyOf(vertexNode, Math.max(slot + 1, length*2));
+            Arrays.fill(vertexNode, length, vertexNode.length, NIL);
+        }
+        vertexNode[slot] = newNode(isDestination ? 1 : 0);
+    }
+
+    /**
+     * Removes a vertex, its links must have been cut beforehand
+     * @param slot
+     */
+    void removeVertex(int slot) {
+        freeNode(vertexNode[slot]);
+        vertexNode[slot] = NIL;
+    }
+
+    /**
+     * Links two vertices
+     * @param u
+     * @param v
+     * @return
+     *      false if they were already connected, the link then closes a cycle and is not part of any tour
+     */
+    boolean link(int u, int v) {
+        if(connected(u, v)) {
+            nonTreeLinks++;
+            return false;
+        }
+
+        int tourU = reroot(u);
+        int tourV = reroot(v);
+
+        int uv = newArc(u, v);
+        int vu = newArc(v, u);
+        int root = merge(merge(merge(tourU, uv), tourV), vu);
+        parent[root] = NIL;
+
+        return true;
+    }
+
+    /**
+     * Removes one of several links between two vertices, the tour keeps one of the others
+     */
+    void cutParallel() {
+        nonTreeLinks = Math.max(0, nonTreeLinks - 1);
+    }
+
+    /**
+     * Cuts the link between two vertices
+     * @param u
+     * @param v
+     */
+    void cut(int u, int v) {
+        int uv = arcs.remove(key(u, v));
+        if(uv == LongIntMap.MISSING) { // link that closed a cycle
+            nonTreeLinks = Math.max(0, nonTreeLinks - 1);
+            return;
+        }
+        int vu = arcs.remove(key(v, u));
+
+        int root = root(uv);
+        int first = uv;
+        int second = vu;
+        if(position(uv) > position(vu)) {
+            first = vu;
+            second = uv;
+        }
+        int p1 = position(first);
+        int p2 = position(second);
+
+        split(root, p1);
+        int before = splitLeft;
+        split(splitRight, 1);
+        split(splitRight, p2 - p1 - 1);
+        int between = splitLeft;
+        split(splitRight, 1);
+        int after = splitRight;
+
+        int rest = merge(before, after);
+        if(rest != NIL)
+            parent[rest] = NIL;
+        if(between != NIL)
+            parent[between] = NIL;
+
+        freeNode(uv);
+        freeNode(vu);
+
+        if(nonTreeLinks > 0) // a link closing a cycle might have reconnected the two sides
+            valid = false;
+    }
+
+    boolean connected(int u, int v) {
+        return root(vertexNode[u]) == root(vertexNode[v]);
+    }
+
+    /**
+     *
+     * @param from
+     * @param to
+     *      a neighbor of from
+     * @return
+     *      the number of destinations on the side of to when the link from-to is cut
+     */
+    int behind(int from, int to) {
+        int uv = arcs.get(key(from, to));
+        if(uv == LongIntMap.MISSING) // link closing a cycle, like SubtreeCounts everything but from is behind it
+            return sum[root(vertexNode[from])] - weight[vertexNode[from]];
+        int vu = arcs.get(key(to, from));
+
+        int before = weightBefore(uv);
+        int beforeBack = weightBefore(vu);
+        if(position(uv) < position(vu))
+            return beforeBack - before;
+        return sum[root(uv)] - (before - beforeBack);
+    }
+
+    /**
+     *
+     * @param slot
+     * @return
+     *      the number of destinations in the tree of slot
+     */
+    int componentDestinations(int slot) {
+        return sum[root(vertexNode[slot])];
+    }
+
+    /**
+     * Rotates the tour containing slot so that it starts at the occurrence of slot
+     * @return
+     *      the root of the rotated tour
+     */
+    private int reroot(int slot) {
+        int node = vertexNode[slot];
+        int root = root(node);
+        int pos = position(node);
+        if(pos == 0)
+            return root;
+
+        split(root, pos);
+        int front = splitLeft;
+        int back = splitRight;
+        root = merge(back, front);
+        parent[root] = NIL;
+        return root;
+    }
+
+    private int root(int node) {
+        while(parent[node] != NIL)
+            node = parent[node];
+        return node;
+    }
+
+    private int position(int node) {
+        int pos = size(left[node]);
+        while(parent[node] != NIL) {
+            int p = parent[node];
+            if(right[p] == node)
+                pos += size(left[p]) + 1;
+            node = p;
+        }
+        return pos;
+    }
+
+    /**
+     * Sum of the weights of the nodes before node in its tour
+     */
+    private int weightBefore(int node) {
+        int total = sum(left[node]);
+        while(parent[node] != NIL) {
+            int p = parent[node];
+            if(right[p] == node)
+                total += sum(left[p]) + weight[p];
+            node = p;
+        }
+        return total;
+    }
+
+    /**
+     * Splits the treap t in the first k nodes (splitLeft) and the rest (splitRight)
+     */
+    private void split(int t, int k) {
+        if(t == NIL) {
+            splitLeft = NIL;
+            splitRight = NIL;
+            return;
+        }
+
+        if(size(left[t]) >= k) {
+            split(left[t], k);
+            left[t] = splitRight;
+            if(splitRight != NIL)
+                parent[splitRight] = t;
+            update(t);
+            splitRight = t;
+        }
+        else {
+            split(right[t], k - size(left[t]) - 1);
+            right[t] = splitLeft;
+            if(splitLeft != NIL)
+                parent[splitLeft] = t;
+            update(t);
+            splitLeft = t;
+        }
+        parent[t] = NIL;
+    }
+
+    /**
+     * Concatenates two treaps
+     * @return
+     *      the root of the result, its parent pointer must be cleared by the caller
+     */
+    private int merge(int a, int b) {
+        if(a == NIL)
+            return b;
+        if(b == NIL)
+            return a;
+
+        if(priority[a] > priority[b]) {
+            int r = merge(right[a], b);
+            right[a] = r;
+            parent[r] = a;
+            update(a);
+            return a;
+        }
+        int l = merge(a, left[b]);
+        left[b] = l;
+        parent[l] = b;
+        update(b);
+        return b;
+    }
+
+    /**
+     * Builds a treap from a tour in O(length), by keeping the right spine of the treap on a stack
+     */
+    private void buildTreap(int[] tour, int length) {
+        int[] spine = new int[length];
+        int top = 0;
+
+        for(int i = 0; i < length; i++) {
+            int node = tour[i];
+            int last = NIL;
+            while(top > 0 && priority[spine[top - 1]] < priority[node]) {
+                last = spine[--top];
+                update(last);
+            }
+
+            left[node] = last;
+            if(last != NIL)
+                parent[last] = node;
+            if(top > 0) {
+                right[spine[top - 1]] = node;
+                parent[node] = spine[top - 1];
+            }
+            else
+                parent[node] = NIL;
+            spine[top++] = node;
+        }
+
+        while(top > 0)
+            update(spine[--top]);
+    }
+
+    private void update(int t) {
+        size[t] = 1 + size(left[t]) + size(right[t]);
+        sum[t] = weight[t] + sum(left[t]) + sum(right[t]);
+    }
+
+    private int size(int t) {
+        return t == NIL ? 0 : size[t];
+    }
+
+    private int sum(int t) {
+        return t == NIL ? 0 : sum[t];
+    }
+
+    private int newArc(int from, int to) {
+        int node = newNode(0);
+        arcs.put(key(from, to), node);
+        return node;
+    }
+
+    private int newNode(int nodeWeight) {
+        int node;
+        if(freeCount > 0)
+            node = freeNodes[--freeCount];
+        else {
+            if(nodeCount == left.length)
+                grow();
+            node = nodeCount++;
+        }
+
+        left[node] = NIL;
+        right[node] = NIL;
+        parent[node] = NIL;
+        priority[node] = nextRandom();
+        size[node] = 1;
+        weight[node] = nodeWeight;
+        sum[node] = nodeWeight;
+
+        return node;
+    }
+
+    private void freeNode(int node) {
+        if(freeCount == freeNodes.length)
+            freeNodes = Arrays.copyOf(freeNodes, freeCount*2);
+        freeNodes[freeCount++] = node;
+    }
+
+    private void grow() {
+        int capacity = left.length*2;
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        priority = Arrays.copyOf(priority, capacity);
+        size = Arrays.copyOf(size, capacity);
+        weight = Arrays.copyOf(weight, capacity);
+        sum = Arrays.copyOf(sum, capacity);
+    }
+
+    private int nextRandom() { // xorshift
+        random ^= random << 13;
+        random ^= random >>> 17;
+        random ^= random << 5;
+        return random;
+    }
+
+    private static long key(int from, int to) {
+        return ((long) from << 32) | (to & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,290 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Scores edge exchange moves on a tree without recalculating it: the candidate link u-v is added, closing
+ * a cycle, and one of the other links of that cycle is removed.
+ * <p>
+ * Only the nodes on the cycle are affected:
+ * <ul>
+ * <li>the four ends of the two links get new neighbors, their cost is recomputed in O(degree)</li>
+ * <li>the other nodes of the cycle keep their power levels, but the destinations behind the neighbors along
+ * the cycle shift by the size of the part that moves, which changes their cost by a known multiple of
+ * highest - second power level. Prefix sums of those multiples score every link of the cycle in O(1).</li>
+ * </ul>
+ * Call prepare(u, v) for a candidate, then delta(cut) for the links of its cycle. The tree must not be
+ * changed in between, except through SharedMulticastTree.exchangeLink after the last delta call.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+final class ExchangeEvaluator {
+
+    private final SharedMulticastTree tree;
+    private SMTGraph graph;
+    private SubtreeCounts counts;
+    private CostModel costModel;
+
+    private int[] path = new int[16]; // the cycle u ... v of the prepared candidate
+    private int pathLength;
+    private double[] prefix = new double[16];
+    private int total;
+
+    // u and v get the new link whichever link is removed, only the counts behind their neighbors vary
+    private int farthestU, farthestV;
+    private double highestU, secondU, highestV, secondV;
+
+    private int farthest; // result of topTwo
+    private double highest, second;
+
+    ExchangeEvaluator(SharedMulticastTree tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * Recalculates pending edits and checks that the links form a forest
+     * @throws IllegalArgumentException
+     *      if the links contain a cycle
+     */
+    void start() throws IllegalArgumentException {
+        tree.recalculateIncremental();
+        graph = tree.getGraph();
+        counts = tree.getSubtreeCounts();
+        costModel = tree.getCostModel();
+
+        long degrees = 0;
+        int components = 0;
+        for(int s = 0; s < graph.size; s++) {
+            if(!graph.isAlive(s))
+                continue;
+            degrees += graph.degrees[s];
+            if(counts.parent[s] == SMTGraph.NO_SLOT)
+                components++;
+        }
+
+        if(degrees/2 != graph.count - components)
+            throw new IllegalArgumentException("The links contain a cycle, only trees can be optimized");
+    }
+
+    SMTGraph graph() {
+        return graph;
+    }
+
+    /**
+     * Prepares the scoring of the moves adding u-v
+     * @param u
+     * @param v
+     *      not linked to u
+     * @return
+     *      false if u and v are in different components, there is no move then
+     */
+    boolean prepare(int u, int v) {
+        if(!findPath(u, v))
+            return false;
+
+        int k = pathLength - 1;
+        total = counts.componentDestinations(u);
+
+        // The nodes between the ends keep their power levels. Their cost only changes if the farthest neighbor
+        // is along the cycle, by w = highest - second per destination moving to or from behind it.
+        if(prefix.length < pathLength)
+            prefix = new double[Math.max(pathLength, prefix.length*2)];
+        prefix[0] = 0;
+        for(int j = 1; j < k; j++) {
+            int s = path[j];
+            int f = graph.farthest[s];
+            double w = graph.highestPowerLevels[s] - graph.secondPowerLevels[s];
+            double sigma = f == path[j - 1] ? w : f == path[j + 1] ? -w : 0;
+            prefix[j] = prefix[j - 1] + sigma;
+        }
+
+        topTwo(u, SMTGraph.NO_SLOT, v);
+        farthestU = farthest;
+        highestU = highest;
+        secondU = second;
+        topTwo(v, SMTGraph.NO_SLOT, u);
+        farthestV = farthest;
+        highestV = highest;
+        secondV = second;
+
+        return true;
+    }
+
+    /**
+     *
+     * @return
+     *      the number of links that can be removed, the links on the cycle besides u-v
+     */
+    int cuts() {
+        return pathLength - 1;
+    }
+
+    /**
+     *
+     * @param i
+     * @return
+     *      the slots of the i-th link of the cycle are cutStart(i) and cutStart(i + 1)
+     */
+    int cutStart(int i) {
+        return path[i];
+    }
+
+    /**
+     * Scores removing the i-th link of the cycle, in O(degree of its ends + degree of u and v)
+     * @param i
+     * @return
+     *      the change of the total cost
+     */
+    double delta(int i) {
+        int k = pathLength - 1;
+        int u = path[0];
+        int v = path[k];
+        int a = path[i];
+        int b = path[i + 1];
+        int behindB = counts.behind(a, b); // moves to behind u-v, seen from u
+        int behindA = total - behindB;
+        double[] nodeCosts = graph.nodeCosts;
+
+        double delta = 0;
+
+        // a loses b, the destinations behind b are now reached through u
+        if(i == 0)
+            delta += costAfter(a, b, v, behindB, SMTGraph.NO_SLOT, 0) - nodeCosts[a];
+        else
+            delta += costAfter(a, b, SMTGraph.NO_SLOT, 0, path[i - 1], behindB) - nodeCosts[a];
+
+        if(i + 1 == k)
+            delta += costAfter(b, a, u, behindA, SMTGraph.NO_SLOT, 0) - nodeCosts[b];
+        else
+            delta += costAfter(b, a, SMTGraph.NO_SLOT, 0, path[i + 2], behindA) - nodeCosts[b];
+
+        if(i > 0) {
+            int behind = farthestU == v ? behindB : counts.behind(u, farthestU) - (farthestU == path[1] ? behindB : 0);
+            delta += cost(behind, highestU, secondU) - nodeCosts[u];
+        }
+        if(i + 1 < k) {
+            int behind = farthestV == u ? behindA : counts.behind(v, farthestV) - (farthestV == path[k - 1] ? behindA : 0);
+            delta += cost(behind, highestV, secondV) - nodeCosts[v];
+        }
+
+        if(i >= 2) // between u and a
+            delta -= behindB*prefix[i - 1];
+        if(i + 2 < k) // between b and v
+            delta += behindA*(prefix[k - 1] - prefix[i + 1]);
+
+        return delta;
+    }
+
+    /**
+     * Applies the move removing the i-th link of the prepared cycle
+     * @param i
+     * @return
+     *      the change of the total cost
+     */
+    double apply(int i) {
+        return tree.exchangeLink(path[i], path[i + 1], path[0], path[pathLength - 1]);
+    }
+
+    /**
+     * Stores the tree path u ... v in path
+     * @return
+     *      false if u and v are in different components
+     */
+    private boolean findPath(int u, int v) {
+        int top = counts.lca(u, v);
+        if(top == SMTGraph.NO_SLOT)
+            return false;
+
+        pathLength = 0;
+        for(int s = u; s != top; s = counts.parent[s])
+            push(s);
+        push(top);
+
+        int turn = pathLength;
+        for(int s = v; s != top; s = counts.parent[s])
+            push(s);
+        for(int i = turn, j = pathLength - 1; i < j; i++, j--) { // the v side was climbed backwards
+            int t = path[i];
+            path[i] = path[j];
+            path[j] = t;
+        }
+
+        return true;
+    }
+
+    private void push(int slot) {
+        if(pathLength == path.length)
+            path = Arrays.copyOf(path, pathLength*2);
+        path[pathLength++] = slot;
+    }
+
+    /**
+     * The cost of x after one neighbor is removed and/or one is added
+     * @param x
+     * @param removed
+     *      neighbor that is removed, or SMTGraph.NO_SLOT
+     * @param added
+     *      neighbor that is added, or SMTGraph.NO_SLOT
+     * @param addedBehind
+     *      destinations behind the added neighbor
+     * @param adjusted
+     *      neighbor whose number of destinations behind changes, or SMTGraph.NO_SLOT
+     * @param adjustment
+     *      the change
+     * @return
+     */
+    private double costAfter(int x, int removed, int added, int addedBehind, int adjusted, int adjustment) {
+        topTwo(x, removed, added);
+        if(farthest == SMTGraph.NO_SLOT)
+            return 0;
+
+        int behind;
+        if(farthest == added)
+            behind = addedBehind;
+        else
+            behind = counts.behind(x, farthest) + (farthest == adjusted ? adjustment : 0);
+
+        return cost(behind, highest, second);
+    }
+
+    private double cost(int behindFarthest, double highest, double second) {
+        return behindFarthest*second + (total - behindFarthest)*highest;
+    }
+
+    /**
+     * Selects the power levels of x like the tree does, over its neighbors without removed and with added
+     * appended at the end, in the order the tree would store them after the move
+     */
+    private void topTwo(int x, int removed, int added) {
+        double ox = graph.x[x];
+        double oy = graph.y[x];
+        int first = SMTGraph.NO_SLOT;
+        int next = SMTGraph.NO_SLOT;
+        double firstDistance = -1;
+        double nextDistance = -1;
+
+        int from = graph.offsets[x];
+        int to = from + graph.degrees[x];
+        for(int i = from; i <= to; i++) {
+            int y = i < to ? graph.targets[i] : added;
+            if(y == removed || y == SMTGraph.NO_SLOT)
+                continue;
+
+            double dist = Geometry.distanceSquared(ox, oy, graph.x[y], graph.y[y]);
+            if(dist > firstDistance) {
+                next = first;
+                nextDistance = firstDistance;
+                first = y;
+                firstDistance = dist;
+            }
+            else if(dist > nextDistance) {
+                next = y;
+                nextDistance = dist;
+            }
+        }
+
+        farthest = first;
+        highest = first == SMTGraph.NO_SLOT ? 0 : costModel.cost(firstDistance);
+        second = next == SMTGraph.NO_SLOT ? 0 : costModel.cost(nextDistance);
+    }
+}
@@ -0,0 +1,128 @@
+package model;
+
+import java.math.BigInteger;
+
+/**
+ * Converts a decimal w*10^q to the nearest double without going through a String, by the Eisel-Lemire
+ * algorithm: w is multiplied by a 128-bit approximation of 5^q, and the top bits of the product give the
+ * mantissa. The result is the same as Double.parseDouble for every w < 2^64, the rare cases the approximation
+ * can't settle (and subnormal results) are left to the caller.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+final class FastDouble {
+
+    private static final int SMALLEST_POWER = -342;
+    private static final int LARGEST_POWER = 308;
+    private static final int MANTISSA_BITS = 52;
+    private static final int MINIMUM_EXPONENT = -1023;
+    private static final int INFINITE_POWER = 0x7FF;
+
+    // Normalized 128-bit approximations of 5^q, high and low word, for q = SMALLEST_POWER ... LARGEST_POWER
+    private static final long[] POWERS_OF_FIVE = powersOfFive();
+
+    private FastDouble() {
+    }
+
+    /**
+     *
+     * @param negative
+     * @param w
+     *      the decimal digits, as an unsigned long
+     * @param q
+     *      the decimal exponent
+     * @return
+     *      the double closest to w*10^q, NaN if it has to be found another way
+     */
+    static double toDouble(boolean negative, long w, int q) {
+        if(w == 0 || q < SMALLEST_POWER)
+            return negative ? -0.0 : 0.0;
+        if(q > LARGEST_POWER)
+            return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+
+        int lz = Long.numberOfLeadingZeros(w);
+        w <<= lz;
+
+        // Product of w with the high word of 5^q, refined with the low word if the bits that matter might carry
+        int index = 2*(q - SMALLEST_POWER);
+        long high = multiplyHigh(w, POWERS_OF_FIVE[index]);
+        long low = w*POWERS_OF_FIVE[index];
+        long precisionMask = -1L >>> (MANTISSA_BITS + 3);
+        if((high & precisionMask) == precisionMask) {
+            long secondHigh = multiplyHigh(w, POWERS_OF_FIVE[index + 1]);
+            long sum = low + secondHigh;
+            if(Long.compareUnsigned(secondHigh, sum) > 0)
+                high++;
+            low = sum;
+            if((high & precisionMask) == precisionMask && low == -1L)
+                return Double.NaN; // the remaining bits could still carry
+        }
+
+        int upperBit = (int) (high >>> 63);
+        int shift = upperBit + 64 - MANTISSA_BITS - 3;
+        long mantissa = high >>> shift;
+        int power2 = (((152170 + 65536)*q) >> 16) + 63 + upperBit - lz - MINIMUM_EXPONENT;
+        if(power2 <= 0)
+            return Double.NaN; // subnormal
+
+        // Exactly halfway between two doubles, round to even
+        if(Long.compareUnsigned(low, 1) <= 0 && q >= -4 && q <= 23 && (mantissa & 3) == 1
+                && (mantissa << shift) == high)
+            mantissa &= ~1L;
+
+        mantissa += mantissa & 1;
+        mantissa >>>= 1;
+        if(mantissa >= 2L << MANTISSA_BITS) {
+            mantissa = 1L << MANTISSA_BITS;
+            power2++;
+        }
+        mantissa &= ~(1L << MANTISSA_BITS);
+        if(power2 >= INFINITE_POWER)
+            return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+
+        long bits = mantissa | (long) power2 << MANTISSA_BITS;
+        if(negative)
+            bits |= Long.MIN_VALUE;
+        return Double.longBitsToDouble(bits);
+    }
+
+    /**
+     * The high word of the unsigned 128-bit product
+     */
+    private static long multiplyHigh(long a, long b) {
+        return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+    }
+
+    /**
+     * For q >= 0, 5^q shifted to fill 128 bits and truncated. For q < 0, 2^b/5^-q rounded up for a b
+     * that fills 128 bits.
+     */
+    private static long[] powersOfFive() {
+        long[] table = new long[2*(LARGEST_POWER - SMALLEST_POWER + 1)];
+        BigInteger two128 = BigInteger.ONE.shiftLeft(128);
+        BigInteger two127 = BigInteger.ONE.shiftLeft(127);
+
+        for(int q = SMALLEST_POWER; q <= LARGEST_POWER; q++) {
+            BigInteger c;
+            if(q < 0) {
+                BigInteger power5 = BigInteger.valueOf(5).pow(-q);
+                int z = power5.subtract(BigInteger.ONE).bitLength(); // smallest z with 2^z >= 5^-q
+                int b = q >= -27 ? z + 127 : 2*z + 128;
+                c = BigInteger.ONE.shiftLeft(b).divide(power5).add(BigInteger.ONE);
+                while(c.compareTo(two128) >= 0)
+                    c = c.shiftRight(1);
+            }
+            else {
+                c = BigInteger.valueOf(5).pow(q);
+                while(c.compareTo(two127) < 0)
+                    c = c.shiftLeft(1);
+                while(c.compareTo(two128) >= 0)
+                    c = c.shiftRight(1);
+            }
+            int index = 2*(q - SMALLEST_POWER);
+            table[index] = c.shiftRight(64).longValue();
+            table[index + 1] = c.longValue();
+        }
+        return table;
+    }
+}
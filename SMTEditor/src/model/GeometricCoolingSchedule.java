@@ -0,0 +1,48 @@
+package model;
+
+/**
+ * Lowers the temperature by the same factor per used part of the budget, from start to end
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public final class GeometricCoolingSchedule implements CoolingSchedule {
+
+    private final double start;
+    private final double end;
+    private final double logRatio;
+
+    /**
+     *
+     * @param start
+     *      the temperature at the start, positive
+     * @param end
+     *      the temperature at the end, positive and at most start
+     */
+    public GeometricCoolingSchedule(double start, double end) throws IllegalArgumentException {
+        if(!(start > 0) || Double.isInfinite(start))
+            throw new IllegalArgumentException("Start temperature must be positive, start = " + start);
+        if(!(end > 0) || end > start)
+            throw new IllegalArgumentException("End temperature must be positive and at most " + start + ", end = " + end);
+        this.start = start;
+        this.end = end;
+        this.logRatio = Math.log(end/start);
+    }
+
+    @Override
+    public double temperature(double progress) {
+        return start*Math.exp(logRatio*progress);
+    }
+
+    public double getStart() {
+        return start;
+    }
+
+    public double getEnd() {
+        return end;
+    }
+
+    @Override
+    public String toString() {
+        return "Geometric " + start + " -> " + end;
+    }
+}
@@ -0,0 +1,81 @@
+package model;
+
+/**
+ * Distance kernel shared by the model and the views. Comparisons are done on squared distances,
+ * so a square root is only taken where a distance is actually stored or displayed.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public final class Geometry {
+
+    private Geometry() {
+        // static kernel
+    }
+
+    public static double distanceSquared(double x1, double y1, double x2, double y2) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        return dx*dx + dy*dy;
+    }
+
+    public static double distance(double x1, double y1, double x2, double y2) {
+        return Math.sqrt(distanceSquared(x1, y1, x2, y2));
+    }
+
+    /**
+     * Finds the two most distant neighbors of origin, among the slots targets[from] ... targets[to - 1].
+     * Nothing is allocated, the result is written to the arrays passed in:
+     * the most distant at index 1, second most distant at index 0. Where there's no such neighbor
+     * the slot is SMTGraph.NO_SLOT and the squared distance 0. Equally distant neighbors both count,
+     * so the second distance equals the first one on a tie.
+     * @param x
+     *      x-coordinates, indexed by slot
+     * @param y
+     *      y-coordinates, indexed by slot
+     * @param origin
+     *      slot of the node
+     * @param targets
+     *      neighbor slots
+     * @param from
+     *      first index into targets
+     * @param to
+     *      index after the last one
+     * @param mostDistant
+     *      receives the two slots
+     * @param squaredDistances
+     *      receives their squared distances to origin
+     */
+    public static void topTwo(double[] x, double[] y, int origin, int[] targets, int from, int to,
+            int[] mostDistant, double[] squaredDistances) {
+        double ox = x[origin];
+        double oy = y[origin];
+
+        int furthest = SMTGraph.NO_SLOT;
+        int nextFurthest = SMTGraph.NO_SLOT;
+        double furthestDistance = -1;
+        double nextFurthestDistance = -1;
+
+        for(int i = from; i < to; i++) {
+            int neighbor = targets[i];
+            double dx = x[neighbor] - ox;
+            double dy = y[neighbor] - oy;
+            double dist = dx*dx + dy*dy;
+
+            if(dist > furthestDistance) {
+                nextFurthest = furthest;
+                nextFurthestDistance = furthestDistance;
+                furthest = neighbor;
+                furthestDistance = dist;
+            }
+            else if(dist > nextFurthestDistance) {
+                nextFurthest = neighbor;
+                nextFurthestDistance = dist;
+            }
+        }
+
+        mostDistant[0] = nextFurthest;
+        mostDistant[1] = furthest;
+        squaredDistances[0] = Math.max(nextFurthestDistance, 0);
+        squaredDistances[1] = Math.max(furthestDistance, 0);
+    }
+}
@@ -0,0 +1,110 @@
+package model;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds with logarithmic buckets, each power of two is split in
+ * SUB_BUCKETS linear buckets, so a value is known within 1/SUB_BUCKETS of itself whatever its size.
+ * Recording costs a few instructions and no allocation, and is safe from any thread.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public final class Histogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS)*SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value, negative values are recorded as 0
+     * @param nanos
+     */
+    public void record(long nanos) {
+        if(nanos < 0)
+            nanos = 0;
+        buckets.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+
+        long current = max.get();
+        while(nanos > current && !max.compareAndSet(current, nanos))
+            current = max.get();
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalNanos() {
+        return total.get();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    public double getMeanNanos() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) total.get()/n;
+    }
+
+    /**
+     *
+     * @param percentile
+     *      0 ... 100
+     * @return
+     *      the value below which the percentile of the recorded values lie, within the bucket precision
+     */
+    public long getPercentileNanos(double percentile) throws IllegalArgumentException {
+        if(percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Percentile must be in [0, 100], percentile = " + percentile);
+        long n = count.get();
+        if(n == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile/100*n));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if(seen >= rank)
+                return Math.min(highestInBucket(i), max.get());
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for(int i = 0; i < BUCKETS; i++)
+            buckets.set(i, 0);
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    private static int bucketOf(long value) {
+        if(value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value); // >= SUB_BITS
+        int mantissa = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1)*SUB_BUCKETS + mantissa;
+    }
+
+    private static long highestInBucket(int bucket) {
+        if(bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = bucket/SUB_BUCKETS - 1; // exponent - SUB_BITS
+        long lowest = (long) (SUB_BUCKETS + bucket%SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count %d, mean %.1f us, p50 %.1f us, p99 %.1f us, max %.1f us",
+                getCount(), getMeanNanos()/1e3, getPercentileNanos(50)/1e3, getPercentileNanos(99)/1e3, getMaxNanos()/1e3);
+    }
+}
@@ -1,14 +1,17 @@
 package model;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Keeps track of the node ID's, ID's are used to keep the model and graphics objects in sync.
+ * Safe to use from several threads, trees built at the same time get disjoint ids.
  * @author Yngve Sekse Kristiansen
  *
  */
 public class IdTracker {
 
-    private static int nodeId = 0;
-    private static int linkId = 0;
+    private static final AtomicInteger nodeId = new AtomicInteger();
+    private static final AtomicInteger linkId = new AtomicInteger();
 
     /**
      * Gets a new node ID, this should never return the same id unless it's literally called 2^32 times
@@ -16,7 +19,18 @@ public class IdTracker {
      * @return
      */
     public static int getNewNodeId() {
-        return nodeId++;
+        return nodeId.getAndIncrement();
+    }
+
+    /**
+     * Reserves a block of consecutive node ids, used when a whole tree is loaded at once
+     * @param count
+     *      the number of ids to reserve
+     * @return
+     *      the first id of the block
+     */
+    public static int reserveNodeIds(int count) {
+        return nodeId.getAndAdd(count);
     }
 
     /**
@@ -24,7 +38,7 @@ public class IdTracker {
      * @return
      */
     public static int getNextNodeId() {
-        return nodeId;
+        return nodeId.get();
     }
 
     /**
@@ -33,7 +47,7 @@ public class IdTracker {
      * @return
      */
     public static int getNewLinkId() {
-        return linkId++;
+        return linkId.getAndIncrement();
     }
 
     /**
@@ -41,6 +55,6 @@ public class IdTracker {
      * @return
      */
     public static int getNextLinkId() {
-        return linkId;
+        return linkId.get();
     }
 }
@@ -0,0 +1,313 @@
+package model;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes random instances in the format read by SMTParser, for benchmarks and load tests.
+ * <p>
+ * Every random number is a hash of the seed, a stream and a counter, so the same seed always gives the same
+ * file, and node i gets the same position however many nodes are generated. Nothing is kept between writing
+ * the coordinates and the neighbor lists, positions are simply drawn again. The RANDOM and STAR_HEAVY
+ * topologies hang the nodes under each other in order, which can be followed with two cursors, so those
+ * instances stream to disk in O(1) memory whatever their size. MST needs the coordinates and the
+ * triangulation in memory, some hundred bytes per node.
+ * <p>
+ * The nodes lie in a square of side SIDE, the first ones are the destinations as the format requires.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public class InstanceGenerator {
+
+    public enum PointSet {
+        UNIFORM, // spread over the whole square
+        CLUSTERED, // normally distributed around cluster centers spread over the square
+        CORRIDOR // a narrow band across the middle of the square
+    }
+
+    public enum Topology {
+        MST, // the Euclidean minimum spanning tree
+        RANDOM, // every node has 0, 1 or 2 children, regardless of the positions
+        STAR_HEAVY // a few hubs have most of the nodes as children
+    }
+
+    public static final double SIDE = 1000;
+    public static final double DEFAULT_DESTINATION_FRACTION = 0.1;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String START_DELIMITER = "---------\n";
+    private static final String NEIGHBORS_DELIMITER = "----------------\n";
+
+    private static final double CORRIDOR_WIDTH = SIDE/100; // standard deviation across the corridor
+    private static final double HUB_PROBABILITY = 1.0/64;
+    private static final int MIN_HUB_CHILDREN = 16;
+    private static final int MAX_HUB_CHILDREN = 112; // hubs have 64 children on average, one per node overall
+
+    // Streams of random numbers, counted by node or cluster index
+    private static final long X = 1, Y = 2, CLUSTER = 3, CENTER_X = 4, CENTER_Y = 5, CHILDREN = 6, HUB = 7;
+
+    private final int nodeCount;
+    private final long seed;
+    private PointSet pointSet = PointSet.UNIFORM;
+    private Topology topology = Topology.MST;
+    private double destinationFraction = DEFAULT_DESTINATION_FRACTION;
+    private int clusterCount;
+
+    /**
+     *
+     * @param nodeCount
+     * @param seed
+     *      instances with the same seed and settings are the same
+     */
+    public InstanceGenerator(int nodeCount, long seed) throws IllegalArgumentException {
+        if(nodeCount < 1)
+            throw new IllegalArgumentException("Need at least one node, nodeCount = " + nodeCount);
+        this.nodeCount = nodeCount;
+        this.seed = seed;
+        this.clusterCount = Math.max(1, (int) Math.sqrt(nodeCount)/10);
+    }
+
+    public void setPointSet(PointSet pointSet) throws IllegalArgumentException {
+        if(pointSet == null)
+            throw new IllegalArgumentException("Point set can't be null");
+        this.pointSet = pointSet;
+    }
+
+    public void setTopology(Topology topology) throws IllegalArgumentException {
+        if(topology == null)
+            throw new IllegalArgumentException("Topology can't be null");
+        this.topology = topology;
+    }
+
+    /**
+     *
+     * @param destinationFraction
+     *      0 ... 1, the number of destinations is rounded, the rest are relays
+     */
+    public void setDestinationFraction(double destinationFraction) throws IllegalArgumentException {
+        if(!(destinationFraction >= 0 && destinationFraction <= 1))
+            throw new IllegalArgumentException("Destination fraction must be in [0, 1], destinationFraction = " + destinationFraction);
+        this.destinationFraction = destinationFraction;
+    }
+
+    /**
+     *
+     * @param clusterCount
+     *      the number of clusters of CLUSTERED point sets, about sqrt(n)/10 by default
+     */
+    public void setClusterCount(int clusterCount) throws IllegalArgumentException {
+        if(clusterCount < 1)
+            throw new IllegalArgumentException("Need at least one cluster, clusterCount = " + clusterCount);
+        this.clusterCount = clusterCount;
+    }
+
+    public int getDestinationCount() {
+        return (int) Math.round(destinationFraction*nodeCount);
+    }
+
+    /**
+     * Writes the instance to a file
+     * @param file
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        Writer writer = new BufferedWriter(new FileWriter(file), BUFFER_SIZE);
+        try {
+            write(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes the instance, the writer should be buffered and is left open
+     * @param writer
+     * @throws IOException
+     */
+    public void write(Writer writer) throws IOException {
+        if(topology == Topology.MST)
+            writeMinimumSpanningTree(writer);
+        else
+            writeInOrder(writer);
+    }
+
+    /**
+     * Writes a tree where the children of each node follow the children of the node before it,
+     * node 0 is the root. The parent of the next node is found by a second pass over the child counts.
+     */
+    private void writeInOrder(Writer writer) throws IOException {
+        writeHeader(writer);
+        for(int i = 0; i < nodeCount; i++)
+            writeCoordinate(writer, x(i), y(i));
+
+        writer.write(NEIGHBORS_DELIMITER);
+        Children own = new Children();
+        Children parents = new Children();
+        parents.advance();
+        for(int i = 0; i < nodeCount; i++) {
+            own.advance();
+            writer.write(Integer.toString(i));
+            writer.write(" |");
+            if(i > 0) {
+                while(i >= parents.first + parents.count)
+                    parents.advance();
+                writeNeighbor(writer, parents.node);
+            }
+            for(int c = 0; c < own.count; c++)
+                writeNeighbor(writer, own.first + c);
+            writer.write('\n');
+        }
+    }
+
+    private void writeMinimumSpanningTree(Writer writer) throws IOException {
+        double[] xs = new double[nodeCount];
+        double[] ys = new double[nodeCount];
+        for(int i = 0; i < nodeCount; i++) {
+            xs[i] = x(i);
+            ys[i] = y(i);
+        }
+        int[] links = SMTTreeBuilder.minimumSpanningLinks(xs, ys);
+
+        int[] offsets = new int[nodeCount + 1];
+        for(int l : links)
+            offsets[l + 1]++;
+        for(int i = 0; i < nodeCount; i++)
+            offsets[i + 1] += offsets[i];
+        int[] targets = new int[links.length];
+        int[] fill = new int[nodeCount];
+        for(int l = 0; l < links.length; l += 2) {
+            int u = links[l];
+            int v = links[l + 1];
+            targets[offsets[u] + fill[u]++] = v;
+            targets[offsets[v] + fill[v]++] = u;
+        }
+
+        writeHeader(writer);
+        for(int i = 0; i < nodeCount; i++)
+            writeCoordinate(writer, xs[i], ys[i]);
+
+        writer.write(NEIGHBORS_DELIMITER);
+        for(int i = 0; i < nodeCount; i++) {
+            writer.write(Integer.toString(i));
+            writer.write(" |");
+            for(int k = offsets[i]; k < offsets[i + 1]; k++)
+                writeNeighbor(writer, targets[k]);
+            writer.write('\n');
+        }
+    }
+
+    private void writeHeader(Writer writer) throws IOException {
+        writer.write(START_DELIMITER);
+        writer.write(nodeCount + "\n");
+        writer.write(getDestinationCount() + "\n");
+    }
+
+    private static void writeCoordinate(Writer writer, double x, double y) throws IOException {
+        writer.write(Double.toString(x));
+        writer.write(' ');
+        writer.write(Double.toString(y));
+        writer.write('\n');
+    }
+
+    private static void writeNeighbor(Writer writer, int neighbor) throws IOException {
+        writer.write(' ');
+        writer.write(Integer.toString(neighbor));
+    }
+
+    private double x(int i) {
+        switch(pointSet) {
+        case CLUSTERED:
+            return clamp(uniform(CENTER_X, cluster(i))*SIDE + clusterSpread()*gaussian(X, i));
+        default:
+            return uniform(X, i)*SIDE;
+        }
+    }
+
+    private double y(int i) {
+        switch(pointSet) {
+        case CLUSTERED:
+            return clamp(uniform(CENTER_Y, cluster(i))*SIDE + clusterSpread()*gaussian(Y, i));
+        case CORRIDOR:
+            return clamp(SIDE/2 + CORRIDOR_WIDTH*gaussian(Y, i));
+        default:
+            return uniform(Y, i)*SIDE;
+        }
+    }
+
+    private int cluster(int i) {
+        return (int) (uniform(CLUSTER, i)*clusterCount);
+    }
+
+    /**
+     * The standard deviation within a cluster, so the clusters together cover about a quarter of the square
+     */
+    private double clusterSpread() {
+        return SIDE/(4*Math.sqrt(clusterCount));
+    }
+
+    private static double clamp(double value) {
+        return Math.min(SIDE, Math.max(0, value));
+    }
+
+    /**
+     * The number of children node i would like, see Children for the ones it gets
+     */
+    private int childCount(int i) {
+        if(topology == Topology.STAR_HEAVY) {
+            if(uniform(HUB, i) >= HUB_PROBABILITY)
+                return 0;
+            return MIN_HUB_CHILDREN + (int) (uniform(CHILDREN, i)*(MAX_HUB_CHILDREN - MIN_HUB_CHILDREN + 1));
+        }
+        return (int) (uniform(CHILDREN, i)*3);
+    }
+
+    /**
+     * Walks over the nodes in order, node after node gets the next unassigned nodes as children.
+     * A node gets at least one child when the nodes after it would have no parent otherwise.
+     */
+    private final class Children {
+
+        int node = -1;
+        int first; // of the children of node
+        int count;
+        private int next = 1; // the first node without a parent
+
+        void advance() {
+            node++;
+            first = next;
+            int wanted = childCount(node);
+            if(wanted == 0 && next == node + 1)
+                wanted = 1;
+            count = Math.min(wanted, nodeCount - next);
+            next += count;
+        }
+    }
+
+    /**
+     * A random number in [0, 1), the same for the same seed, stream and index
+     */
+    private double uniform(long stream, long index) {
+        long z = mix(seed + stream*0x9E3779B97F4A7C15L) + (index + 1)*0xBF58476D1CE4E5B9L;
+        return (mix(z) >>> 11)*0x1.0p-53;
+    }
+
+    /**
+     * A standard normal random number, by the Box-Muller transform of two uniform ones from the stream
+     */
+    private double gaussian(long stream, long index) {
+        double radius = Math.sqrt(-2*Math.log(1 - uniform(stream, 2*index)));
+        return radius*Math.cos(2*Math.PI*uniform(stream, 2*index + 1));
+    }
+
+    /**
+     * The SplitMix64 finalizer
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30))*0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27))*0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,46 @@
+package model;
+
+/**
+ * Lowers the temperature by the same amount per used part of the budget, from start to end
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public final class LinearCoolingSchedule implements CoolingSchedule {
+
+    private final double start;
+    private final double end;
+
+    /**
+     *
+     * @param start
+     *      the temperature at the start, positive
+     * @param end
+     *      the temperature at the end, from 0 to start
+     */
+    public LinearCoolingSchedule(double start, double end) throws IllegalArgumentException {
+        if(!(start > 0) || Double.isInfinite(start))
+            throw new IllegalArgumentException("Start temperature must be positive, start = " + start);
+        if(!(end >= 0) || end > start)
+            throw new IllegalArgumentException("End temperature must be from 0 to " + start + ", end = " + end);
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    public double temperature(double progress) {
+        return start + (end - start)*progress;
+    }
+
+    public double getStart() {
+        return start;
+    }
+
+    public double getEnd() {
+        return end;
+    }
+
+    @Override
+    public String toString() {
+        return "Linear " + start + " -> " + end;
+    }
+}
@@ -0,0 +1,115 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long keys to int values, without boxing.
+ * Uses linear probing, removals shift the following entries back so no tombstones are left behind.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+final class LongIntMap {
+
+    static final int MISSING = -1;
+
+    private static final long FREE = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+
+    LongIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 8)*2 - 1) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, FREE);
+        mask = capacity - 1;
+    }
+
+    /**
+     *
+     * @param key
+     * @return
+     *      the value, or MISSING if the key isn't in the map
+     */
+    int get(long key) {
+        for(int i = index(key); ; i = (i + 1) & mask) {
+            if(keys[i] == key)
+                return values[i];
+            if(keys[i] == FREE)
+                return MISSING;
+        }
+    }
+
+    void put(long key, int value) {
+        int i = index(key);
+        while(keys[i] != FREE && keys[i] != key)
+            i = (i + 1) & mask;
+
+        if(keys[i] == FREE) {
+            keys[i] = key;
+            size++;
+        }
+        values[i] = value;
+
+        if(size*2 > keys.length)
+            grow();
+    }
+
+    /**
+     * Removes a key
+     * @param key
+     * @return
+     *      the value it had, or MISSING
+     */
+    int remove(long key) {
+        int i = index(key);
+        while(keys[i] != key) {
+            if(keys[i] == FREE)
+                return MISSING;
+            i = (i + 1) & mask;
+        }
+
+        int value = values[i];
+        size--;
+
+        // Shift back entries that would no longer be found past the hole
+        int hole = i;
+        for(int j = (i + 1) & mask; keys[j] != FREE; j = (j + 1) & mask) {
+            int home = index(keys[j]);
+            if(((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hole = j;
+            }
+        }
+        keys[hole] = FREE;
+
+        return value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int index(long key) {
+        long h = key*0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+
+        keys = new long[oldKeys.length*2];
+        values = new int[oldKeys.length*2];
+        Arrays.fill(keys, FREE);
+        mask = keys.length - 1;
+        size = 0;
+
+        for(int i = 0; i < oldKeys.length; i++)
+            if(oldKeys[i] != FREE)
+                put(oldKeys[i], oldValues[i]);
+    }
+}
@@ -0,0 +1,529 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Reads the text format of SMTParser from a memory-mapped file. The bytes are scanned in place, numbers
+ * are parsed without making Strings and go straight into the primitive arrays the tree is made from,
+ * so there are no objects per node or per line. Large files can be parsed in chunks on several threads.
+ * Accepts the same files as the line reader of SMTParser, errors are reported with their line number.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+final class MappedTextParser {
+
+    // A buffer holds at most 2 GB, larger files are mapped in several segments
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    static final long CHUNK_SIZE = 1 << 22; // bytes of the file parsed by one task, see parse(File, ForkJoinPool)
+
+    private static final int MAX_DIGITS = 19; // the most significant digits that always fit in a long
+    private static final int MAX_EXPONENT = 100000; // larger exponents give 0 or infinity anyway
+
+    private static final byte[] START = SMTParser.Delimiters.START.getStringValue().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NEIGHBORS_START = SMTParser.Delimiters.NEIGHBORS_START.getStringValue().getBytes(StandardCharsets.US_ASCII);
+
+    private final MappedByteBuffer[] segments;
+    private final long limit; // the end of the bytes read, the end of the file or of a chunk
+    private long position;
+    private long line; // the line position is on
+
+    // The neighbor lists read so far, of all nodes or of a chunk
+    private int[] targets = new int[16];
+    private int targetCount;
+
+    private MappedTextParser(MappedByteBuffer[] segments, long position, long limit, long line) {
+        this.segments = segments;
+        this.position = position;
+        this.limit = limit;
+        this.line = line;
+    }
+
+    /**
+     * Parses the file on the calling thread
+     * @param file
+     * @return
+     *      the contents of the file
+     * @throws IOException
+     *      if the file couldn't be mapped
+     * @throws IllegalArgumentException
+     *      if the file isn't as expected
+     */
+    static SMTParser.Contents parse(File file) throws IOException, IllegalArgumentException {
+        return parse(file, null);
+    }
+
+    /**
+     * Parses the file, the coordinates and neighbor lists of files over 2*CHUNK_SIZE bytes are split
+     * into chunks of whole lines parsed on the pool, unless the pool has a single thread. The contents and the errors are the same as when
+     * parsed on one thread, the first malformed line in the file is reported.
+     * @param file
+     * @param pool
+     *      null to parse on the calling thread
+     * @return
+     *      the contents of the file
+     * @throws IOException
+     *      if the file couldn't be mapped
+     * @throws IllegalArgumentException
+     *      if the file isn't as expected
+     */
+    static SMTParser.Contents parse(File file, ForkJoinPool pool) throws IOException, IllegalArgumentException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long limit = channel.size();
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((limit + SEGMENT_MASK) >>> SEGMENT_BITS)];
+            for(int s = 0; s < segments.length; s++) {
+                long offset = (long) s << SEGMENT_BITS;
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(SEGMENT_SIZE, limit - offset));
+            }
+            return new MappedTextParser(segments, 0, limit, 1).parse(pool);
+        } finally {
+            channel.close(); // the mapping stays valid
+        }
+    }
+
+    private SMTParser.Contents parse(ForkJoinPool pool) throws IllegalArgumentException {
+        // Get to start delimiter
+        while(!lineEquals(START)) {
+            if(position >= limit)
+                throw new IllegalArgumentException("Unexpected end of file");
+            skipLine();
+        }
+        skipLine();
+
+        // Num nodes, num destinations, 2 lines
+        long numNodesLine = line;
+        int numNodes = readIntLine();
+        if(numNodes < 0)
+            throw new IllegalArgumentException("Line " + numNodesLine + ": Number of nodes can't be negative, numNodes = " + numNodes);
+        int numDestinations = readIntLine();
+
+        if(pool != null && pool.getParallelism() > 1 && limit - position >= 2*CHUNK_SIZE)
+            return parseChunks(pool, numNodes, numDestinations);
+
+        // Coordinates
+        double[] x = new double[numNodes];
+        double[] y = new double[numNodes];
+        for(int i = 0; i < numNodes; i++)
+            readCoordinate(x, y, i);
+
+        // Expecting a delimiter now, or the end of a file with coordinates only
+        if(position >= limit || isBlankLine())
+            return new SMTParser.Contents(x, y, null, null, numDestinations);
+        readNeighborsDelimiter();
+
+        // Neighbor lists
+        int[] offsets = new int[numNodes + 1];
+        targets = new int[Math.max(16, 2*numNodes)];
+        for(int i = 0; i < numNodes; i++)
+            offsets[i + 1] = offsets[i] + readNeighborList();
+
+        // done
+        return new SMTParser.Contents(x, y, offsets, targets, numDestinations);
+    }
+
+    /**
+     * Parses the rest of the file in chunks: the lines of each chunk are counted in parallel, which tells
+     * every chunk the index of its first line and so which of its lines are coordinates and which are
+     * neighbor lists. The chunks then parse their lines in parallel, the coordinates straight into the
+     * arrays and the neighbor lists into a buffer of their own that is copied into place afterwards.
+     */
+    private SMTParser.Contents parseChunks(ForkJoinPool pool, int numNodes, int numDestinations) throws IllegalArgumentException {
+        // Chunks of about CHUNK_SIZE bytes, ending after a line break
+        int chunkCount = (int) ((limit - position + CHUNK_SIZE - 1)/CHUNK_SIZE);
+        MappedTextParser[] chunks = new MappedTextParser[chunkCount];
+        long[] lineCounts = new long[chunkCount];
+        long chunkStart = position;
+        for(int c = 0; c < chunkCount; c++) {
+            long chunkEnd = c == chunkCount - 1 ? limit : Math.max(chunkStart, lineStartAfter(position + (c + 1)*CHUNK_SIZE));
+            chunks[c] = new MappedTextParser(segments, chunkStart, chunkEnd, 0);
+            chunkStart = chunkEnd;
+        }
+        pool.invoke(new ChunkTask(0, chunkCount, c -> lineCounts[c] = chunks[c].countLines()));
+
+        // The index of the first line of each chunk, counted from the first coordinate
+        long[] firstLines = new long[chunkCount];
+        long lineTotal = 0;
+        for(int c = 0; c < chunkCount; c++) {
+            firstLines[c] = lineTotal;
+            chunks[c].line = line + lineTotal;
+            lineTotal += lineCounts[c];
+        }
+        if(lineTotal < numNodes)
+            throw new IllegalArgumentException("Unexpected end of file");
+
+        // Expecting a delimiter after the coordinates, or the end of a file with coordinates only
+        boolean hasNeighbors = false;
+        if(lineTotal > numNodes) {
+            int c = 0;
+            while(firstLines[c] + lineCounts[c] <= numNodes)
+                c++;
+            MappedTextParser delimiter = new MappedTextParser(segments, chunks[c].position, limit, chunks[c].line);
+            for(long l = firstLines[c]; l < numNodes; l++)
+                delimiter.skipLine();
+            if(!delimiter.isBlankLine()) {
+                delimiter.readNeighborsDelimiter();
+                hasNeighbors = true;
+            }
+        }
+        if(hasNeighbors && lineTotal < 2L*numNodes + 1)
+            throw new IllegalArgumentException("Unexpected end of file");
+
+        // Parse the lines, the degree of node i goes in offsets[i + 1]
+        double[] x = new double[numNodes];
+        double[] y = new double[numNodes];
+        int[] offsets = hasNeighbors ? new int[numNodes + 1] : null;
+        IllegalArgumentException[] errors = new IllegalArgumentException[chunkCount];
+        pool.invoke(new ChunkTask(0, chunkCount, c -> {
+            try {
+                chunks[c].readLines(firstLines[c], lineCounts[c], numNodes, x, y, offsets);
+            } catch (IllegalArgumentException e) {
+                errors[c] = e;
+            }
+        }));
+        for(IllegalArgumentException error : errors) // the first in the file
+            if(error != null)
+                throw error;
+
+        if(!hasNeighbors)
+            return new SMTParser.Contents(x, y, null, null, numDestinations);
+
+        // Stitch the neighbor lists together in chunk order
+        for(int i = 0; i < numNodes; i++)
+            offsets[i + 1] += offsets[i];
+        int[] allTargets = new int[offsets[numNodes]];
+        int base = 0;
+        for(MappedTextParser chunk : chunks) {
+            System.arraycopy(chunk.targets, 0, allTargets, base, chunk.targetCount);
+            base += chunk.targetCount;
+        }
+        return new SMTParser.Contents(x, y, offsets, allTargets, numDestinations);
+    }
+
+    /**
+     * Reads the lines of a chunk, line l of the chunk is line first + l after the header: a coordinate,
+     * the delimiter, or a neighbor list. Lines after the last neighbor list are ignored.
+     */
+    private void readLines(long first, long count, int numNodes, double[] x, double[] y, int[] degrees) throws IllegalArgumentException {
+        for(long l = first; l < first + count; l++) {
+            if(l < numNodes)
+                readCoordinate(x, y, (int) l);
+            else if(degrees != null && l > numNodes && l <= 2L*numNodes)
+                degrees[(int) (l - numNodes)] = readNeighborList();
+            else if(l == numNodes)
+                skipLine();
+            else
+                return;
+        }
+    }
+
+    private long countLines() {
+        long count = 0;
+        for(long p = position; p < limit; p++)
+            if(at(p) == '\n')
+                count++;
+        if(limit > position && at(limit - 1) != '\n')
+            count++; // the last line of the file, without a line break
+        return count;
+    }
+
+    /**
+     * The start of the first line that starts at or after p
+     */
+    private long lineStartAfter(long p) {
+        while(p < limit && at(p - 1) != '\n')
+            p++;
+        return Math.min(p, limit);
+    }
+
+    /**
+     * Reads a line of coordinates, anything after the first two numbers is ignored
+     */
+    private void readCoordinate(double[] x, double[] y, int i) throws IllegalArgumentException {
+        startLine();
+        skipBlanks();
+        x[i] = readDouble();
+        skipBlanks();
+        y[i] = readDouble();
+        skipLine();
+    }
+
+    private void readNeighborsDelimiter() throws IllegalArgumentException {
+        if(!lineEquals(NEIGHBORS_START))
+            throw error("Expected delimiter " + SMTParser.Delimiters.NEIGHBORS_START.getStringValue() + ", got " + lineText());
+        skipLine();
+    }
+
+    /**
+     * Reads a neighbor list, nodeIndex | neighborIndex1 neighborIndex2 (...), onto targets.
+     * The numbers before | are ignored.
+     * @return
+     *      the number of neighbors
+     */
+    private int readNeighborList() throws IllegalArgumentException {
+        startLine();
+        skipPastBar();
+        int first = targetCount;
+        while(true) {
+            skipBlanks();
+            if(atEndOfLine())
+                break;
+            if(targetCount == targets.length)
+                targets = Arrays.copyOf(targets, targets.length*2);
+            targets[targetCount++] = readInt();
+        }
+        skipLine();
+        return targetCount - first;
+    }
+
+    /**
+     * Runs an action for each chunk in a range, splitting the range in halves
+     */
+    private static final class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final int from, to;
+        private final IntConsumer action;
+
+        ChunkTask(int from, int to, IntConsumer action) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ChunkTask(from, mid, action), new ChunkTask(mid, to, action));
+                return;
+            }
+            if(to > from)
+                action.accept(from);
+        }
+    }
+
+    private byte at(long p) {
+        return segments[(int) (p >>> SEGMENT_BITS)].get((int) (p & SEGMENT_MASK));
+    }
+
+    private static boolean isBlank(byte b) { // as trimmed or split on by the line reader
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private boolean atEndOfLine() {
+        return position >= limit || at(position) == '\n';
+    }
+
+    private boolean atEndOfToken() {
+        return atEndOfLine() || isBlank(at(position));
+    }
+
+    private void startLine() throws IllegalArgumentException {
+        if(position >= limit)
+            throw new IllegalArgumentException("Unexpected end of file");
+    }
+
+    private void skipBlanks() {
+        while(position < limit && isBlank(at(position)))
+            position++;
+    }
+
+    /**
+     * Moves to the start of the next line
+     */
+    private void skipLine() {
+        while(position < limit) {
+            if(at(position++) == '\n') {
+                line++;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves past the first | on the line, or stays at the start of the line if there is none
+     */
+    private void skipPastBar() {
+        for(long p = position; p < limit; p++) {
+            byte b = at(p);
+            if(b == '|') {
+                position = p + 1;
+                return;
+            }
+            if(b == '\n')
+                return;
+        }
+    }
+
+    private boolean isBlankLine() {
+        long p = position;
+        while(p < limit && isBlank(at(p)))
+            p++;
+        return p >= limit || at(p) == '\n';
+    }
+
+    /**
+     * Whether the line from position is the delimiter, with a line break the line reader would strip
+     */
+    private boolean lineEquals(byte[] delimiter) {
+        if(limit - position < delimiter.length)
+            return false;
+        for(int i = 0; i < delimiter.length; i++)
+            if(at(position + i) != delimiter[i])
+                return false;
+        long p = position + delimiter.length;
+        if(p < limit && at(p) == '\r')
+            p++;
+        return p >= limit || at(p) == '\n';
+    }
+
+    private int readIntLine() throws IllegalArgumentException {
+        startLine();
+        skipBlanks();
+        int value = readInt();
+        skipBlanks();
+        if(!atEndOfLine())
+            throw error("Expected a number, got " + lineText());
+        skipLine();
+        return value;
+    }
+
+    private int readInt() throws IllegalArgumentException {
+        long start = position;
+        boolean negative = false;
+        if(position < limit && (at(position) == '-' || at(position) == '+'))
+            negative = at(position++) == '-';
+
+        long value = 0;
+        int digits = 0;
+        while(position < limit && isDigit(at(position))) {
+            value = 10*value + (at(position++) - '0');
+            if(value > 1L + Integer.MAX_VALUE)
+                throw error("Number out of range: " + token(start));
+            digits++;
+        }
+        if(digits == 0 || !atEndOfToken() || (!negative && value > Integer.MAX_VALUE))
+            throw error("Expected a number, got " + token(start));
+        return (int) (negative ? -value : value);
+    }
+
+    /**
+     * Decimal numbers with up to 19 significant digits are converted by FastDouble, anything else
+     * Double.parseDouble takes, such as NaN or hexadecimal, goes through a String of the token
+     */
+    private double readDouble() throws IllegalArgumentException {
+        long start = position;
+        boolean negative = false;
+        if(position < limit && (at(position) == '-' || at(position) == '+'))
+            negative = at(position++) == '-';
+
+        long w = 0;
+        int significant = 0;
+        int digits = 0;
+        int exponent = 0;
+        while(position < limit && isDigit(at(position))) {
+            int d = at(position++) - '0';
+            digits++;
+            if(w != 0 || d != 0)
+                significant++;
+            w = 10*w + d;
+        }
+        if(position < limit && at(position) == '.') {
+            position++;
+            while(position < limit && isDigit(at(position))) {
+                int d = at(position++) - '0';
+                digits++;
+                if(w != 0 || d != 0)
+                    significant++;
+                w = 10*w + d;
+                exponent--;
+            }
+        }
+        if(digits > 0 && position < limit && (at(position) == 'e' || at(position) == 'E')) {
+            position++;
+            boolean negativeExponent = false;
+            if(position < limit && (at(position) == '-' || at(position) == '+'))
+                negativeExponent = at(position++) == '-';
+            int e = 0;
+            int exponentDigits = 0;
+            while(position < limit && isDigit(at(position))) {
+                e = Math.min(MAX_EXPONENT, 10*e + (at(position++) - '0'));
+                exponentDigits++;
+            }
+            if(exponentDigits == 0)
+                return parseToken(start);
+            exponent += negativeExponent ? -e : e;
+        }
+
+        if(digits == 0 || significant > MAX_DIGITS || !atEndOfToken())
+            return parseToken(start);
+        double value = FastDouble.toDouble(negative, w, exponent);
+        if(Double.isNaN(value))
+            return parseToken(start);
+        return value;
+    }
+
+    private double parseToken(long start) throws IllegalArgumentException {
+        position = tokenEnd(start);
+        String token = text(start, position);
+        try {
+            return Double.parseDouble(token);
+        } catch (NumberFormatException e) {
+            throw error("Expected a number, got " + token);
+        }
+    }
+
+    /**
+     * The characters from start up to the next blank or line break, for error messages and the rare numbers
+     * FastDouble can't take
+     */
+    private String token(long start) {
+        return text(start, tokenEnd(start));
+    }
+
+    private long tokenEnd(long start) {
+        long end = start;
+        while(end < limit && at(end) != '\n' && !isBlank(at(end)))
+            end++;
+        return end;
+    }
+
+    /**
+     * The rest of the line from position, for error messages
+     */
+    private String lineText() {
+        long end = position;
+        while(end < limit && at(end) != '\n')
+            end++;
+        if(end > position && at(end - 1) == '\r')
+            end--;
+        return text(position, end);
+    }
+
+    private String text(long start, long end) {
+        byte[] bytes = new byte[(int) Math.min(end - start, 1000)];
+        for(int i = 0; i < bytes.length; i++)
+            bytes[i] = at(start + i);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Line " + line + ": " + message);
+    }
+}
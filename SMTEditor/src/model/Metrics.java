@@ -0,0 +1,139 @@
+package model;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timers and counters for the phases of the engine, shared by the whole application so both the UI and
+ * headless runs can read them. Disabled by default, then timing a phase costs one volatile read.
+ * <p>
+ * A phase is timed with a start and a lap, a lap records the time since the start and returns the start
+ * of the next phase:
+ * <pre>
+ *     long t = Metrics.start();
+ *     ... reset
+ *     t = Metrics.lap(Phase.RESET, t);
+ *     ... power levels
+ *     Metrics.lap(Phase.POWER_LEVELS, t);
+ * </pre>
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public final class Metrics {
+
+    public enum Phase {
+        RESET, // clearing the node data before a full recalculation
+        SUBTREE_COUNTS,
+        POWER_LEVELS,
+        COST, // the cost of each node
+        TOTAL, // summing up the node costs
+        RECALCULATE, // a whole full recalculation
+        INCREMENTAL, // a whole incremental recalculation
+        PARSE,
+        DRAW
+    }
+
+    public enum Counter {
+        INCREMENTAL_NODES, // nodes whose cost was refreshed by incremental recalculations
+        PARSED_NODES,
+        DRAWN_NODES
+    }
+
+    private static volatile boolean enabled = false;
+
+    private static final Histogram[] histograms = new Histogram[Phase.values().length];
+    private static final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+
+    static {
+        for(int i = 0; i < histograms.length; i++)
+            histograms[i] = new Histogram();
+    }
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    /**
+     * Starts timing a phase
+     * @return
+     *      the current time in nanoseconds, 0 if metrics are disabled
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time of a phase started at start, does nothing if start is 0
+     * @param phase
+     * @param start
+     *      from start() or the previous lap
+     * @return
+     *      the current time, the start of the next phase
+     */
+    public static long lap(Phase phase, long start) {
+        if(start == 0)
+            return 0;
+        long now = System.nanoTime();
+        histograms[phase.ordinal()].record(now - start);
+        return now;
+    }
+
+    /**
+     * Records a duration measured elsewhere
+     * @param phase
+     * @param nanos
+     */
+    public static void record(Phase phase, long nanos) {
+        if(enabled)
+            histograms[phase.ordinal()].record(nanos);
+    }
+
+    public static void count(Counter counter, long amount) {
+        if(enabled)
+            counters.addAndGet(counter.ordinal(), amount);
+    }
+
+    public static Histogram getHistogram(Phase phase) {
+        return histograms[phase.ordinal()];
+    }
+
+    public static long getCount(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    /**
+     * Clears all timers and counters
+     */
+    public static void reset() {
+        for(Histogram histogram : histograms)
+            histogram.reset();
+        for(int i = 0; i < counters.length(); i++)
+            counters.set(i, 0);
+    }
+
+    /**
+     *
+     * @return
+     *      one line per phase that was timed and per counter that was counted
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        for(Phase phase : Phase.values()) {
+            Histogram histogram = getHistogram(phase);
+            if(histogram.getCount() > 0)
+                report.append(phase).append(": ").append(histogram).append('\n');
+        }
+        for(Counter counter : Counter.values()) {
+            long count = getCount(counter);
+            if(count > 0)
+                report.append(counter).append(": ").append(count).append('\n');
+        }
+        return report.toString();
+    }
+}
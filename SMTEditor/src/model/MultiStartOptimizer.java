@@ -0,0 +1,285 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs several independent SMTOptimizer searches in parallel and keeps the best tree.
+ * <p>
+ * The first run starts from the tree itself, then one run from every added initial tree, the others start
+ * from the tree perturbed by random moves. Each run gets its own seed and works on its own copy of the tree,
+ * the tree passed in is never modified. Runs are scheduled on a fixed pool of threads, one per core by default.
+ * <p>
+ * The best cost found so far is shared between the runs. Every pruneAfterIterations iterations a run checks
+ * how far behind it is. It is stopped if it costs more than pruneTolerance above the best cost, and gained
+ * less than that gap during its last window, its time is better spent on the other runs.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public class MultiStartOptimizer {
+
+    public static final double DEFAULT_PRUNE_TOLERANCE = 0.1;
+    public static final long DEFAULT_PRUNE_AFTER_ITERATIONS = 10000;
+
+    /**
+     * Outcome of a multi-start optimization
+     */
+    public static final class Result {
+
+        private final SharedMulticastTree best;
+        private final List<OptimizationResult> runs;
+        private final long elapsedNanos;
+
+        Result(SharedMulticastTree best, List<OptimizationResult> runs, long elapsedNanos) {
+            this.best = best;
+            this.runs = Collections.unmodifiableList(runs);
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         *
+         * @return
+         *      the copy with the lowest cost
+         */
+        public SharedMulticastTree getBest() {
+            return best;
+        }
+
+        public double getBestCost() {
+            return best.getCost();
+        }
+
+        /**
+         *
+         * @return
+         *      the result of every run, in the order the runs were defined
+         */
+        public List<OptimizationResult> getRuns() {
+            return runs;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+    }
+
+    private final SharedMulticastTree tree;
+    private final List<SharedMulticastTree> initialTrees = new ArrayList<SharedMulticastTree>();
+
+    private int runs = Runtime.getRuntime().availableProcessors();
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long seed;
+    private int perturbationMoves = -1; // decided by the tree size unless set
+    private long timeLimitMillis = Long.MAX_VALUE;
+    private long iterationLimit = Long.MAX_VALUE;
+    private int candidateNeighbors = SMTOptimizer.DEFAULT_CANDIDATE_NEIGHBORS;
+    private boolean delaunayCandidates;
+    private double pruneTolerance = DEFAULT_PRUNE_TOLERANCE;
+    private long pruneAfterIterations = DEFAULT_PRUNE_AFTER_ITERATIONS;
+
+    private final AtomicLong bestCostBits = new AtomicLong(); // Double.doubleToLongBits of the best known cost
+
+    public MultiStartOptimizer(SharedMulticastTree tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * Adds a tree over the same nodes that a run starts from
+     * @param initialTree
+     */
+    public void addInitialTree(SharedMulticastTree initialTree) {
+        initialTrees.add(initialTree);
+    }
+
+    /**
+     * Sets the number of runs, at least one run is made from the tree and from each initial tree
+     * @param runs
+     */
+    public void setRuns(int runs) throws IllegalArgumentException {
+        if(runs <= 0)
+            throw new IllegalArgumentException("Number of runs must be positive, runs = " + runs);
+        this.runs = runs;
+    }
+
+    public void setThreads(int threads) throws IllegalArgumentException {
+        if(threads <= 0)
+            throw new IllegalArgumentException("Number of threads must be positive, threads = " + threads);
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the seed of the first run, run i uses seed + i
+     * @param seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setPerturbationMoves(int moves) throws IllegalArgumentException {
+        if(moves < 0)
+            throw new IllegalArgumentException("Number of perturbation moves can't be negative, moves = " + moves);
+        this.perturbationMoves = moves;
+    }
+
+    /**
+     * Sets the time limit of the whole optimization
+     * @param millis
+     */
+    public void setTimeLimit(long millis) throws IllegalArgumentException {
+        if(millis <= 0)
+            throw new IllegalArgumentException("Time limit must be positive, millis = " + millis);
+        this.timeLimitMillis = millis;
+    }
+
+    /**
+     * Sets the iteration limit of every run
+     * @param iterations
+     */
+    public void setIterationLimit(long iterations) throws IllegalArgumentException {
+        if(iterations <= 0)
+            throw new IllegalArgumentException("Iteration limit must be positive, iterations = " + iterations);
+        this.iterationLimit = iterations;
+    }
+
+    public void setCandidateNeighbors(int k) throws IllegalArgumentException {
+        if(k <= 0)
+            throw new IllegalArgumentException("Number of candidate neighbors must be positive, k = " + k);
+        this.candidateNeighbors = k;
+    }
+
+    public void setDelaunayCandidates(boolean delaunay) {
+        this.delaunayCandidates = delaunay;
+    }
+
+    /**
+     * Sets how far above the best known cost a run may be before it is pruned, and how many
+     * iterations it gets before that is checked
+     * @param tolerance
+     *      relative to the best known cost
+     * @param afterIterations
+     */
+    public void setPruning(double tolerance, long afterIterations) throws IllegalArgumentException {
+        if(!(tolerance >= 0))
+            throw new IllegalArgumentException("Prune tolerance can't be negative, tolerance = " + tolerance);
+        this.pruneTolerance = tolerance;
+        this.pruneAfterIterations = afterIterations;
+    }
+
+    /**
+     *
+     * @return
+     *      the best cost found so far by any run, can be read while the optimization is running
+     */
+    public double getBestKnownCost() {
+        return Double.longBitsToDouble(bestCostBits.get());
+    }
+
+    /**
+     * Runs the optimization, blocking until every run is done
+     * @return
+     *      the best tree and the results of all runs
+     * @throws InterruptedException
+     */
+    public Result optimize() throws InterruptedException {
+        long start = System.nanoTime();
+        long limitNanos = timeLimitMillis >= Long.MAX_VALUE/1000000 ? Long.MAX_VALUE : timeLimitMillis*1000000;
+        bestCostBits.set(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+
+        int total = Math.max(runs, 1 + initialTrees.size());
+        int perturbation = perturbationMoves >= 0 ? perturbationMoves : Math.max(1, tree.getGraph().nodeCount()/10);
+
+        List<Callable<SharedMulticastTree>> tasks = new ArrayList<Callable<SharedMulticastTree>>();
+        List<OptimizationResult> results = new ArrayList<OptimizationResult>(Collections.nCopies(total, (OptimizationResult) null));
+        for(int i = 0; i < total; i++) {
+            final int run = i;
+            final SharedMulticastTree origin = i == 0 ? tree : i <= initialTrees.size() ? initialTrees.get(i - 1) : tree;
+            final int moves = i <= initialTrees.size() ? 0 : perturbation;
+
+            tasks.add(new Callable<SharedMulticastTree>() {
+                @Override
+                public SharedMulticastTree call() {
+                    SharedMulticastTree copy = origin.copy();
+                    long remaining = limitNanos == Long.MAX_VALUE ? Long.MAX_VALUE : limitNanos - (System.nanoTime() - start);
+
+                    SMTOptimizer optimizer = new SMTOptimizer(copy);
+                    optimizer.setSeed(seed + run);
+                    optimizer.setPerturbationMoves(moves);
+                    optimizer.setCandidateNeighbors(candidateNeighbors);
+                    optimizer.setDelaunayCandidates(delaunayCandidates);
+                    optimizer.setIterationLimit(iterationLimit);
+                    if(remaining != Long.MAX_VALUE)
+                        optimizer.setTimeLimit(Math.max(1, remaining/1000000));
+                    optimizer.setListener(new SMTOptimizer.Listener() {
+                        private long windowEnd = pruneAfterIterations;
+                        private double windowStartCost = Double.POSITIVE_INFINITY;
+
+                        @Override
+                        public boolean progress(long iteration, double cost) {
+                            double best = offer(cost);
+                            if(iteration < windowEnd)
+                                return true;
+
+                            double gap = cost - best;
+                            double gain = windowStartCost - cost;
+                            windowEnd = iteration + pruneAfterIterations;
+                            windowStartCost = cost;
+                            return gap <= best*pruneTolerance || gain >= gap;
+                        }
+                    });
+
+                    OptimizationResult result = optimizer.optimize();
+                    offer(copy.getCost());
+                    synchronized(results) {
+                        results.set(run, result);
+                    }
+                    return copy;
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, total));
+        SharedMulticastTree best = null;
+        try {
+            for(Future<SharedMulticastTree> future : executor.invokeAll(tasks)) {
+                SharedMulticastTree candidate = future.get();
+                if(best == null || candidate.getCost() < best.getCost())
+                    best = candidate;
+            }
+        }
+        catch(ExecutionException e) {
+            throw new IllegalStateException("An optimization run failed", e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        synchronized(results) {
+            return new Result(best, new ArrayList<OptimizationResult>(results), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Lowers the best known cost to cost, if cost is lower
+     * @param cost
+     * @return
+     *      the best known cost afterwards
+     */
+    private double offer(double cost) {
+        // Costs are never negative, so their bit patterns are ordered like the values
+        long bits = Double.doubleToLongBits(cost);
+        long current;
+        do {
+            current = bestCostBits.get();
+            if(current <= bits)
+                return Double.longBitsToDouble(current);
+        } while(!bestCostBits.compareAndSet(current, bits));
+        return cost;
+    }
+}
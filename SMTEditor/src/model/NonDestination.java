@@ -2,7 +2,7 @@ package model;
 
 public class NonDestination extends SMTNode{
 
-    public NonDestination(double x, double y, int id) {
-        super(x, y, false, id);
+    public NonDestination(SMTGraph graph, int id) {
+        super(graph, id, false);
     }
 }
@@ -0,0 +1,124 @@
+package model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of an optimization run, with the cost after every improvement
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public final class OptimizationResult {
+
+    public enum StopReason {
+        LOCAL_OPTIMUM, // no improving move is left
+        TIME_LIMIT,
+        ITERATION_LIMIT,
+        CANCELLED // stopped by a listener
+    }
+
+    /**
+     * A point of the improvement trajectory
+     */
+    public static final class Step {
+
+        private final long elapsedNanos;
+        private final long iteration;
+        private final double cost;
+
+        Step(long elapsedNanos, long iteration, double cost) {
+            this.elapsedNanos = elapsedNanos;
+            this.iteration = iteration;
+            this.cost = cost;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public long getIteration() {
+            return iteration;
+        }
+
+        public double getCost() {
+            return cost;
+        }
+
+        @Override
+        public String toString() {
+            return iteration + ": " + cost + " (" + elapsedNanos/1000000 + " ms)";
+        }
+    }
+
+    private final double initialCost;
+    private final double finalCost;
+    private final long iterations;
+    private final long moves;
+    private final long elapsedNanos;
+    private final StopReason stopReason;
+    private final List<Step> trajectory;
+
+    OptimizationResult(double initialCost, double finalCost, long iterations, long moves, long elapsedNanos,
+            StopReason stopReason, List<Step> trajectory) {
+        this.initialCost = initialCost;
+        this.finalCost = finalCost;
+        this.iterations = iterations;
+        this.moves = moves;
+        this.elapsedNanos = elapsedNanos;
+        this.stopReason = stopReason;
+        this.trajectory = Collections.unmodifiableList(trajectory);
+    }
+
+    public double getInitialCost() {
+        return initialCost;
+    }
+
+    public double getFinalCost() {
+        return finalCost;
+    }
+
+    public double getImprovement() {
+        return initialCost - finalCost;
+    }
+
+    /**
+     *
+     * @return
+     *      the number of evaluated moves
+     */
+    public long getIterations() {
+        return iterations;
+    }
+
+    /**
+     *
+     * @return
+     *      the number of applied moves
+     */
+    public long getMoves() {
+        return moves;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public StopReason getStopReason() {
+        return stopReason;
+    }
+
+    /**
+     *
+     * @return
+     *      the starting cost followed by the cost after every applied move
+     */
+    public List<Step> getTrajectory() {
+        return trajectory;
+    }
+
+    @Override
+    public String toString() {
+        return "cost " + initialCost + " -> " + finalCost + " after " + moves + " moves, " + iterations
+                + " iterations, " + elapsedNanos/1000000 + " ms, stopped: " + stopReason;
+    }
+}
@@ -0,0 +1,88 @@
+package model;
+
+/**
+ * Path loss model, the cost of a transmission reaching distance d is overhead + d^alpha.
+ * The common exponents 2, 3 and 4 are evaluated with multiplications and at most one square root,
+ * other exponents fall back on Math.pow.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public final class PathLossCostModel implements CostModel {
+
+    private final double alpha;
+    private final double halfAlpha;
+    private final double overhead;
+
+    /**
+     *
+     * @param alpha
+     *      the path loss exponent, typically between 2 and 4
+     * @param overhead
+     *      fixed cost added to every transmission
+     */
+    public PathLossCostModel(double alpha, double overhead) throws IllegalArgumentException {
+        if(!(alpha > 0) || Double.isInfinite(alpha))
+            throw new IllegalArgumentException("Path loss exponent must be positive, alpha = " + alpha);
+        if(!(overhead >= 0) || Double.isInfinite(overhead))
+            throw new IllegalArgumentException("Transmission overhead can't be negative, overhead = " + overhead);
+
+        this.alpha = alpha;
+        this.halfAlpha = alpha/2;
+        this.overhead = overhead;
+    }
+
+    public PathLossCostModel(double alpha) throws IllegalArgumentException {
+        this(alpha, 0);
+    }
+
+    public double getAlpha() {
+        return alpha;
+    }
+
+    public double getOverhead() {
+        return overhead;
+    }
+
+    @Override
+    public double cost(double squaredDistance) {
+        if(alpha == 2)
+            return overhead + squaredDistance;
+        if(alpha == 3)
+            return overhead + squaredDistance*Math.sqrt(squaredDistance);
+        if(alpha == 4)
+            return overhead + squaredDistance*squaredDistance;
+        return overhead + Math.pow(squaredDistance, halfAlpha);
+    }
+
+    @Override
+    public void costs(double[] values, int from, int to) {
+        // One branch free loop per exponent, so each of them can be vectorized
+        double c = overhead;
+        if(alpha == 2) {
+            for(int i = from; i < to; i++)
+                values[i] = c + values[i];
+        }
+        else if(alpha == 3) {
+            for(int i = from; i < to; i++) {
+                double sq = values[i];
+                values[i] = c + sq*Math.sqrt(sq);
+            }
+        }
+        else if(alpha == 4) {
+            for(int i = from; i < to; i++) {
+                double sq = values[i];
+                values[i] = c + sq*sq;
+            }
+        }
+        else {
+            double e = halfAlpha;
+            for(int i = from; i < to; i++)
+                values[i] = c + Math.pow(values[i], e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PathLoss(alpha = " + alpha + ", overhead = " + overhead + ")";
+    }
+}
@@ -0,0 +1,171 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * An immutable array of references, stored as a trie of 32-wide blocks. set returns a new array that shares
+ * everything with the old one except the O(log32 n) blocks on the path to the index, so versions are cheap
+ * to keep. Unset indexes hold null, the array grows when an index beyond its capacity is set.
+ * <p>
+ * Since unchanged blocks are shared, the indexes at which two versions differ are found without looking
+ * at the shared parts, in O(differences * log32 n).
+ * @author Yngve Sekse Kristiansen
+ *
+ * @param <T>
+ *      the element type, elements are compared by reference
+ */
+public final class PersistentArray<T> {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final PersistentArray<?> EMPTY = new PersistentArray<Object>(new Object[WIDTH], 0);
+
+    private final Object[] root;
+    private final int shift; // BITS*(depth - 1), the leaves are at shift 0
+
+    private PersistentArray(Object[] root, int shift) {
+        this.root = root;
+        this.shift = shift;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> PersistentArray<T> empty() {
+        return (PersistentArray<T>) EMPTY;
+    }
+
+    /**
+     * Builds an array holding values[0] ... values[length - 1] in O(length)
+     * @param values
+     * @param length
+     * @return
+     */
+    public static <T> PersistentArray<T> of(T[] values, int length) {
+        int shift = 0;
+        while(length > (long) WIDTH << shift)
+            shift += BITS;
+
+        // Leaves first, then one level of blocks at a time
+        Object[] level = new Object[Math.max(1, (length + MASK) >>> BITS)];
+        for(int i = 0; i < level.length; i++) {
+            Object[] leaf = new Object[WIDTH];
+            System.arraycopy(values, i*WIDTH, leaf, 0, Math.min(WIDTH, length - i*WIDTH));
+            level[i] = leaf;
+        }
+        for(int s = BITS; s <= shift; s += BITS) {
+            Object[] parents = new Object[(level.length + MASK) >>> BITS];
+            for(int i = 0; i < parents.length; i++)
+                parents[i] = Arrays.copyOfRange(level, i*WIDTH, (i + 1)*WIDTH);
+            level = parents;
+        }
+        return new PersistentArray<T>((Object[]) level[0], shift);
+    }
+
+    /**
+     *
+     * @return
+     *      the number of indexes the trie can hold without growing, every index at or above it holds null
+     */
+    public int capacity() {
+        return WIDTH << shift;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int i) {
+        if(i < 0 || i >= capacity())
+            return null;
+
+        Object[] block = root;
+        for(int level = shift; level > 0; level -= BITS) {
+            block = (Object[]) block[(i >>> level) & MASK];
+            if(block == null)
+                return null;
+        }
+        return (T) block[i & MASK];
+    }
+
+    /**
+     *
+     * @param i
+     * @param value
+     * @return
+     *      a copy with value at i, this array if it's there already
+     */
+    public PersistentArray<T> set(int i, T value) throws IllegalArgumentException {
+        if(i < 0)
+            throw new IllegalArgumentException("Index can't be negative, i = " + i);
+        if(get(i) == value)
+            return this;
+
+        Object[] root = this.root;
+        int shift = this.shift;
+        while(i >= WIDTH << shift) { // grow a level, the old trie becomes the first child
+            Object[] grown = new Object[WIDTH];
+            grown[0] = root;
+            root = grown;
+            shift += BITS;
+        }
+        return new PersistentArray<T>(set(root, shift, i, value), shift);
+    }
+
+    private static Object[] set(Object[] block, int level, int i, Object value) {
+        Object[] copy = block == null ? new Object[WIDTH] : block.clone();
+        int k = (i >>> level) & MASK;
+        copy[k] = level == 0 ? value : set((Object[]) copy[k], level - BITS, i, value);
+        return copy;
+    }
+
+    /**
+     * Finds the indexes whose elements differ between this array and other
+     * @param other
+     * @return
+     *      the indexes in increasing order
+     */
+    public int[] differences(PersistentArray<T> other) {
+        Object[] a = root;
+        Object[] b = other.root;
+        int shift = Math.max(this.shift, other.shift);
+        for(int s = this.shift; s < shift; s += BITS)
+            a = lift(a);
+        for(int s = other.shift; s < shift; s += BITS)
+            b = lift(b);
+
+        Differences found = new Differences();
+        differences(a, b, shift, 0, found);
+        return Arrays.copyOf(found.indexes, found.length);
+    }
+
+    private static Object[] lift(Object[] block) {
+        Object[] parent = new Object[WIDTH];
+        parent[0] = block;
+        return parent;
+    }
+
+    private static void differences(Object[] a, Object[] b, int level, int base, Differences found) {
+        if(a == b)
+            return;
+        for(int k = 0; k < WIDTH; k++) {
+            Object x = a == null ? null : a[k];
+            Object y = b == null ? null : b[k];
+            if(x == y)
+                continue;
+            if(level == 0)
+                found.add(base + k);
+            else
+                differences((Object[]) x, (Object[]) y, level - BITS, base + (k << level), found);
+        }
+    }
+
+    private static final class Differences {
+
+        int[] indexes = new int[16];
+        int length;
+
+        void add(int i) {
+            if(length == indexes.length)
+                indexes = Arrays.copyOf(indexes, length*2);
+            indexes[length++] = i;
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import model.OptimizationResult.Step;
+import model.OptimizationResult.StopReason;
+
+/**
+ * Improves a tree by simulated annealing over edge exchange moves. A move adds a random candidate link u-v
+ * and removes a random other link of the cycle it closes. Moves that don't raise the cost are always applied,
+ * a move raising it by delta is applied with probability exp(-delta/temperature), the temperature falling
+ * by the cooling schedule as the budget is used.
+ * <p>
+ * Moves are scored by an ExchangeEvaluator, a move costs O(length of the cycle + degrees of its ends),
+ * independent of the size of the tree.
+ * <p>
+ * The tree passed in is never modified, the annealing runs on a copy. The best tree found is kept as a second copy
+ * that lags behind: the applied moves are logged, and at every checkpoint the moves up to the best state are
+ * replayed onto it. Once the moves past the best state outgrow the size of the tree they are dropped,
+ * and the next best tree is copied instead.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public class SMTAnnealer {
+
+    /**
+     * Receives the best tree found so far at every checkpoint
+     */
+    public interface CheckpointListener {
+
+        /**
+         *
+         * @param best
+         *      a copy of the best tree found so far, it can be kept
+         * @param moves
+         *      the number of proposed moves so far
+         * @return
+         *      false to stop the run
+         */
+        boolean checkpoint(SharedMulticastTree best, long moves);
+    }
+
+    /**
+     * Outcome of an annealing run
+     */
+    public static final class Result {
+
+        private final SharedMulticastTree best;
+        private final double initialCost;
+        private final long proposedMoves;
+        private final long acceptedMoves;
+        private final long checkpoints;
+        private final long elapsedNanos;
+        private final StopReason stopReason;
+        private final List<Step> trajectory;
+
+        Result(SharedMulticastTree best, double initialCost, long proposedMoves, long acceptedMoves, long checkpoints,
+                long elapsedNanos, StopReason stopReason, List<Step> trajectory) {
+            this.best = best;
+            this.initialCost = initialCost;
+            this.proposedMoves = proposedMoves;
+            this.acceptedMoves = acceptedMoves;
+            this.checkpoints = checkpoints;
+            this.elapsedNanos = elapsedNanos;
+            this.stopReason = stopReason;
+            this.trajectory = Collections.unmodifiableList(trajectory);
+        }
+
+        /**
+         *
+         * @return
+         *      a copy of the tree with the best tree found, recalculated
+         */
+        public SharedMulticastTree getBest() {
+            return best;
+        }
+
+        public double getInitialCost() {
+            return initialCost;
+        }
+
+        public double getBestCost() {
+            return best.getCost();
+        }
+
+        /**
+         *
+         * @return
+         *      the number of scored moves
+         */
+        public long getProposedMoves() {
+            return proposedMoves;
+        }
+
+        /**
+         *
+         * @return
+         *      the number of applied moves
+         */
+        public long getAcceptedMoves() {
+            return acceptedMoves;
+        }
+
+        public long getCheckpoints() {
+            return checkpoints;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         *
+         * @return
+         *      proposed moves per second of the run
+         */
+        public double getMovesPerSecond() {
+            return elapsedNanos == 0 ? 0 : proposedMoves*1e9/elapsedNanos;
+        }
+
+        public StopReason getStopReason() {
+            return stopReason;
+        }
+
+        /**
+         *
+         * @return
+         *      the starting cost followed by every new best cost, the iteration being the proposed move
+         */
+        public List<Step> getTrajectory() {
+            return trajectory;
+        }
+
+        @Override
+        public String toString() {
+            return "cost " + initialCost + " -> " + best.getCost() + " after " + acceptedMoves + "/" + proposedMoves
+                    + " moves, " + elapsedNanos/1000000 + " ms, " + Math.round(getMovesPerSecond()) + " moves/s, stopped: "
+                    + stopReason;
+        }
+    }
+
+    public static final long DEFAULT_MOVES_PER_NODE = 1000; // move limit when no budget is set
+    public static final double DEFAULT_END_TEMPERATURE_RATIO = 1e-4;
+
+    private static final int CLOCK_INTERVAL = 256; // moves between two reads of the clock and the schedule
+    private static final int TEMPERATURE_SAMPLES = 1000; // random moves scored to pick the start temperature
+    private static final double START_ACCEPTANCE = 0.5; // chance of accepting an average uphill move at the start
+    private static final int REJECTED_PICKS_PER_PAIR = 16; // picks in a row without a valid move, per candidate pair, before giving up
+
+    private final SharedMulticastTree tree;
+    private CoolingSchedule schedule; // picked from sampled moves unless set
+    private long timeLimitMillis = Long.MAX_VALUE;
+    private long moveLimit = Long.MAX_VALUE;
+    private int candidateNeighbors = SMTOptimizer.DEFAULT_CANDIDATE_NEIGHBORS;
+    private boolean delaunayCandidates;
+    private SplittableRandom random = new SplittableRandom();
+    private long checkpointMillis = Long.MAX_VALUE;
+    private CheckpointListener checkpointListener;
+
+    private SharedMulticastTree current;
+    private ExchangeEvaluator evaluator;
+    private SharedMulticastTree best; // lags behind, see sync
+    private int[] log = new int[64]; // a, b, u, v of every move applied to current since best was synced
+    private int logLength;
+    private int bestMark = -1; // log length at the best state, -1 if best is in sync
+    private int logLimit; // moves past the best state that are kept
+    private boolean logDropped; // moves were dropped, current can't be replayed onto best
+
+    public SMTAnnealer(SharedMulticastTree tree) {
+        this.tree = tree;
+    }
+
+    public void setCoolingSchedule(CoolingSchedule schedule) {
+        this.schedule = schedule;
+    }
+
+    public void setTimeLimit(long millis) throws IllegalArgumentException {
+        if(millis <= 0)
+            throw new IllegalArgumentException("Time limit must be positive, millis = " + millis);
+        this.timeLimitMillis = millis;
+    }
+
+    /**
+     * Sets the number of proposed moves of the run
+     * @param moves
+     */
+    public void setMoveLimit(long moves) throws IllegalArgumentException {
+        if(moves <= 0)
+            throw new IllegalArgumentException("Move limit must be positive, moves = " + moves);
+        this.moveLimit = moves;
+    }
+
+    /**
+     * Sets how many of its nearest nodes every node may be linked to by a move
+     * @param k
+     */
+    public void setCandidateNeighbors(int k) throws IllegalArgumentException {
+        if(k <= 0)
+            throw new IllegalArgumentException("Number of candidate neighbors must be positive, k = " + k);
+        this.candidateNeighbors = k;
+    }
+
+    /**
+     * Uses the links of the Delaunay triangulation as candidates instead of the nearest neighbors
+     * @param delaunay
+     */
+    public void setDelaunayCandidates(boolean delaunay) {
+        this.delaunayCandidates = delaunay;
+    }
+
+    public void setSeed(long seed) {
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Passes a copy of the best tree to the listener every interval, and once at the end of the run
+     * @param millis
+     *      the interval
+     * @param listener
+     */
+    public void setCheckpoints(long millis, CheckpointListener listener) throws IllegalArgumentException {
+        if(millis <= 0)
+            throw new IllegalArgumentException("Checkpoint interval must be positive, millis = " + millis);
+        this.checkpointMillis = millis;
+        this.checkpointListener = listener;
+    }
+
+    /**
+     * Runs the annealing until the budget is used. Without a time or move limit,
+     * the run proposes DEFAULT_MOVES_PER_NODE moves per node. The run stops early with LOCAL_OPTIMUM
+     * when no candidate gives a move, such as when all of them are linked already.
+     * @return
+     *      the best tree found and the statistics of the run
+     * @throws IllegalArgumentException
+     *      if the links contain a cycle
+     */
+    public Result anneal() throws IllegalArgumentException {
+        long start = System.nanoTime();
+        long timeLimitNanos = timeLimitMillis >= Long.MAX_VALUE/1000000 ? Long.MAX_VALUE : timeLimitMillis*1000000;
+        long checkpointNanos = checkpointMillis >= Long.MAX_VALUE/1000000 ? Long.MAX_VALUE : checkpointMillis*1000000;
+
+        current = tree.copy();
+        evaluator = new ExchangeEvaluator(current);
+        evaluator.start();
+        SMTGraph graph = evaluator.graph();
+
+        long moves = moveLimit;
+        if(moves == Long.MAX_VALUE && timeLimitNanos == Long.MAX_VALUE)
+            moves = Math.max(1, DEFAULT_MOVES_PER_NODE*graph.nodeCount());
+
+        best = current.copy();
+        logLength = 0;
+        bestMark = -1;
+        logDropped = false;
+        logLimit = Math.max(64, graph.nodeCount());
+
+        int[] candidates = delaunayCandidates ? CandidateLinks.delaunay(graph) : CandidateLinks.nearest(graph, candidateNeighbors);
+        int pairs = candidates.length/2;
+        CoolingSchedule schedule = this.schedule != null ? this.schedule : sampleSchedule(candidates);
+
+        double initialCost = current.getCost();
+        double bestCost = initialCost;
+        List<Step> trajectory = new ArrayList<Step>();
+        trajectory.add(new Step(0, 0, initialCost));
+
+        long proposed = 0;
+        long accepted = 0;
+        long checkpoints = 0;
+        long nextCheckpoint = checkpointNanos;
+        double temperature = schedule.temperature(0);
+        StopReason stopReason = pairs == 0 ? StopReason.LOCAL_OPTIMUM : StopReason.ITERATION_LIMIT;
+        long maxRejectedPicks = (long) REJECTED_PICKS_PER_PAIR*pairs;
+        long rejectedPicks = 0;
+
+        for(long attempt = 0; pairs > 0 && proposed < moves; attempt++) {
+            if(attempt % CLOCK_INTERVAL == 0) {
+                long elapsed = System.nanoTime() - start;
+                if(elapsed >= timeLimitNanos) {
+                    stopReason = StopReason.TIME_LIMIT;
+                    break;
+                }
+                if(elapsed >= nextCheckpoint) {
+                    checkpoints++;
+                    nextCheckpoint = elapsed + checkpointNanos;
+                    if(!checkpointListener.checkpoint(bestCopy(), proposed)) {
+                        stopReason = StopReason.CANCELLED;
+                        break;
+                    }
+                }
+
+                double progress = Math.max((double) proposed/moves, (double) elapsed/timeLimitNanos);
+                temperature = schedule.temperature(Math.min(1, progress));
+            }
+
+            int c = 2*random.nextInt(pairs);
+            int u = candidates[c];
+            int v = candidates[c + 1];
+            if(graph.hasTarget(u, v) || !evaluator.prepare(u, v)) {
+                // No candidate may ever make a move, such as in a tree where all of them are linked already
+                if(++rejectedPicks >= maxRejectedPicks) {
+                    stopReason = StopReason.LOCAL_OPTIMUM;
+                    break;
+                }
+                continue;
+            }
+            rejectedPicks = 0;
+
+            proposed++;
+            int cut = random.nextInt(evaluator.cuts());
+            double delta = evaluator.delta(cut);
+            if(delta > 0 && !(temperature > 0 && random.nextDouble() < Math.exp(-delta/temperature)))
+                continue;
+
+            log(evaluator.cutStart(cut), evaluator.cutStart(cut + 1), u, v);
+            evaluator.apply(cut);
+            accepted++;
+
+            if(current.getCost() < bestCost) {
+                bestCost = current.getCost();
+                markBest();
+                trajectory.add(new Step(System.nanoTime() - start, proposed, bestCost));
+            }
+        }
+
+        sync();
+        best.recalculate(); // drops the rounding drift of the applied deltas
+        if(checkpointListener != null) {
+            checkpoints++;
+            checkpointListener.checkpoint(best.copy(), proposed);
+        }
+
+        SharedMulticastTree result = best;
+        current = null;
+        evaluator = null;
+        best = null;
+        return new Result(result, initialCost, proposed, accepted, checkpoints, System.nanoTime() - start,
+                stopReason, trajectory);
+    }
+
+    /**
+     * Picks a geometric schedule accepting an average uphill move with probability START_ACCEPTANCE at the start,
+     * from the deltas of random moves on the tree
+     */
+    private CoolingSchedule sampleSchedule(int[] candidates) {
+        int pairs = candidates.length/2;
+        double sum = 0;
+        int uphill = 0;
+        for(int i = 0; pairs > 0 && i < TEMPERATURE_SAMPLES; i++) {
+            int c = 2*random.nextInt(pairs);
+            if(evaluator.graph().hasTarget(candidates[c], candidates[c + 1]) || !evaluator.prepare(candidates[c], candidates[c + 1]))
+                continue;
+
+            double delta = evaluator.delta(random.nextInt(evaluator.cuts()));
+            if(delta > 0) {
+                sum += delta;
+                uphill++;
+            }
+        }
+
+        double mean = uphill == 0 ? Math.max(1, current.getCost()) : sum/uphill;
+        double start = mean/-Math.log(START_ACCEPTANCE);
+        return new GeometricCoolingSchedule(start, start*DEFAULT_END_TEMPERATURE_RATIO);
+    }
+
+    private void log(int a, int b, int u, int v) {
+        if(logDropped)
+            return;
+        if((logLength - Math.max(0, bestMark))/4 >= logLimit) {
+            sync();
+            logLength = 0;
+            logDropped = true;
+            return;
+        }
+
+        if(logLength + 4 > log.length)
+            log = Arrays.copyOf(log, log.length*2);
+        log[logLength++] = a;
+        log[logLength++] = b;
+        log[logLength++] = u;
+        log[logLength++] = v;
+    }
+
+    /**
+     * Marks the current tree as the best one
+     */
+    private void markBest() {
+        if(logDropped) {
+            best = current.copy();
+            logLength = 0;
+            bestMark = -1;
+            logDropped = false;
+        }
+        else
+            bestMark = logLength;
+    }
+
+    /**
+     * Replays the logged moves up to the best state onto best, keeping the moves after it
+     */
+    private void sync() {
+        if(bestMark < 0)
+            return;
+
+        for(int i = 0; i < bestMark; i += 4)
+            best.exchangeLink(log[i], log[i + 1], log[i + 2], log[i + 3]);
+        System.arraycopy(log, bestMark, log, 0, logLength - bestMark);
+        logLength -= bestMark;
+        bestMark = -1;
+    }
+
+    private SharedMulticastTree bestCopy() {
+        sync();
+        return best.copy();
+    }
+}
@@ -0,0 +1,376 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * A tree in a compact binary file, read through a memory mapping. Opening a file only maps it and checks
+ * the header, the nodes are read straight from the mapping when asked for, and a SharedMulticastTree is
+ * only made by newTree(). The mapping is released when the garbage collector gets to it.
+ * <p>
+ * The layout, little-endian, every section starts on a multiple of 8 bytes:
+ * <pre>
+ *      0   int      magic, the bytes SMTB
+ *      4   int      version
+ *      8   int      n, the number of nodes
+ *     12   int      the number of destinations
+ *     16   int      m, the number of neighbor entries, twice the number of links
+ *     20   int      reserved, 0
+ *     24   long     CRC32C of everything after the header
+ *     32   long[]   destination flags, bit i%64 of long i/64 is set if node i is a destination
+ *          double[] n x-coordinates
+ *          double[] n y-coordinates
+ *          int[]    n + 1 offsets, the neighbors of node i are targets[offsets[i]] ... targets[offsets[i + 1] - 1]
+ *          int[]    m targets
+ * </pre>
+ * The destinations are the first nodes, as in the text format.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public final class SMTBinaryFile {
+
+    public static final String EXTENSION = ".smtb";
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = 'S' | 'M' << 8 | 'T' << 16 | 'B' << 24; // little-endian, so the file starts with SMTB
+    private static final int HEADER_SIZE = 32;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File file;
+    private final int version;
+    private final int nodeCount, destinationCount, targetCount;
+    private final long checksum;
+    private final MappedByteBuffer[] sections;
+    private final LongBuffer destinations;
+    private final DoubleBuffer x, y;
+    private final IntBuffer offsets, targets;
+    private volatile boolean verified;
+
+    private SMTBinaryFile(File file, int version, int nodeCount, int destinationCount, int targetCount, long checksum,
+            MappedByteBuffer[] sections) {
+        this.file = file;
+        this.version = version;
+        this.nodeCount = nodeCount;
+        this.destinationCount = destinationCount;
+        this.targetCount = targetCount;
+        this.checksum = checksum;
+        this.sections = sections;
+        destinations = sections[0].order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        x = sections[1].order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        y = sections[2].order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        offsets = sections[3].order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        targets = sections[4].order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    /**
+     *
+     * @param file
+     * @return
+     *      whether the file has the extension of binary tree files
+     */
+    public static boolean isBinary(File file) {
+        return file.getName().endsWith(EXTENSION);
+    }
+
+    /**
+     * Maps the file and checks the header, the checksum isn't checked until verify() or newTree()
+     * @param file
+     * @return
+     * @throws IOException
+     *      if the file couldn't be read
+     * @throws IllegalArgumentException
+     *      if the file isn't a binary tree file of a known version, or doesn't have the length the header says
+     */
+    public static SMTBinaryFile open(File file) throws IOException, IllegalArgumentException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while(header.hasRemaining())
+                if(channel.read(header, header.position()) < 0)
+                    break;
+            if(header.hasRemaining())
+                throw new IllegalArgumentException("Not a binary tree file, only " + header.position() + " bytes");
+            header.flip();
+
+            if(header.getInt(0) != MAGIC)
+                throw new IllegalArgumentException("Not a binary tree file, no SMTB at the start");
+            int version = header.getInt(4);
+            if(version != VERSION)
+                throw new IllegalArgumentException("Unsupported version " + version + ", expected " + VERSION);
+            int nodeCount = header.getInt(8);
+            int destinationCount = header.getInt(12);
+            int targetCount = header.getInt(16);
+            if(nodeCount < 0 || destinationCount < 0 || destinationCount > nodeCount || targetCount < 0)
+                throw new IllegalArgumentException("Corrupt header, nodes = " + nodeCount + ", destinations = " + destinationCount
+                        + ", targets = " + targetCount);
+
+            long[] sizes = sectionSizes(nodeCount, targetCount);
+            long expected = HEADER_SIZE;
+            for(long size : sizes)
+                expected += align(size);
+            if(channel.size() != expected)
+                throw new IllegalArgumentException("File is " + channel.size() + " bytes, the header says " + expected);
+
+            MappedByteBuffer[] sections = new MappedByteBuffer[sizes.length];
+            long position = HEADER_SIZE;
+            for(int i = 0; i < sizes.length; i++) {
+                if(sizes[i] > Integer.MAX_VALUE)
+                    throw new IllegalArgumentException("Tree too large to map, nodes = " + nodeCount + ", targets = " + targetCount);
+                sections[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, sizes[i]);
+                position += align(sizes[i]);
+            }
+            return new SMTBinaryFile(file, version, nodeCount, destinationCount, targetCount, header.getLong(24), sections);
+        } finally {
+            channel.close(); // the mappings stay valid
+        }
+    }
+
+    /**
+     * Writes the live nodes of the tree, destinations first. The nodes get new indexes, in slot order.
+     * @param tree
+     * @param file
+     * @throws IOException
+     */
+    public static void write(SharedMulticastTree tree, File file) throws IOException {
+        SMTGraph graph = tree.getGraph();
+        int n = graph.nodeCount();
+        int[] indexOfSlot = new int[graph.size()];
+        int[] slotOfIndex = new int[n];
+        int next = 0;
+        int destinationCount = 0;
+        for(int pass = 0; pass < 2; pass++) { // destinations, then the rest
+            for(int s = 0; s < graph.size(); s++) {
+                if(graph.isAlive(s) && graph.isDestination(s) == (pass == 0)) {
+                    indexOfSlot[s] = next;
+                    slotOfIndex[next++] = s;
+                }
+            }
+            if(pass == 0)
+                destinationCount = next;
+        }
+
+        double[] x = new double[n];
+        double[] y = new double[n];
+        int[] offsets = new int[n + 1];
+        for(int i = 0; i < n; i++) {
+            int s = slotOfIndex[i];
+            x[i] = graph.getX(s);
+            y[i] = graph.getY(s);
+            offsets[i + 1] = offsets[i] + graph.degree(s);
+        }
+        int[] targets = new int[offsets[n]];
+        for(int i = 0; i < n; i++) {
+            int s = slotOfIndex[i];
+            for(int k = 0; k < graph.degree(s); k++)
+                targets[offsets[i] + k] = indexOfSlot[graph.neighbor(s, k)];
+        }
+
+        write(x, y, destinationCount, offsets, targets, file);
+    }
+
+    private static void write(double[] x, double[] y, int destinationCount, int[] offsets, int[] targets, File file) throws IOException {
+        int n = x.length;
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            SectionWriter writer = new SectionWriter(channel);
+            for(int w = 0; w < (n + 63)/64; w++) {
+                long bits = 0;
+                for(int i = 64*w; i < Math.min(n, 64*w + 64); i++)
+                    if(i < destinationCount)
+                        bits |= 1L << i;
+                writer.putLong(bits);
+            }
+            for(double value : x)
+                writer.putDouble(value);
+            for(double value : y)
+                writer.putDouble(value);
+            writer.align();
+            for(int offset : offsets)
+                writer.putInt(offset);
+            writer.align();
+            for(int i = 0; i < offsets[n]; i++)
+                writer.putInt(targets[i]);
+            writer.align();
+            writer.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(destinationCount).putInt(offsets[n]).putInt(0)
+                .putLong(writer.checksum.getValue());
+            header.flip();
+            while(header.hasRemaining())
+                channel.write(header, header.position());
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the sections after the header through a buffer, adding them to the checksum
+     */
+    private static final class SectionWriter {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32C checksum = new CRC32C();
+        private long position = HEADER_SIZE;
+        private long written; // bytes since the header, for the alignment
+
+        SectionWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putLong(long value) throws IOException {
+            ensureRoom(8);
+            buffer.putLong(value);
+            written += 8;
+        }
+
+        void putDouble(double value) throws IOException {
+            ensureRoom(8);
+            buffer.putDouble(value);
+            written += 8;
+        }
+
+        void putInt(int value) throws IOException {
+            ensureRoom(4);
+            buffer.putInt(value);
+            written += 4;
+        }
+
+        void align() throws IOException {
+            while(written % 8 != 0)
+                putInt(0);
+        }
+
+        private void ensureRoom(int bytes) throws IOException {
+            if(buffer.remaining() < bytes)
+                flush();
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            checksum.update(buffer.duplicate());
+            while(buffer.hasRemaining())
+                position += channel.write(buffer, position);
+            buffer.clear();
+        }
+    }
+
+    /**
+     * The sizes of the destination flags, coordinates, offsets and targets, without padding
+     */
+    private static long[] sectionSizes(int nodeCount, int targetCount) {
+        return new long[] {8L*((nodeCount + 63L)/64), 8L*nodeCount, 8L*nodeCount, 4L*(nodeCount + 1L), 4L*targetCount};
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * Checks the checksum, once, later calls return at once
+     * @throws IllegalArgumentException
+     *      if the contents don't match the checksum
+     */
+    public void verify() throws IllegalArgumentException {
+        if(verified)
+            return;
+        CRC32C crc = new CRC32C();
+        byte[] padding = new byte[8];
+        for(MappedByteBuffer section : sections) {
+            crc.update(section.duplicate());
+            crc.update(padding, 0, (int) (align(section.capacity()) - section.capacity()));
+        }
+        if(crc.getValue() != checksum)
+            throw new IllegalArgumentException("Checksum mismatch in " + file + ", the file is corrupt");
+        verified = true;
+    }
+
+    /**
+     * Copies the file into a new tree, after checking the checksum and the structure
+     * @return
+     *      the tree, recalculated
+     * @throws IllegalArgumentException
+     *      if the file is corrupt
+     */
+    public SharedMulticastTree newTree() throws IllegalArgumentException {
+        verify();
+        for(int i = 0; i < nodeCount; i++)
+            if(isDestination(i) != (i < destinationCount))
+                throw new IllegalArgumentException("The " + destinationCount + " destinations must be the first nodes, node " + i + " isn't");
+
+        double[] xs = new double[nodeCount];
+        double[] ys = new double[nodeCount];
+        int[] offsetArray = new int[nodeCount + 1];
+        int[] targetArray = new int[targetCount];
+        x.duplicate().get(xs);
+        y.duplicate().get(ys);
+        offsets.duplicate().get(offsetArray);
+        targets.duplicate().get(targetArray);
+
+        if(offsetArray[0] != 0 || offsetArray[nodeCount] != targetCount)
+            throw new IllegalArgumentException("Corrupt offsets, offsets[0] = " + offsetArray[0] + ", offsets[n] = " + offsetArray[nodeCount]);
+        for(int i = 0; i < nodeCount; i++)
+            if(offsetArray[i + 1] < offsetArray[i])
+                throw new IllegalArgumentException("Corrupt offsets, offsets[" + (i + 1) + "] < offsets[" + i + "]");
+
+        return new SharedMulticastTree(xs, ys, destinationCount, offsetArray, targetArray);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getDestinationCount() {
+        return destinationCount;
+    }
+
+    public int getLinkCount() {
+        return targetCount/2;
+    }
+
+    public boolean isDestination(int i) {
+        return (destinations.get(i >>> 6) >>> i & 1) != 0;
+    }
+
+    public double getX(int i) {
+        return x.get(i);
+    }
+
+    public double getY(int i) {
+        return y.get(i);
+    }
+
+    public int degree(int i) {
+        return offsets.get(i + 1) - offsets.get(i);
+    }
+
+    /**
+     *
+     * @param i
+     * @param k
+     * @return
+     *      the index of the k-th neighbor of node i
+     */
+    public int neighbor(int i, int k) {
+        return targets.get(offsets.get(i) + k);
+    }
+}
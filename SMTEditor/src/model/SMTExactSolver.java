@@ -0,0 +1,673 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds the cheapest tree connecting all destinations of a small SharedMulticastTree, over its candidate links
+ * (every pair of nodes by default). Non-destinations may be used as relays or left out.
+ * <p>
+ * Trees are grown from a destination one link at a time, like Prim's algorithm, trying every link that
+ * reaches a new node. A partial tree is pruned as soon as its lower bound reaches the best tree found.
+ * Adding links only raises the power levels of a node, so with the current top two power levels p1 &gt;= p2
+ * and D destinations in total, a node will cost at least D*p2 + c*(p1 - p2), where c counts the destinations
+ * that can never be behind its farthest neighbor: those of the tree that aren't behind it now, and at least
+ * the node itself if it is a destination. A destination that isn't reached yet costs at least its cheapest link
+ * the branch may still add. While destinations are missing, some node of the tree must get a link to a new node,
+ * so the smallest rise of a node's bound that its cheapest such link gives is added too.
+ * <p>
+ * The same partial tree could be grown in many orders. Instead of remembering the partial trees already searched,
+ * every tree is only generated once: of the links that could be added next, the k-th branch adds the k-th one
+ * and forbids the ones before it for the rest of its search.
+ * <p>
+ * The first bound is the input tree if it is a tree connecting all destinations, otherwise the minimum spanning
+ * tree of the candidate links with the leaves that aren't destinations pruned, improved by SMTOptimizer either way.
+ * The first levels of the search are split into fork-join tasks. With a time limit the best tree found so far is
+ * returned, and the result tells it isn't proven optimal.
+ * <p>
+ * The search grows exponentially: with random points and half of them destinations, 12 nodes take about 30,000
+ * search nodes and a quarter of a second, 14 nodes about a second, 16 nodes tens of seconds. Larger trees, up to
+ * MAX_NODES, need a time limit, and then get the best tree found in time.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public class SMTExactSolver {
+
+    public static final int MAX_NODES = 64; // node sets are kept in a long
+
+    private static final int SPLIT_DEPTH = 2; // levels of the search that are forked
+    private static final int CLOCK_INTERVAL = 64; // search nodes between two reads of the clock, a node of a large tree takes a fraction of a millisecond
+
+    /**
+     * Outcome of the solver
+     */
+    public static final class Result {
+
+        private final SharedMulticastTree tree;
+        private final long searchNodes;
+        private final boolean optimal;
+        private final long elapsedNanos;
+
+        Result(SharedMulticastTree tree, long searchNodes, boolean optimal, long elapsedNanos) {
+            this.tree = tree;
+            this.searchNodes = searchNodes;
+            this.optimal = optimal;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         *
+         * @return
+         *      the best tree found, a copy of the input tree with its links replaced.
+         *      null if no tree over the candidate links connects all destinations.
+         */
+        public SharedMulticastTree getTree() {
+            return tree;
+        }
+
+        public double getCost() {
+            return tree == null ? Double.POSITIVE_INFINITY : tree.getCost();
+        }
+
+        public long getSearchNodes() {
+            return searchNodes;
+        }
+
+        /**
+         *
+         * @return
+         *      false if the time limit stopped the search before the tree was proven optimal
+         */
+        public boolean isOptimal() {
+            return optimal;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "cost " + getCost() + (optimal ? " (optimal)" : " (time limit)") + ", " + searchNodes
+                    + " search nodes, " + elapsedNanos/1000000 + " ms";
+        }
+    }
+
+    private final SharedMulticastTree tree;
+    private long timeLimitMillis = Long.MAX_VALUE;
+    private int candidateNeighbors; // 0 for every pair
+
+    // The instance, nodes are numbered 0 ... n - 1
+    private int n;
+    private int[] slots;
+    private boolean[] destination;
+    private int destinations;
+    private int root;
+    private CostModel costModel;
+
+    // Candidate links sorted by length, and the links of every node
+    private int m;
+    private int[] linkU, linkV;
+    private double[] linkCost;
+    private int[] adjacentOffsets, adjacentLinks; // the links of node v by cost are adjacentLinks[adjacentOffsets[v] ... adjacentOffsets[v + 1] - 1]
+
+    // Search state shared by the tasks
+    private final AtomicLong bestCostBits = new AtomicLong();
+    private int[] bestLinks; // null while the best tree is the initial tree
+    private SharedMulticastTree initialTree; // improved copy of the input tree, or null
+    private int bestLinkCount;
+    private LongAdder searchNodes;
+    private long deadline;
+    private volatile boolean expired;
+
+    public SMTExactSolver(SharedMulticastTree tree) {
+        this.tree = tree;
+    }
+
+    public void setTimeLimit(long millis) throws IllegalArgumentException {
+        if(millis <= 0)
+            throw new IllegalArgumentException("Time limit must be positive, millis = " + millis);
+        this.timeLimitMillis = millis;
+    }
+
+    /**
+     * Restricts the candidate links to the k nearest nodes of every node, 0 allows every pair
+     * @param k
+     */
+    public void setCandidateNeighbors(int k) throws IllegalArgumentException {
+        if(k < 0)
+            throw new IllegalArgumentException("Number of candidate neighbors can't be negative, k = " + k);
+        this.candidateNeighbors = k;
+    }
+
+    public Result solve() throws IllegalArgumentException {
+        return solve(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Searches for the optimal tree, the input tree is not modified
+     * @param pool
+     * @return
+     *      the best tree found and the number of search nodes explored
+     * @throws IllegalArgumentException
+     *      if the tree has more than MAX_NODES nodes
+     */
+    public Result solve(ForkJoinPool pool) throws IllegalArgumentException {
+        long start = System.nanoTime();
+        deadline = timeLimitMillis >= Long.MAX_VALUE/1000000 ? Long.MAX_VALUE : start + timeLimitMillis*1000000;
+        expired = false;
+
+        tree.recalculateIncremental();
+        SMTGraph graph = tree.getGraph();
+        if(graph.count > MAX_NODES)
+            throw new IllegalArgumentException("The exact solver handles at most " + MAX_NODES + " nodes, the tree has " + graph.count);
+
+        setUp(graph);
+        bestLinks = null;
+        bestLinkCount = 0;
+        initialTree = null;
+        bestCostBits.set(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+        if(isSpanningForest(graph))
+            initialTree = tree.copy();
+        else if(destinations > 1) {
+            int[] seed = spanningLinks();
+            if(seed != null)
+                initialTree = build(graph, seed, seed.length);
+        }
+        if(initialTree != null) {
+            SMTOptimizer optimizer = new SMTOptimizer(initialTree);
+            if(timeLimitMillis != Long.MAX_VALUE)
+                optimizer.setTimeLimit(Math.max(1, timeLimitMillis/10));
+            optimizer.optimize();
+            bestCostBits.set(Double.doubleToLongBits(initialTree.getCost()));
+        }
+        searchNodes = new LongAdder();
+
+        if(destinations <= 1) { // nothing has to be sent, the empty tree costs nothing
+            bestLinks = new int[0];
+            bestCostBits.set(Double.doubleToLongBits(0));
+        }
+        else {
+            State state = new State();
+            pool.invoke(new SearchTask(state, 0));
+        }
+
+        SharedMulticastTree solution = null;
+        if(bestLinks != null)
+            solution = build(graph, bestLinks, bestLinkCount);
+        else
+            solution = initialTree;
+
+        return new Result(solution, searchNodes.sum(), !expired, System.nanoTime() - start);
+    }
+
+    /**
+     * Numbers the nodes and sorts the candidate links
+     */
+    private void setUp(SMTGraph graph) {
+        n = graph.count;
+        slots = new int[n];
+        int[] local = new int[graph.size];
+        destination = new boolean[n];
+        destinations = 0;
+        root = -1;
+        costModel = tree.getCostModel();
+
+        for(int s = 0, i = 0; s < graph.size; s++) {
+            if(!graph.isAlive(s))
+                continue;
+            slots[i] = s;
+            local[s] = i;
+            destination[i] = graph.destination[s];
+            if(destination[i]) {
+                destinations++;
+                if(root < 0)
+                    root = i;
+            }
+            i++;
+        }
+
+        int[] pairs = candidateNeighbors == 0 ? CandidateLinks.complete(graph) : CandidateLinks.nearest(graph, candidateNeighbors);
+        m = pairs.length/2;
+        Integer[] order = new Integer[m];
+        double[] squared = new double[m];
+        for(int e = 0; e < m; e++) {
+            int s = pairs[2*e];
+            int t = pairs[2*e + 1];
+            squared[e] = Geometry.distanceSquared(graph.x[s], graph.y[s], graph.x[t], graph.y[t]);
+            order[e] = e;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(squared[a], squared[b]));
+
+        linkU = new int[m];
+        linkV = new int[m];
+        linkCost = new double[m];
+        for(int e = 0; e < m; e++) {
+            int o = order[e];
+            linkU[e] = local[pairs[2*o]];
+            linkV[e] = local[pairs[2*o + 1]];
+            linkCost[e] = costModel.cost(squared[o]);
+        }
+
+        adjacentOffsets = new int[n + 1];
+        for(int e = 0; e < m; e++) {
+            adjacentOffsets[linkU[e] + 1]++;
+            adjacentOffsets[linkV[e] + 1]++;
+        }
+        for(int v = 0; v < n; v++)
+            adjacentOffsets[v + 1] += adjacentOffsets[v];
+        adjacentLinks = new int[2*m];
+        int[] fill = adjacentOffsets.clone();
+        for(int e = 0; e < m; e++) { // in order of cost
+            adjacentLinks[fill[linkU[e]]++] = e;
+            adjacentLinks[fill[linkV[e]]++] = e;
+        }
+    }
+
+    /**
+     * The input tree is a valid starting bound if it has no cycles and all destinations are in one component
+     */
+    private boolean isSpanningForest(SMTGraph graph) {
+        SubtreeCounts counts = tree.getSubtreeCounts();
+        long degrees = 0;
+        int components = 0;
+        for(int s = 0; s < graph.size; s++) {
+            if(!graph.isAlive(s))
+                continue;
+            degrees += graph.degrees[s];
+            if(counts.parent[s] == SMTGraph.NO_SLOT)
+                components++;
+            if(graph.destination[s] && counts.componentDestinations(s) != destinations)
+                return false;
+        }
+        return degrees/2 == graph.count - components;
+    }
+
+    /**
+     * Minimum spanning tree over the candidate links, with the leaves that aren't destinations pruned away
+     * @return
+     *      the links, or null if the candidate links don't connect the destinations
+     */
+    private int[] spanningLinks() {
+        int[] component = new int[n];
+        for(int v = 0; v < n; v++)
+            component[v] = v;
+        int[] links = new int[Math.max(0, n - 1)];
+        int[] degree = new int[n];
+        int linkCount = 0;
+        for(int e = 0; e < m && linkCount < n - 1; e++) { // Kruskal, the links are sorted by cost
+            int cu = find(component, linkU[e]);
+            int cv = find(component, linkV[e]);
+            if(cu == cv)
+                continue;
+            component[cu] = cv;
+            links[linkCount++] = e;
+            degree[linkU[e]]++;
+            degree[linkV[e]]++;
+        }
+        for(int v = 0; v < n; v++)
+            if(destination[v] && find(component, v) != find(component, root))
+                return null;
+
+        // Prune leaves that aren't destinations, and the nodes outside the tree of the destinations
+        boolean pruning = true;
+        while(pruning) {
+            pruning = false;
+            int kept = 0;
+            for(int i = 0; i < linkCount; i++) {
+                int e = links[i];
+                int u = linkU[e];
+                int v = linkV[e];
+                if((degree[u] == 1 && !destination[u]) || (degree[v] == 1 && !destination[v])
+                        || find(component, u) != find(component, root)) {
+                    degree[u]--;
+                    degree[v]--;
+                    pruning = true;
+                }
+                else
+                    links[kept++] = e;
+            }
+            linkCount = kept;
+        }
+        return Arrays.copyOf(links, linkCount);
+    }
+
+    private static int find(int[] component, int v) {
+        while(component[v] != v) {
+            component[v] = component[component[v]]; // path halving
+            v = component[v];
+        }
+        return v;
+    }
+
+    /**
+     * Copies the input tree and replaces its links
+     */
+    private SharedMulticastTree build(SMTGraph graph, int[] links, int linkCount) {
+        SharedMulticastTree solution = tree.copy();
+        SMTGraph copy = solution.getGraph();
+
+        int[] remove = new int[2*copy.targetsEnd];
+        int length = 0;
+        for(int s = 0; s < copy.size; s++) {
+            if(!copy.isAlive(s))
+                continue;
+            for(int i = 0; i < copy.degrees[s]; i++) {
+                int t = copy.neighbor(s, i);
+                if(s < t) {
+                    remove[length++] = copy.idOf(s);
+                    remove[length++] = copy.idOf(t);
+                }
+            }
+        }
+        for(int i = 0; i < length; i += 2)
+            solution.removeLink(remove[i], remove[i + 1]);
+
+        for(int i = 0; i < linkCount; i++) {
+            int e = links[i];
+            solution.addLink(graph.idOf(slots[linkU[e]]), graph.idOf(slots[linkV[e]]));
+        }
+        solution.recalculate();
+
+        return solution;
+    }
+
+    /**
+     * Offers a complete tree as the best one
+     */
+    private synchronized void offer(double cost, int[] links, int linkCount) {
+        if(cost >= Double.longBitsToDouble(bestCostBits.get()))
+            return;
+        bestLinks = Arrays.copyOf(links, linkCount);
+        bestLinkCount = linkCount;
+        bestCostBits.set(Double.doubleToLongBits(cost));
+    }
+
+    private double bestCost() {
+        return Double.longBitsToDouble(bestCostBits.get());
+    }
+
+    /**
+     * A partial tree grown from the root, links are added and undone in stack order
+     */
+    private final class State {
+
+        long nodes; // nodes in the tree
+        int reached; // destinations in the tree
+        final int[] degree;
+        final double[] highest, second; // power levels, the cost of reaching the two farthest tree neighbors
+        final int[] farthest;
+        final int[] parent; // towards the root
+        final int[] down; // destinations in the subtree
+        final long[] forbidden; // links this branch may not add
+        final int[] links;
+        int linkCount;
+
+        State() {
+            degree = new int[n];
+            highest = new double[n];
+            second = new double[n];
+            farthest = new int[n];
+            parent = new int[n];
+            down = new int[n];
+            forbidden = new long[(m + 63) >>> 6];
+            links = new int[n];
+
+            Arrays.fill(farthest, -1);
+            Arrays.fill(parent, -1);
+            nodes = 1L << root;
+            reached = 1;
+            down[root] = 1;
+        }
+
+        State(State other) {
+            nodes = other.nodes;
+            reached = other.reached;
+            degree = other.degree.clone();
+            highest = other.highest.clone();
+            second = other.second.clone();
+            farthest = other.farthest.clone();
+            parent = other.parent.clone();
+            down = other.down.clone();
+            forbidden = other.forbidden.clone();
+            links = other.links.clone();
+            linkCount = other.linkCount;
+        }
+
+        /**
+         * The node the link e would add to the tree, or -1 if it doesn't join the tree to a new node or is forbidden
+         */
+        int newNode(int e) {
+            if((forbidden[e >>> 6] & (1L << e)) != 0)
+                return -1;
+            boolean hasU = (nodes & (1L << linkU[e])) != 0;
+            boolean hasV = (nodes & (1L << linkV[e])) != 0;
+            if(hasU == hasV)
+                return -1;
+            return hasU ? linkV[e] : linkU[e];
+        }
+
+        /**
+         * Adds the link e, joining the new node w to the tree at u
+         */
+        void add(int e, int u, int w) {
+            double c = linkCost[e];
+            if(degree[u] == 0 || c > highest[u]) { // the cost model is monotone, so costs order the neighbors like distances
+                second[u] = highest[u];
+                highest[u] = c;
+                farthest[u] = w;
+            }
+            else if(degree[u] == 1 || c > second[u])
+                second[u] = c;
+            degree[u]++;
+
+            degree[w] = 1;
+            highest[w] = c;
+            farthest[w] = u;
+            parent[w] = u;
+
+            nodes |= 1L << w;
+            if(destination[w]) {
+                reached++;
+                for(int x = w; x >= 0; x = parent[x])
+                    down[x]++;
+            }
+            links[linkCount++] = e;
+        }
+
+        void undo(int e, int u, int w, double oldHighest, double oldSecond, int oldFarthest) {
+            highest[u] = oldHighest;
+            second[u] = oldSecond;
+            farthest[u] = oldFarthest;
+            degree[u]--;
+
+            if(destination[w]) {
+                reached--;
+                for(int x = w; x >= 0; x = parent[x])
+                    down[x]--;
+            }
+            degree[w] = 0;
+            highest[w] = 0;
+            farthest[w] = -1;
+            parent[w] = -1;
+
+            nodes &= ~(1L << w);
+            linkCount--;
+        }
+
+        /**
+         * Destinations of the tree behind the farthest neighbor of v
+         */
+        private int behindFarthest(int v) {
+            int f = farthest[v];
+            return parent[f] == v ? down[f] : reached - down[v];
+        }
+
+        /**
+         * Lower bound on the cost of any tree grown from this one, see the class description.
+         * The destinations not behind the farthest neighbor of v can't move behind it, or behind a farther
+         * neighbor added later, so at least that many messages need the highest power level.
+         * While destinations are missing, some node of the tree gets a link to a node outside it, the cheapest
+         * rise of a node's bound that such a link can give is added.
+         * @param limit
+         *      the rise is left out once the rest of the bound reaches it
+         * @return
+         *      the bound, infinite if missing destinations can't be reached any more
+         */
+        double bound(double limit) {
+            double bound = 0;
+            for(int v = 0; v < n; v++) {
+                if(degree[v] == 0) {
+                    if(destination[v])
+                        bound += cheapestLink(v, false);
+                    continue;
+                }
+                bound += term(v);
+            }
+            if(reached == destinations || bound >= limit)
+                return bound;
+
+            double rise = Double.POSITIVE_INFINITY;
+            for(int v = 0; v < n; v++) {
+                if((nodes & (1L << v)) == 0)
+                    continue;
+                double c = cheapestLink(v, true);
+                if(c < Double.POSITIVE_INFINITY)
+                    rise = Math.min(rise, termWith(v, c) - (degree[v] == 0 ? cheapestLink(v, false) : term(v)));
+            }
+            return bound + rise;
+        }
+
+        /**
+         * The bound of a node of the tree, at least one link
+         */
+        private double term(int v) {
+            int atHighest = Math.max(destination[v] ? 1 : 0, reached - behindFarthest(v));
+            return destinations*second[v] + atHighest*(highest[v] - second[v]);
+        }
+
+        /**
+         * The bound of a node of the tree after a link of cost c to a node outside it, no destinations are behind
+         * that link yet
+         */
+        private double termWith(int v, double c) {
+            if(degree[v] > 0 && c <= highest[v]) {
+                int atHighest = Math.max(destination[v] ? 1 : 0, reached - behindFarthest(v));
+                double s = Math.max(second[v], c);
+                return destinations*s + atHighest*(highest[v] - s);
+            }
+            return destinations*highest[v] + Math.max(destination[v] ? 1 : 0, reached)*(c - highest[v]);
+        }
+
+        /**
+         * The cost of the cheapest link from v this branch may still add, infinite if there is none
+         * @param outside
+         *      only count links to nodes outside the tree
+         */
+        private double cheapestLink(int v, boolean outside) {
+            for(int i = adjacentOffsets[v]; i < adjacentOffsets[v + 1]; i++) {
+                int e = adjacentLinks[i];
+                if((forbidden[e >>> 6] & (1L << e)) != 0)
+                    continue;
+                int w = linkU[e] == v ? linkV[e] : linkU[e];
+                if(!outside || (nodes & (1L << w)) == 0)
+                    return linkCost[e];
+            }
+            return Double.POSITIVE_INFINITY;
+        }
+
+        /**
+         * The exact cost of the tree, it must contain all destinations
+         */
+        double cost() {
+            double total = 0;
+            for(int v = 0; v < n; v++) {
+                if(degree[v] == 0)
+                    continue;
+                int behind = behindFarthest(v);
+                total += behind*second[v] + (destinations - behind)*highest[v];
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Searches the extensions of a partial tree
+     */
+    private final class SearchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final State state;
+        private final int depth;
+        private long visited;
+
+        SearchTask(State state, int depth) {
+            this.state = state;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            search(depth);
+            searchNodes.add(visited);
+        }
+
+        private void search(int level) {
+            if(expired)
+                return;
+            if(++visited % CLOCK_INTERVAL == 0 && System.nanoTime() - deadline > 0) {
+                expired = true;
+                return;
+            }
+
+            if(state.reached == destinations) {
+                double cost = state.cost();
+                if(cost < bestCost())
+                    offer(cost, state.links, state.linkCount);
+            }
+
+            List<SearchTask> tasks = level < SPLIT_DEPTH ? new ArrayList<SearchTask>() : null;
+            int[] branched = new int[n];
+            int branches = 0;
+            for(int e = 0; e < m && !expired; e++) {
+                int w = state.newNode(e);
+                if(w < 0)
+                    continue;
+                int u = linkU[e] == w ? linkV[e] : linkU[e];
+
+                double oldHighest = state.highest[u];
+                double oldSecond = state.second[u];
+                int oldFarthest = state.farthest[u];
+                state.add(e, u, w);
+
+                double best = bestCost();
+                if(state.bound(best) < best) {
+                    if(tasks != null)
+                        tasks.add(new SearchTask(new State(state), level + 1));
+                    else
+                        search(level + 1);
+                }
+
+                state.undo(e, u, w, oldHighest, oldSecond, oldFarthest);
+
+                // the later branches leave e out, every tree is generated once
+                state.forbidden[e >>> 6] |= 1L << e;
+                if(branches == branched.length)
+                    branched = Arrays.copyOf(branched, branches*2);
+                branched[branches++] = e;
+            }
+
+            for(int i = 0; i < branches; i++)
+                state.forbidden[branched[i] >>> 6] &= ~(1L << branched[i]);
+
+            if(tasks != null)
+                invokeAll(tasks);
+        }
+    }
+}
@@ -0,0 +1,463 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Primitive storage engine behind a SharedMulticastTree.
+ * <p>
+ * Every node lives in a dense int slot, its coordinates and computed values are kept in
+ * parallel arrays indexed by that slot. The adjacency is stored compressed-sparse-row style,
+ * the neighbors (as slots) of slot s are
+ * <b>targets[offsets[s]] ... targets[offsets[s] + degrees[s] - 1]</b>.
+ * Each block may have some slack (capacities[s] >= degrees[s]) so links can be added without
+ * rebuilding the whole structure, a block that overflows is moved to the end of targets and the
+ * targets array is compacted once too much of it is unused.
+ * <p>
+ * Slots of removed nodes are recycled by later insertions, so a slot is stable for as long as
+ * its node lives. Node ids (see IdTracker) are mapped to slots through a flat int array.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public final class SMTGraph {
+
+    static final int NO_ID = -1;
+    public static final int NO_SLOT = -1;
+
+    private static final int MIN_BLOCK_CAPACITY = 4;
+    private static final int MIN_COMPACTION_WASTE = 1024;
+
+    int size; // slots in use (high-water mark), some of them may be free
+    int count; // live nodes
+
+    int[] idOfSlot;
+    boolean[] destination;
+    double[] x, y;
+
+    int[] offsets, degrees, capacities;
+    int[] targets;
+    int targetsEnd; // first unused index in targets
+    int wasted; // number of entries in targets no longer owned by any block
+
+    double[] highestPowerLevels, secondPowerLevels, nodeCosts;
+    int[] farthest; // the neighbor reached by the highest power level, NO_SLOT if there are no neighbors
+
+    private int[] slotOfId;
+    private int idBase = -1;
+
+    private int[] freeSlots = new int[0];
+    private int freeCount;
+
+    /**
+     * Initializes an empty graph
+     * @param expectedNodes
+     *      the number of nodes to allocate room for
+     */
+    SMTGraph(int expectedNodes) {
+        int capacity = Math.max(expectedNodes, 16);
+        idOfSlot = new int[capacity];
+        destination = new boolean[capacity];
+        x = new double[capacity];
+        y = new double[capacity];
+        offsets = new int[capacity];
+        degrees = new int[capacity];
+        capacities = new int[capacity];
+        highestPowerLevels = new double[capacity];
+        secondPowerLevels = new double[capacity];
+        nodeCosts = new double[capacity];
+        farthest = new int[capacity];
+        Arrays.fill(farthest, NO_SLOT);
+        targets = new int[capacity*2];
+        slotOfId = new int[capacity];
+        Arrays.fill(slotOfId, NO_SLOT);
+    }
+
+    /**
+     * Builds a packed graph from primitive arrays, node i gets slot i and id firstId + i.
+     * The arrays are taken over by the graph and must not be modified by the caller afterwards.
+     * @param x
+     *      x-coordinates
+     * @param y
+     *      y-coordinates
+     * @param numberOfDestinations
+     *      the first numberOfDestinations nodes are destinations
+     * @param offsets
+     *      CSR offsets, length x.length + 1
+     * @param targets
+     *      CSR targets, node indexes
+     * @param firstId
+     *      the id of node 0
+     * @return
+     *      the graph
+     */
+    static SMTGraph fromArrays(double[] x, double[] y, int numberOfDestinations, int[] offsets, int[] targets, int firstId) {
+        int n = x.length;
+        SMTGraph g = new SMTGraph(0);
+        int capacity = Math.max(n, 16);
+
+        g.x = x.length == capacity ? x : Arrays.copyOf(x, capacity);
+        g.y = y.length == capacity ? y : Arrays.copyOf(y, capacity);
+        g.targets = targets.length > 0 ? targets : new int[16];
+        g.targetsEnd = offsets[n];
+
+        g.idOfSlot = new int[capacity];
+        g.destination = new boolean[capacity];
+        g.offsets = new int[capacity];
+        g.degrees = new int[capacity];
+        g.capacities = new int[capacity];
+        g.highestPowerLevels = new double[capacity];
+        g.secondPowerLevels = new double[capacity];
+        g.nodeCosts = new double[capacity];
+        g.farthest = new int[capacity];
+        Arrays.fill(g.farthest, NO_SLOT);
+
+        for(int i = 0; i < n; i++) {
+            g.idOfSlot[i] = firstId + i;
+            g.destination[i] = i < numberOfDestinations;
+            g.offsets[i] = offsets[i];
+            g.degrees[i] = offsets[i + 1] - offsets[i];
+            g.capacities[i] = g.degrees[i];
+        }
+
+        g.size = n;
+        g.count = n;
+        g.idBase = n > 0 ? firstId : -1;
+        g.slotOfId = new int[capacity];
+        Arrays.fill(g.slotOfId, NO_SLOT);
+        for(int i = 0; i < n; i++)
+            g.slotOfId[i] = i;
+
+        return g;
+    }
+
+    /**
+     * Deep copy, with the same ids and slots
+     * @return
+     */
+    SMTGraph copy() {
+        SMTGraph g = new SMTGraph(0);
+        g.size = size;
+        g.count = count;
+        g.idOfSlot = idOfSlot.clone();
+        g.destination = destination.clone();
+        g.x = x.clone();
+        g.y = y.clone();
+        g.offsets = offsets.clone();
+        g.degrees = degrees.clone();
+        g.capacities = capacities.clone();
+        g.targets = targets.clone();
+        g.targetsEnd = targetsEnd;
+        g.wasted = wasted;
+        g.highestPowerLevels = highestPowerLevels.clone();
+        g.secondPowerLevels = secondPowerLevels.clone();
+        g.nodeCosts = nodeCosts.clone();
+        g.farthest = farthest.clone();
+        g.slotOfId = slotOfId.clone();
+        g.idBase = idBase;
+        g.freeSlots = freeSlots.clone();
+        g.freeCount = freeCount;
+        return g;
+    }
+
+    /**
+     *
+     * @param id
+     * @return
+     *      the slot of the node with the given id, or NO_SLOT if it isn't in the graph
+     */
+    public int slotOf(int id) {
+        int i = id - idBase;
+        if(idBase < 0 || i < 0 || i >= slotOfId.length)
+            return NO_SLOT;
+        return slotOfId[i];
+    }
+
+    public int idOf(int slot) {
+        return idOfSlot[slot];
+    }
+
+    public boolean isAlive(int slot) {
+        return idOfSlot[slot] != NO_ID;
+    }
+
+    /**
+     *
+     * @return
+     *      the number of slots, live nodes are spread over 0 ... size() - 1
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     *
+     * @return
+     *      the number of live nodes
+     */
+    public int nodeCount() {
+        return count;
+    }
+
+    public double getX(int slot) {
+        return x[slot];
+    }
+
+    public double getY(int slot) {
+        return y[slot];
+    }
+
+    public boolean isDestination(int slot) {
+        return destination[slot];
+    }
+
+    public int degree(int slot) {
+        return degrees[slot];
+    }
+
+    /**
+     *
+     * @param slot
+     * @param i
+     * @return
+     *      the slot of the i-th neighbor of slot
+     */
+    public int neighbor(int slot, int i) {
+        return targets[offsets[slot] + i];
+    }
+
+    /**
+     * Adds a node, recycling a free slot if there is one
+     * @param id
+     *      the node id
+     * @return
+     *      the slot of the new node
+     */
+    int addNode(int id, double x, double y, boolean isDestination) {
+        int slot;
+        if(freeCount > 0)
+            slot = freeSlots[--freeCount];
+        else {
+            ensureSlotCapacity(size + 1);
+            slot = size++;
+        }
+
+        idOfSlot[slot] = id;
+        destination[slot] = isDestination;
+        this.x[slot] = x;
+        this.y[slot] = y;
+        degrees[slot] = 0;
+        highestPowerLevels[slot] = 0;
+        secondPowerLevels[slot] = 0;
+        nodeCosts[slot] = 0;
+        farthest[slot] = NO_SLOT;
+        count++;
+
+        mapId(id, slot);
+
+        return slot;
+    }
+
+    /**
+     * Removes a node, its links must have been removed from its neighbors beforehand
+     * @param slot
+     */
+    void removeNode(int slot) {
+        slotOfId[idOfSlot[slot] - idBase] = NO_SLOT;
+        idOfSlot[slot] = NO_ID;
+        wasted += capacities[slot];
+        degrees[slot] = 0;
+        capacities[slot] = 0;
+        nodeCosts[slot] = 0;
+        count--;
+
+        if(freeCount == freeSlots.length)
+            freeSlots = Arrays.copyOf(freeSlots, Math.max(16, freeCount*2));
+        freeSlots[freeCount++] = slot;
+
+        compactIfWasteful();
+    }
+
+    /**
+     * Grows the graph to size slots, the new slots are free
+     * @param size
+     */
+    void ensureSize(int size) {
+        if(size <= this.size)
+            return;
+        ensureSlotCapacity(size);
+        for(int s = this.size; s < size; s++) {
+            idOfSlot[s] = NO_ID;
+            degrees[s] = 0;
+            capacities[s] = 0;
+            if(freeCount == freeSlots.length)
+                freeSlots = Arrays.copyOf(freeSlots, Math.max(16, freeCount*2));
+            freeSlots[freeCount++] = s;
+        }
+        this.size = size;
+    }
+
+    /**
+     * Puts a node with the given id in a free slot, used when an earlier state is restored
+     * @param slot
+     *      a free slot below size
+     * @param id
+     */
+    void claimSlot(int slot, int id) {
+        for(int i = 0; i < freeCount; i++)
+            if(freeSlots[i] == slot) {
+                freeSlots[i] = freeSlots[--freeCount];
+                break;
+            }
+
+        idOfSlot[slot] = id;
+        degrees[slot] = 0;
+        count++;
+        mapId(id, slot);
+    }
+
+    /**
+     * Replaces the neighbors of slot
+     * @param slot
+     * @param neighbors
+     *      slots
+     */
+    void setTargets(int slot, int[] neighbors) {
+        if(neighbors.length > capacities[slot]) {
+            ensureTargetCapacity(targetsEnd + neighbors.length);
+            offsets[slot] = targetsEnd;
+            targetsEnd += neighbors.length;
+            wasted += capacities[slot];
+            capacities[slot] = neighbors.length;
+        }
+        System.arraycopy(neighbors, 0, targets, offsets[slot], neighbors.length);
+        degrees[slot] = neighbors.length;
+
+        compactIfWasteful();
+    }
+
+    /**
+     * Appends target to the neighbor block of slot
+     */
+    void addTarget(int slot, int target) {
+        if(degrees[slot] == capacities[slot])
+            growBlock(slot);
+        targets[offsets[slot] + degrees[slot]++] = target;
+    }
+
+    /**
+     * Removes target from the neighbor block of slot, keeping the order of the remaining neighbors
+     * @return
+     *      true if target was a neighbor
+     */
+    boolean removeTarget(int slot, int target) {
+        int start = offsets[slot];
+        int end = start + degrees[slot];
+        for(int i = start; i < end; i++)
+            if(targets[i] == target) {
+                System.arraycopy(targets, i + 1, targets, i, end - i - 1);
+                degrees[slot]--;
+                return true;
+            }
+        return false;
+    }
+
+    boolean hasTarget(int slot, int target) {
+        int start = offsets[slot];
+        int end = start + degrees[slot];
+        for(int i = start; i < end; i++)
+            if(targets[i] == target)
+                return true;
+        return false;
+    }
+
+    /**
+     * Resets the computed values (power levels and cost) of a slot
+     */
+    void resetData(int slot) {
+        highestPowerLevels[slot] = 0;
+        secondPowerLevels[slot] = 0;
+        nodeCosts[slot] = 0;
+        farthest[slot] = NO_SLOT;
+    }
+
+    /**
+     * Moves the block of slot to the end of targets with twice the capacity,
+     * or grows it in place if it already is the last block.
+     */
+    private void growBlock(int slot) {
+        int oldCapacity = capacities[slot];
+        int newCapacity = Math.max(MIN_BLOCK_CAPACITY, oldCapacity*2);
+
+        if(offsets[slot] + oldCapacity == targetsEnd && oldCapacity > 0) { // last block, grow in place
+            ensureTargetCapacity(offsets[slot] + newCapacity);
+            targetsEnd = offsets[slot] + newCapacity;
+        }
+        else {
+            ensureTargetCapacity(targetsEnd + newCapacity);
+            System.arraycopy(targets, offsets[slot], targets, targetsEnd, degrees[slot]);
+            offsets[slot] = targetsEnd;
+            targetsEnd += newCapacity;
+            wasted += oldCapacity;
+        }
+        capacities[slot] = newCapacity;
+
+        compactIfWasteful();
+    }
+
+    /**
+     * Repacks targets so that it only contains the live blocks, once more than half of it is unused
+     */
+    private void compactIfWasteful() {
+        if(wasted < MIN_COMPACTION_WASTE || wasted < targetsEnd/2)
+            return;
+
+        int[] packed = new int[Math.max(16, targetsEnd - wasted)];
+        int end = 0;
+        for(int s = 0; s < size; s++) {
+            System.arraycopy(targets, offsets[s], packed, end, degrees[s]);
+            offsets[s] = end;
+            capacities[s] = degrees[s];
+            end += degrees[s];
+        }
+        targets = packed;
+        targetsEnd = end;
+        wasted = 0;
+    }
+
+    private void ensureTargetCapacity(int required) {
+        if(required > targets.length)
+            targets = Arrays.copyOf(targets, Math.max(required, targets.length + (targets.length >> 1)));
+    }
+
+    private void ensureSlotCapacity(int required) {
+        if(required <= idOfSlot.length)
+            return;
+
+        int capacity = Math.max(required, idOfSlot.length + (idOfSlot.length >> 1));
+        idOfSlot = Arrays.copyOf(idOfSlot, capacity);
+        destination = Arrays.copyOf(destination, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        offsets = Arrays.copyOf(offsets, capacity);
+        degrees = Arrays.copyOf(degrees, capacity);
+        capacities = Arrays.copyOf(capacities, capacity);
+        highestPowerLevels = Arrays.copyOf(highestPowerLevels, capacity);
+        secondPowerLevels = Arrays.copyOf(secondPowerLevels, capacity);
+        nodeCosts = Arrays.copyOf(nodeCosts, capacity);
+        int length = farthest.length;
+        farthest = Arrays.copyOf(farthest, capacity);
+        Arrays.fill(farthest, length, capacity, NO_SLOT);
+    }
+
+    private void mapId(int id, int slot) {
+        if(idBase < 0)
+            idBase = id;
+
+        int i = id - idBase;
+        if(i >= slotOfId.length) {
+            int length = slotOfId.length;
+            slotOfId = Arrays.copyOf(slotOfId, Math.max(i + 1, length + (length >> 1)));
+            Arrays.fill(slotOfId, length, slotOfId.length, NO_SLOT);
+        }
+        slotOfId[i] = slot;
+    }
+}
@@ -27,6 +27,11 @@ public class SMTLink {
         return "[Link: " + id1 + "<---->" + id2 + "]";
     }
 
+    @Override // symmetric, like equals
+    public int hashCode() {
+        return Math.min(id1, id2)*31 + Math.max(id1, id2);
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj)
@@ -3,41 +3,30 @@ package model;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * A node of a SharedMulticastTree. The node itself holds no data, it is a view on the
+ * slot of its id in the SMTGraph of the tree, so it's cheap to hand out to the GUI.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
 public abstract class SMTNode {
 
     private int sortingId; // Used when finding subtree
 
     public final int id;
-	private double highestPowerLevel, lowestPowerLevel;
-	private double nodeCost;
-	private double x, y;
-
 	public final boolean isDestination;
-	private List<Integer> neighborsWithinRange;
-	private List<SMTLink> allLinks = new ArrayList<SMTLink>(); // this is implicit in neighbors, but it's a way to
-	                                                     // store the results instead of having a huge structure in the GUI
 
-	private boolean linksAreUpdated = false; // a node might have 0 links so isEmpty/null checking isn't sufficent
+	private final SMTGraph graph;
 
 	/**
-	 * Resets data on this node (cost, highest and second highest power level), and recalculates links
+	 * Resets data on this node (cost, highest and second highest power level)
 	 */
 	void resetData() {
-	    this.nodeCost = 0;
-	    this.highestPowerLevel = 0;
-	    this.lowestPowerLevel = 0;
-	    allLinks.clear();
-	    updateLinks();
+	    graph.resetData(slot());
     }
 
-	private void updateLinks() {
-        linksAreUpdated = false;
-        this.getAllLinks(); // recalculates
-	}
-
 	public void checkState() {
-	    assert neighborsWithinRange != null;
-	    assert allLinks != null;
+	    assert graph.slotOf(id) != SMTGraph.NO_SLOT;
 	}
 
 	/**
@@ -46,35 +35,29 @@ public abstract class SMTNode {
 	 *     all the links
 	 */
 	public List<SMTLink> getAllLinks() {
-	    if(!linksAreUpdated) {
-	        for(Integer neighbor : neighborsWithinRange)
-	            allLinks.add(new SMTLink(this.id, neighbor));
-	        linksAreUpdated = true;
-	    }
+	    int slot = slot();
+	    int degree = graph.degrees[slot];
+
+	    List<SMTLink> allLinks = new ArrayList<SMTLink>(degree);
+	    for(int i = 0; i < degree; i++)
+	        allLinks.add(new SMTLink(this.id, graph.idOfSlot[graph.neighbor(slot, i)]));
 	    return allLinks;
 	}
 
 
 	/**
-	 * Initializes a new node
-	 * @param x
-	 *     the x-coordinate
-	 * @param y
-	 *     the y-coordinate
-	 * @param isDestination
-	 *     true if it's a destination
+	 * Initializes a new node view
+	 * @param graph
+	 *     the graph holding the node data
 	 * @param id
 	 *     the node id
+	 * @param isDestination
+	 *     true if it's a destination
 	 */
-	public SMTNode(double x, double y, boolean isDestination, int id) {
-	    this.x = x;
-	    this.y = y;
-
-	    this.isDestination = isDestination;
-
-	    allLinks = new ArrayList<SMTLink>();
-
+	SMTNode(SMTGraph graph, int id, boolean isDestination) {
+	    this.graph = graph;
 	    this.id = id;
+	    this.isDestination = isDestination;
 	}
 
 	/**
@@ -83,7 +66,7 @@ public abstract class SMTNode {
 	 *     a string representation of the nodes position in form (x,y)
 	 */
 	public String getPosition() {
-	    return "(" + x + ", " + y + ")";
+	    return "(" + getX() + ", " + getY() + ")";
 	}
 
 
@@ -96,7 +79,11 @@ public abstract class SMTNode {
 	 * @param neighborsWithinRange
 	 */
 	public void setNeighbors(List<Integer> neighborsWithinRange) {
-	    this.neighborsWithinRange = neighborsWithinRange;
+	    int slot = slot();
+	    while(graph.degrees[slot] > 0)
+	        graph.removeTarget(slot, graph.neighbor(slot, graph.degrees[slot] - 1));
+	    for(Integer neighborId : neighborsWithinRange)
+	        graph.addTarget(slot, graph.slotOf(neighborId));
 	}
 
 	/**
@@ -105,54 +92,41 @@ public abstract class SMTNode {
 	 *     the neighbours within range currently stored in this node
 	 */
 	List<Integer> getNeighboursWithinRange() {
-	    return this.neighborsWithinRange;
-	}
-
-	/**
-	 * Stores the power levels in the node
-	 * @param powerLevels
-	 *     the power levels, highest power level at index 0, next highest at index 1
-	 */
-	void setPowerLevels(double[] powerLevels) {
-	    highestPowerLevel = powerLevels[0];
-	    lowestPowerLevel = powerLevels[1];
-	}
+	    int slot = slot();
+	    int degree = graph.degrees[slot];
 
-	/**
-	 * Stores the node cost value in the node
-	 * @param nodeCost
-	 *     the node cost
-	 */
-	void setNodeCost(double nodeCost) {
-	    this.nodeCost = nodeCost;
+	    List<Integer> neighbors = new ArrayList<Integer>(degree);
+	    for(int i = 0; i < degree; i++)
+	        neighbors.add(graph.idOfSlot[graph.neighbor(slot, i)]);
+	    return neighbors;
 	}
 
 	public double getHighestPowerLevel() {
-        return this.highestPowerLevel;
+        return graph.highestPowerLevels[slot()];
     }
 
 	public double getSecondHighestPowerLevel() {
-        return this.lowestPowerLevel;
+        return graph.secondPowerLevels[slot()];
     }
 
 	public double getNodeCost() {
-	    return this.nodeCost;
+	    return graph.nodeCosts[slot()];
 	}
 
     public double getX() {
-        return x;
+        return graph.x[slot()];
     }
 
     public void setX(double x) {
-        this.x = x;
+        graph.x[slot()] = x;
     }
 
     public double getY() {
-        return y;
+        return graph.y[slot()];
     }
 
     public void setY(double y) {
-        this.y = y;
+        graph.y[slot()] = y;
     }
 
 
@@ -168,8 +142,7 @@ public abstract class SMTNode {
      *      the node
      */
     public void addNeighbor(int neighborId) {
-        neighborsWithinRange.add(neighborId);
-        linksAreUpdated = false;
+        graph.addTarget(slot(), graph.slotOf(neighborId));
     }
 
     /**
@@ -177,9 +150,8 @@ public abstract class SMTNode {
      * @param id
      *      the id
      */
-    public void removeNeighbor(Integer id) { // Integer so it calls remove(Object) and not remove(index)
-        neighborsWithinRange.remove(id);
-        linksAreUpdated = false;
+    public void removeNeighbor(Integer id) {
+        graph.removeTarget(slot(), graph.slotOf(id));
     }
 
     /**
@@ -190,8 +162,9 @@ public abstract class SMTNode {
      *      the new y coordinate
      */
     public void relocate(double x, double y) {
-        this.x = x;
-        this.y = y;
+        int slot = slot();
+        graph.x[slot] = x;
+        graph.y[slot] = y;
     }
 
     public int getSortingId() {
@@ -201,4 +174,13 @@ public abstract class SMTNode {
     public void setSortingId(int sortingId) {
         this.sortingId = sortingId;
     }
+
+    /**
+     *
+     * @return
+     *      the slot of this node in the graph
+     */
+    private int slot() {
+        return graph.slotOf(id);
+    }
 }
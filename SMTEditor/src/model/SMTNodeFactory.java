@@ -1,20 +1,27 @@
 package model;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public class SMTNodeFactory {
 
-    public static SMTNode newNode(double x, double y, boolean isDestination) {
+    /**
+     * Adds a new node to the graph, it is given the next id of the IdTracker
+     * @return
+     *      a view on the new node
+     */
+    public static SMTNode newNode(SMTGraph graph, double x, double y, boolean isDestination) {
         int id = IdTracker.getNewNodeId();
-        SMTNode node = isDestination ? new Destination(x, y, id) : new NonDestination(x, y, id);
+        graph.addNode(id, x, y, isDestination);
 
-        // When it's not a parsed node it needs an empty list to start out with
-        List<Integer> neighborList = new ArrayList<Integer>();
-        node.setNeighbors(neighborList);
+        SMTNode node = newView(graph, id, isDestination);
 
         node.checkState();
 
         return node;
     }
+
+    /**
+     * Creates a view on a node that is already in the graph
+     */
+    public static SMTNode newView(SMTGraph graph, int id, boolean isDestination) {
+        return isDestination ? new Destination(graph, id) : new NonDestination(graph, id);
+    }
 }
@@ -0,0 +1,237 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import model.OptimizationResult.Step;
+import model.OptimizationResult.StopReason;
+
+/**
+ * Improves a tree by edge exchange local search. A move adds a candidate link u-v, which closes a cycle,
+ * and removes another link of that cycle so the nodes form a tree again. All links of the cycle are tried
+ * and the best one is removed if that lowers the cost.
+ * <p>
+ * Moves are scored by an ExchangeEvaluator, from the power levels and subtree counts of the nodes on the cycle,
+ * without recalculating the tree.
+ * The candidate links are the nearest neighbors of every node, or the links of the Delaunay triangulation.
+ * The search stops at a local optimum,
+ * or when the time or iteration budget runs out, one iteration being one scored candidate link.
+ * <p>
+ * With a seed, the candidates are tried in a random order and the tree can be perturbed by random moves
+ * before the search starts, so runs with different seeds end in different local optima.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public class SMTOptimizer {
+
+    /**
+     * Follows the progress of a run
+     */
+    public interface Listener {
+
+        /**
+         * Called after every applied move, and every now and then in between
+         * @param iteration
+         * @param cost
+         *      the current cost of the tree
+         * @return
+         *      false to stop the run
+         */
+        boolean progress(long iteration, double cost);
+    }
+
+    public static final int DEFAULT_CANDIDATE_NEIGHBORS = 8;
+
+    private static final double IMPROVEMENT_EPSILON = 1e-12; // relative to the total cost, smaller gains are rounding noise
+    private static final int CLOCK_INTERVAL = 64; // iterations between two reads of the clock
+
+    private final SharedMulticastTree tree;
+    private long timeLimitMillis = Long.MAX_VALUE;
+    private long iterationLimit = Long.MAX_VALUE;
+    private int candidateNeighbors = DEFAULT_CANDIDATE_NEIGHBORS;
+    private boolean delaunayCandidates;
+    private SplittableRandom random; // null unless seeded
+    private int perturbationMoves;
+    private Listener listener;
+
+    private final ExchangeEvaluator evaluator;
+    private SMTGraph graph;
+
+    public SMTOptimizer(SharedMulticastTree tree) {
+        this.tree = tree;
+        this.evaluator = new ExchangeEvaluator(tree);
+    }
+
+    public void setTimeLimit(long millis) throws IllegalArgumentException {
+        if(millis <= 0)
+            throw new IllegalArgumentException("Time limit must be positive, millis = " + millis);
+        this.timeLimitMillis = millis;
+    }
+
+    public void setIterationLimit(long iterations) throws IllegalArgumentException {
+        if(iterations <= 0)
+            throw new IllegalArgumentException("Iteration limit must be positive, iterations = " + iterations);
+        this.iterationLimit = iterations;
+    }
+
+    /**
+     * Sets how many of its nearest nodes every node may be linked to by a move
+     * @param k
+     */
+    public void setCandidateNeighbors(int k) throws IllegalArgumentException {
+        if(k <= 0)
+            throw new IllegalArgumentException("Number of candidate neighbors must be positive, k = " + k);
+        this.candidateNeighbors = k;
+    }
+
+    /**
+     * Uses the links of the Delaunay triangulation as candidates instead of the nearest neighbors
+     * @param delaunay
+     */
+    public void setDelaunayCandidates(boolean delaunay) {
+        this.delaunayCandidates = delaunay;
+    }
+
+    /**
+     * Tries the candidate links in a random order decided by the seed
+     * @param seed
+     */
+    public void setSeed(long seed) {
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Sets the number of random moves applied before the search, these need a seed.
+     * The initial cost of the result is the cost after them.
+     * @param moves
+     */
+    public void setPerturbationMoves(int moves) throws IllegalArgumentException {
+        if(moves < 0)
+            throw new IllegalArgumentException("Number of perturbation moves can't be negative, moves = " + moves);
+        this.perturbationMoves = moves;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Runs the local search on the tree, the tree is modified in place
+     * @return
+     *      the result, with the cost after every applied move
+     * @throws IllegalArgumentException
+     *      if the links contain a cycle
+     */
+    public OptimizationResult optimize() throws IllegalArgumentException {
+        long start = System.nanoTime();
+        long timeLimitNanos = timeLimitMillis >= Long.MAX_VALUE/1000000 ? Long.MAX_VALUE : timeLimitMillis*1000000;
+
+        evaluator.start();
+        graph = evaluator.graph();
+
+        int[] candidates = delaunayCandidates ? CandidateLinks.delaunay(graph) : CandidateLinks.nearest(graph, candidateNeighbors);
+        if(random != null) {
+            shuffle(candidates);
+            perturb(candidates);
+        }
+
+        double initialCost = tree.getCost();
+        List<Step> trajectory = new ArrayList<Step>();
+        trajectory.add(new Step(0, 0, initialCost));
+
+        long iterations = 0;
+        long moves = 0;
+        StopReason stopReason = StopReason.LOCAL_OPTIMUM;
+
+        boolean improved = true;
+        search:
+        while(improved) {
+            improved = false;
+            for(int c = 0; c < candidates.length; c += 2) {
+                if(iterations == iterationLimit) {
+                    stopReason = StopReason.ITERATION_LIMIT;
+                    break search;
+                }
+                if(iterations % CLOCK_INTERVAL == 0) {
+                    if(System.nanoTime() - start >= timeLimitNanos) {
+                        stopReason = StopReason.TIME_LIMIT;
+                        break search;
+                    }
+                    if(listener != null && !listener.progress(iterations, tree.getCost())) {
+                        stopReason = StopReason.CANCELLED;
+                        break search;
+                    }
+                }
+
+                int u = candidates[c];
+                int v = candidates[c + 1];
+                if(graph.hasTarget(u, v))
+                    continue;
+
+                iterations++;
+                if(!evaluator.prepare(u, v))
+                    continue;
+
+                double best = 0;
+                int bestCut = -1;
+                for(int i = 0; i < evaluator.cuts(); i++) {
+                    double delta = evaluator.delta(i);
+                    if(delta < best) {
+                        best = delta;
+                        bestCut = i;
+                    }
+                }
+
+                if(bestCut >= 0 && best < -IMPROVEMENT_EPSILON*Math.max(1, Math.abs(tree.getCost()))) {
+                    evaluator.apply(bestCut);
+                    moves++;
+                    improved = true;
+                    trajectory.add(new Step(System.nanoTime() - start, iterations, tree.getCost()));
+                    if(listener != null && !listener.progress(iterations, tree.getCost())) {
+                        stopReason = StopReason.CANCELLED;
+                        break search;
+                    }
+                }
+            }
+        }
+
+        return new OptimizationResult(initialCost, tree.getCost(), iterations, moves, System.nanoTime() - start,
+                stopReason, trajectory);
+    }
+
+    /**
+     * Shuffles the candidate pairs
+     */
+    private void shuffle(int[] candidates) {
+        for(int i = candidates.length/2 - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int u = candidates[2*i];
+            int v = candidates[2*i + 1];
+            candidates[2*i] = candidates[2*j];
+            candidates[2*i + 1] = candidates[2*j + 1];
+            candidates[2*j] = u;
+            candidates[2*j + 1] = v;
+        }
+    }
+
+    /**
+     * Applies perturbationMoves random moves, each adding a random candidate link and removing a random link
+     * of the cycle it closes
+     */
+    private void perturb(int[] candidates) {
+        if(candidates.length == 0)
+            return;
+
+        for(int m = 0; m < perturbationMoves; m++) {
+            int c = 2*random.nextInt(candidates.length/2);
+            int u = candidates[c];
+            int v = candidates[c + 1];
+            if(graph.hasTarget(u, v) || !evaluator.prepare(u, v))
+                continue;
+
+            evaluator.apply(random.nextInt(evaluator.cuts()));
+        }
+    }
+}
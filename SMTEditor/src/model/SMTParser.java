@@ -5,7 +5,9 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import javafx.geometry.Point2D;
 
@@ -16,25 +18,106 @@ import javafx.geometry.Point2D;
  */
 public class SMTParser {
 
-    private static int numNodes;
-    private static int numDestinations;
-    private static List<Point2D> nodes;
-    private static List<List<Integer>> neighbors;
-    private static boolean cacheIsEmpty = true;
+    private static volatile Contents cache; // the last file parsed by parseFromFile
+
+    /**
+     * How a file is read
+     */
+    public enum Mode {
+        READER, // line by line through a BufferedReader
+        MAPPED, // the bytes of a memory-mapped file are scanned in place, see MappedTextParser
+        PARALLEL // like MAPPED, large files are parsed in chunks on the common ForkJoinPool
+    }
+
+    /**
+     * The contents of a file, read but not yet made into a tree. The neighbors of node i are
+     * targets[offsets[i]] ... targets[offsets[i + 1] - 1].
+     */
+    static final class Contents {
+
+        final double[] x, y;
+        final int[] offsets, targets; // null if the file has coordinates only
+        final int numDestinations;
+
+        Contents(double[] x, double[] y, int[] offsets, int[] targets, int numDestinations) {
+            this.x = x;
+            this.y = y;
+            this.offsets = offsets;
+            this.targets = targets;
+            this.numDestinations = numDestinations;
+        }
+
+        int nodeCount() {
+            return x.length;
+        }
+
+        /**
+         * A tree over copies of the arrays, the tree takes over the arrays it's given
+         */
+        SharedMulticastTree newTree() {
+            if(offsets == null) // coordinates only
+                return SMTTreeBuilder.minimumSpanningTree(x.clone(), y.clone(), numDestinations);
+            return new SharedMulticastTree(x.clone(), y.clone(), numDestinations, offsets.clone(), targets.clone());
+        }
+    }
 
     /**
      * Parses a SharedMulticastTree from the file. After parsing it, if no new tree is parsed,
      * the data will be cached here. It can be cleared by calling clear(), and retrieved by calling
-     * getCachedTree()
+     * getCachedTree(). A file that ends after the coordinates gets a tree built by SMTTreeBuilder.
      * @param file
      *      the file
      * @return
+     *      the tree, null if the file couldn't be read
+     * @throws IllegalArgumentException
+     *      if the file isn't as expected
+     */
+    public static SharedMulticastTree parseFromFile(File file) throws IllegalArgumentException {
+        long start = Metrics.start();
+        Contents contents;
+        try {
+            contents = readFile(file, Mode.READER);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        cache = contents;
+        SharedMulticastTree tree = contents.newTree();
+        Metrics.lap(Metrics.Phase.PARSE, start);
+        Metrics.count(Metrics.Counter.PARSED_NODES, contents.nodeCount());
+        return tree;
+    }
+
+    /**
+     * Parses a SharedMulticastTree from the file, like parseFromFile but without touching the cache,
+     * so several files can be parsed at the same time on different threads
+     * @param file
+     * @return
      *      the tree
+     * @throws IOException
+     *      if the file couldn't be read
+     * @throws IllegalArgumentException
+     *      if the file isn't as expected
+     */
+    public static SharedMulticastTree parse(File file) throws IOException, IllegalArgumentException {
+        return parse(file, Mode.READER);
+    }
+
+    /**
+     * Like parse(File), read in the given mode. MAPPED is much faster on large files, and PARALLEL faster
+     * still on several cores, but the file stays mapped until the garbage collector gets to it, on some
+     * systems it can't be replaced until then.
+     * @param file
+     * @param mode
+     * @return
+     *      the tree
+     * @throws IOException
+     *      if the file couldn't be read
+     * @throws IllegalArgumentException
+     *      if the file isn't as expected
      */
-    public static SharedMulticastTree parseFromFile(File file) {
-        readFile(file);
-        cacheIsEmpty = false;
-        return new SharedMulticastTree(nodes, neighbors, numDestinations);
+    public static SharedMulticastTree parse(File file, Mode mode) throws IOException, IllegalArgumentException {
+        return readFile(file, mode).newTree();
     }
 
     /**
@@ -44,32 +127,39 @@ public class SMTParser {
      *      tree is cached currently //TODO Make some standard tree data to always return instead of null
      */
     public static SharedMulticastTree getCachedTree() {
-        if(cacheIsEmpty)
+        Contents contents = cache;
+        if(contents == null)
             return null;
-        return new SharedMulticastTree(nodes, neighbors, numDestinations);
+        return contents.newTree();
     }
 
     /**
      * Clears all cached data
      */
     public static void clear() {
-        numNodes = 0;
-        numDestinations = 0;
-        nodes = null;
-        neighbors = null;
-        cacheIsEmpty = true;
+        cache = null;
     }
 
     /**
-     * Reads in a file representing a tree
+     * Reads in a file representing a tree, only local state is used so it can run on any thread
      * @param file
      *      the file
+     * @param mode
+     * @return
+     *      the contents of the file
+     * @throws IOException
+     *      if the file couldn't be read
      * @throws IllegalArgumentException
      *      if the file isn't as expected
      */
-    private static void readFile(File file) throws IllegalArgumentException{
+    static Contents readFile(File file, Mode mode) throws IOException, IllegalArgumentException {
+        if(mode == Mode.MAPPED)
+            return MappedTextParser.parse(file);
+        if(mode == Mode.PARALLEL)
+            return MappedTextParser.parse(file, ForkJoinPool.commonPool());
+
+        BufferedReader reader = new BufferedReader(new FileReader(file));
         try {
-            BufferedReader reader = new BufferedReader(new FileReader(file));
             String line;
 
             // Get to start delimiter
@@ -79,45 +169,54 @@ public class SMTParser {
             }
 
             // Read in num nodes, num destinations, 2 lines
-            line = reader.readLine();
-            numNodes = Integer.parseInt(line);
-            line = reader.readLine();
-            numDestinations = Integer.parseInt(line);
+            int numNodes = Integer.parseInt(nextLine(reader).trim());
+            int numDestinations = Integer.parseInt(nextLine(reader).trim());
+            if(numNodes < 0)
+                throw new IllegalArgumentException("Number of nodes can't be negative, numNodes = " + numNodes);
 
             // Read in coordinates
-            List<Point2D> coordinates = new ArrayList<Point2D>();
+            double[] x = new double[numNodes];
+            double[] y = new double[numNodes];
             for(int i = 0; i < numNodes; i++) {
-                line = reader.readLine();
-                coordinates.add(parseCoordinate(line));
+                Point2D coordinate = parseCoordinate(nextLine(reader));
+                x[i] = coordinate.getX();
+                y[i] = coordinate.getY();
             }
 
-            // Expecting a delimiter now...
+            // Expecting a delimiter now, or the end of a file with coordinates only
             line = reader.readLine();
-            if(line.equals(Delimiters.NEIGHBORS_START.getStringValue())) {
-                reader.close();
+            if(line == null || line.trim().isEmpty())
+                return new Contents(x, y, null, null, numDestinations);
+            if(!line.equals(Delimiters.NEIGHBORS_START.getStringValue()))
                 throw new IllegalArgumentException("Expected delimiter " +
                 Delimiters.NEIGHBORS_START.getStringValue() + ", got " + line);
-            }
 
             // Read in neighbors
-            List<List<Integer>> links = new ArrayList<List<Integer>>();
+            int[] offsets = new int[numNodes + 1];
+            int[] targets = new int[Math.max(16, 2*numNodes)];
             for(int i = 0; i < numNodes; i++) {
-                line = reader.readLine();
-                links.add(parseNeighborList(line));
+                List<Integer> neighbors = parseNeighborList(nextLine(reader));
+                offsets[i + 1] = offsets[i] + neighbors.size();
+                if(offsets[i + 1] > targets.length)
+                    targets = Arrays.copyOf(targets, Math.max(offsets[i + 1], targets.length*2));
+                for(int k = 0; k < neighbors.size(); k++)
+                    targets[offsets[i] + k] = neighbors.get(k);
             }
 
-            neighbors = links;
-
             // done
-
+            return new Contents(x, y, offsets, targets, numDestinations);
+        } finally {
             reader.close();
-
-        } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
         }
     }
 
+    private static String nextLine(BufferedReader reader) throws IOException, IllegalArgumentException {
+        String line = reader.readLine();
+        if(line == null)
+            throw new IllegalArgumentException("Unexpected end of file");
+        return line;
+    }
+
     /**
      * Parses a stringrep of a neighbor list in the form:<p>
      * <b> nodeIndex | neighborIndex1 neighborIndex2 (...) neighborIndexN</b>
@@ -127,12 +226,12 @@ public class SMTParser {
      */
     private static List<Integer> parseNeighborList(String str) {
         //1. Split off the index at the left
-        str.split("|");
-        str.trim();
-        String[] neighborsStr = str.split(" ");
-
+        str = str.substring(str.indexOf('|') + 1).trim();
         List<Integer> neighbors = new ArrayList<Integer>();
+        if(str.isEmpty())
+            return neighbors;
 
+        String[] neighborsStr = str.split("\\s+");
         for(String s : neighborsStr)
             neighbors.add(Integer.parseInt(s));
 
@@ -147,14 +246,13 @@ public class SMTParser {
      */
     private static Point2D parseCoordinate(String string) {
 
-        string.trim();
-        String[] coordsStr = string.split(" ");
+        String[] coordsStr = string.trim().split("\\s+");
         Point2D coordinate = new Point2D(Double.parseDouble(coordsStr[0]), Double.parseDouble(coordsStr[1]));
 
         return coordinate;
     }
 
-    private enum Delimiters {
+    enum Delimiters {
         START("---------"),
         NEIGHBORS_START("----------------");
 
@@ -0,0 +1,213 @@
+package model;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javafx.geometry.Point2D;
+
+/**
+ * Builds an initial tree from coordinates alone, for files and deployments without neighbor lists.
+ * <p>
+ * The tree is a Euclidean minimum spanning tree over the links of the Delaunay triangulation of the nodes,
+ * which contain it. Kruskal's algorithm picks the links. Should the candidate graph not be connected,
+ * a SpatialGrid adds links between its components until it is.
+ * Finally non-destination leaves are pruned, repeatedly, as they only add cost. Nodes left without links
+ * stay in the tree.
+ * <p>
+ * Everything runs in O(n log n), dominated by sorting the candidate links.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public class SMTTreeBuilder {
+
+    private SMTTreeBuilder() {
+    }
+
+    /**
+     * Builds a tree over nodes, with the same arguments as the SharedMulticastTree constructor minus the links
+     * @param nodes
+     *     the list of nodes, destinations placed before non-destinations
+     * @param numberOfDestinations
+     *     number of destinations
+     * @return
+     *     the tree, recalculated
+     */
+    public static SharedMulticastTree minimumSpanningTree(List<Point2D> nodes, int numberOfDestinations) throws IllegalArgumentException {
+        int n = nodes.size();
+        double[] x = new double[n];
+        double[] y = new double[n];
+
+        int i = 0;
+        for(Point2D p : nodes) {
+            x[i] = p.getX();
+            y[i++] = p.getY();
+        }
+
+        return minimumSpanningTree(x, y, numberOfDestinations);
+    }
+
+    /**
+     * Builds a tree over the nodes, the arrays are taken over by the tree
+     * @param x
+     *     the x-coordinates, destinations placed before non-destinations
+     * @param y
+     *     the y-coordinates
+     * @param numberOfDestinations
+     *     number of destinations
+     * @return
+     *     the tree, recalculated
+     */
+    public static SharedMulticastTree minimumSpanningTree(double[] x, double[] y, int numberOfDestinations) throws IllegalArgumentException {
+        int n = x.length;
+        if(y.length != n)
+            throw new IllegalArgumentException("Coordinates must be of same length, x.length = " + n + ", y.length = " + y.length);
+        if(numberOfDestinations < 0 || numberOfDestinations > n)
+            throw new IllegalArgumentException("Number of destination = " + numberOfDestinations + ", number of nodes = " + n);
+
+        int[] links = minimumSpanningLinks(x, y);
+        int linkCount = links.length/2;
+
+        int[] degrees = new int[n];
+        for(int i = 0; i < 2*linkCount; i++)
+            degrees[links[i]]++;
+        boolean[] pruned = prune(links, linkCount, degrees, numberOfDestinations);
+
+        // Neighbor lists of the remaining links
+        int[] offsets = new int[n + 1];
+        for(int i = 0; i < n; i++)
+            offsets[i + 1] = offsets[i] + (pruned[i] ? 0 : degrees[i]);
+        int[] targets = new int[offsets[n]];
+        int[] fill = Arrays.copyOf(offsets, n);
+        for(int l = 0; l < linkCount; l++) {
+            int u = links[2*l];
+            int v = links[2*l + 1];
+            if(pruned[u] || pruned[v])
+                continue;
+            targets[fill[u]++] = v;
+            targets[fill[v]++] = u;
+        }
+
+        return new SharedMulticastTree(x, y, numberOfDestinations, offsets, targets);
+    }
+
+    /**
+     * The links of the Euclidean minimum spanning tree of the nodes, before any pruning
+     * @param x
+     * @param y
+     * @return
+     *     the links, index pairs
+     */
+    static int[] minimumSpanningLinks(double[] x, double[] y) {
+        int n = x.length;
+        SMTGraph graph = SMTGraph.fromArrays(x, y, 0, new int[n + 1], new int[0], 0);
+        return kruskal(graph, DelaunayTriangulation.edges(graph), n);
+    }
+
+    /**
+     * Picks the minimum spanning forest of the candidate links, then connects its components with
+     * SpatialGrid.bridges and picks again
+     * @return
+     *     the links of the tree, slot pairs
+     */
+    private static int[] kruskal(SMTGraph graph, int[] candidates, int n) {
+        int[] parent = new int[n];
+        for(int i = 0; i < n; i++)
+            parent[i] = i;
+        int[] links = new int[2*Math.max(0, n - 1)];
+        int linkCount = pick(graph, candidates, parent, links, 0);
+
+        if(linkCount < n - 1) {
+            int[] components = new int[n];
+            for(int i = 0; i < n; i++)
+                components[i] = find(parent, i);
+            linkCount = pick(graph, SpatialGrid.build(graph).bridges(components), parent, links, linkCount);
+        }
+
+        return Arrays.copyOf(links, 2*linkCount);
+    }
+
+    /**
+     * Adds the candidate links joining two components of the forest, shortest first
+     * @return
+     *     the number of links of the forest afterwards
+     */
+    private static int pick(SMTGraph graph, int[] candidates, int[] parent, int[] links, int linkCount) {
+        // Sort by the squared length, rounded to a float so the length and the candidate index fit in one long.
+        // Floats round monotonically, the order only changes between links of nearly equal length.
+        int m = candidates.length/2;
+        long[] order = new long[m];
+        for(int c = 0; c < m; c++) {
+            int u = candidates[2*c];
+            int v = candidates[2*c + 1];
+            float length = (float) Geometry.distanceSquared(graph.x[u], graph.y[u], graph.x[v], graph.y[v]);
+            order[c] = (long) Float.floatToIntBits(length) << 32 | c;
+        }
+        Arrays.parallelSort(order);
+
+        for(int i = 0; i < m && 2*linkCount < links.length; i++) {
+            int c = (int) order[i];
+            int u = candidates[2*c];
+            int v = candidates[2*c + 1];
+            int ru = find(parent, u);
+            int rv = find(parent, v);
+            if(ru == rv)
+                continue;
+
+            parent[ru] = rv;
+            links[2*linkCount] = u;
+            links[2*linkCount + 1] = v;
+            linkCount++;
+        }
+        return linkCount;
+    }
+
+    private static int find(int[] parent, int i) {
+        while(parent[i] != i) {
+            parent[i] = parent[parent[i]]; // path halving
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Prunes non-destination leaves until none are left
+     * @return
+     *     the pruned nodes, degrees is updated
+     */
+    private static boolean[] prune(int[] links, int linkCount, int[] degrees, int numberOfDestinations) {
+        int n = degrees.length;
+
+        // Neighbor lists, a pruned leaf must find its only remaining neighbor
+        int[] offsets = new int[n + 1];
+        for(int i = 0; i < n; i++)
+            offsets[i + 1] = offsets[i] + degrees[i];
+        int[] targets = new int[offsets[n]];
+        int[] fill = Arrays.copyOf(offsets, n);
+        for(int l = 0; l < linkCount; l++) {
+            targets[fill[links[2*l]]++] = links[2*l + 1];
+            targets[fill[links[2*l + 1]]++] = links[2*l];
+        }
+
+        boolean[] pruned = new boolean[n];
+        int[] stack = new int[n];
+        int top = 0;
+        for(int i = numberOfDestinations; i < n; i++)
+            if(degrees[i] <= 1)
+                stack[top++] = i;
+
+        while(top > 0) {
+            int leaf = stack[--top];
+            pruned[leaf] = true;
+            for(int i = offsets[leaf]; i < offsets[leaf + 1]; i++) {
+                int neighbor = targets[i];
+                if(pruned[neighbor])
+                    continue;
+                degrees[neighbor]--;
+                if(neighbor >= numberOfDestinations && degrees[neighbor] == 1)
+                    stack[top++] = neighbor;
+            }
+        }
+
+        return pruned;
+    }
+}
@@ -1,13 +1,21 @@
 package model;
 
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 import javafx.geometry.Point2D;
+import model.Metrics.Counter;
+import model.Metrics.Phase;
 
 @SuppressWarnings("unused")
 /**
@@ -17,9 +25,29 @@ import javafx.geometry.Point2D;
  */
 public class SharedMulticastTree {
 
-	private HashMap<Integer, SMTNode> nodes;
+	static final int PARALLEL_THRESHOLD = 1 << 14; // below this many nodes the parallel recalculation runs sequentially
+	static final int PARALLEL_CHUNK_SIZE = 1 << 11;
+	static final int POWER_LEVEL_BATCH = 1 << 8; // slots whose power levels are handed to the cost model at once
+
+	private SMTGraph graph;
+	private SMTNode[] views; // created lazily, a view is only made when the GUI asks for a node
 	private double cost;
-	private Set<SMTLink> distinctLinks;
+	private CostModel costModel = EuclideanCostModel.INSTANCE;
+	private DirtySet dirty; // nodes whose power levels and cost must be refreshed by recalculateIncremental()
+	private boolean structureChanged; // links or nodes were added or removed since the subtree counts were computed
+	private SubtreeCounts counts;
+	private EulerTourIndex subtreeIndex; // built on the first destinationsBehind call, kept up to date by the edits afterwards
+	private SpatialGrid spatialIndex; // built on the first getSpatialIndex call, kept up to date by the node edits afterwards
+	private Connectivity connectivity; // built on the first connectivity query, dropped when a link is removed
+	private final int[] mostDistant = new int[2]; // scratch space for the sequential recalculations
+	private final double[] squaredDistances = new double[2];
+	private int[] cyclePath = new int[16]; // scratch space for exchangeLink
+	private long version; // counts the recalculations, the cost aggregates belong to one of them
+	private volatile CostAggregates aggregates; // built on the first what-if query after a recalculation
+	private TreeSnapshot snapshot; // the last one taken or restored
+	private DirtySet journal; // slots whose position, links or power levels changed since that snapshot
+	private boolean journalAll = true; // every slot changed, or no snapshot was taken yet
+	private volatile TreeSnapshot published; // the snapshot background readers get
 
 	/**
 	 * Initializes a SMT
@@ -27,6 +55,7 @@ public class SharedMulticastTree {
 	 *     the list of nodes, destinations placed before non-destinations
 	 * @param links
 	 *     the list of the nodes neighbor lists, must be of same length as nodes and correspond to the nodes list.
+	 *     The neighbors are given as indexes into the nodes list.
 	 * @param numberOfDestinations
 	 *     number of destinations
 	 */
@@ -34,40 +63,106 @@ public class SharedMulticastTree {
 	    if(nodes.size() != links.size())
 	        throw new IllegalArgumentException("Amount of nodes and amount of neighbor lists must be of same length, nodes.size() = " + nodes.size() + ", links.size() = " + links.size());
 
-	    if(numberOfDestinations > nodes.size())
-	        throw new IllegalArgumentException("Number of destination = " + numberOfDestinations + ", number of nodes = " + nodes.size());
+	    int n = nodes.size();
+	    double[] x = new double[n];
+	    double[] y = new double[n];
+	    int[] offsets = new int[n + 1];
+
+	    int i = 0;
+	    for(Point2D p : nodes) { // Convert the coordinates into primitive arrays
+	        x[i] = p.getX();
+	        y[i++] = p.getY();
+	    }
+
+	    i = 0;
+	    for(List<Integer> neighbors : links) {
+	        offsets[i + 1] = offsets[i] + neighbors.size();
+	        i++;
+	    }
+
+	    int[] targets = new int[offsets[n]];
+	    i = 0;
+	    for(List<Integer> neighbors : links)
+	        for(Integer neighbor : neighbors)
+	            targets[i++] = neighbor;
+
+	    init(x, y, numberOfDestinations, offsets, targets);
+	}
+
+	/**
+	 * Initializes a SMT from primitive arrays, the neighbors of node i are
+	 * targets[offsets[i]] ... targets[offsets[i + 1] - 1]. The arrays are taken over by the tree.
+	 * @param x
+	 *     the x-coordinates, destinations placed before non-destinations
+	 * @param y
+	 *     the y-coordinates
+	 * @param numberOfDestinations
+	 *     number of destinations
+	 * @param offsets
+	 *     neighbor list offsets, of length x.length + 1
+	 * @param targets
+	 *     neighbor indexes
+	 */
+	public SharedMulticastTree(double[] x, double[] y, int numberOfDestinations, int[] offsets, int[] targets) throws IllegalArgumentException {
+	    init(x, y, numberOfDestinations, offsets, targets);
+	}
 
-		this.nodes = new HashMap<Integer, SMTNode>();
+	/**
+	 * Initializes a SMT over a copy of a graph
+	 * @param graph
+	 * @param costModel
+	 */
+	private SharedMulticastTree(SMTGraph graph, CostModel costModel) {
+	    this.graph = graph.copy();
+	    this.costModel = costModel;
+	    views = new SMTNode[Math.max(graph.size, 16)];
+	    dirty = new DirtySet(graph.size);
+	    journal = new DirtySet(graph.size);
+	    counts = new SubtreeCounts(graph.size);
+
+	    recalculate();
+	}
 
-		int i = 0;
-		for(Point2D p : nodes) { // Convert the coordinates into nodes
-		    SMTNode newNode = SMTNodeFactory.newNode(p.getX(), p.getY(), i++ < numberOfDestinations);
-		    this.nodes.put(newNode.id, newNode);
-		}
+	private void init(double[] x, double[] y, int numberOfDestinations, int[] offsets, int[] targets) {
+	    int n = x.length;
+	    if(y.length != n || offsets.length != n + 1)
+	        throw new IllegalArgumentException("Coordinates and neighbor lists must be of same length, x.length = " + n + ", y.length = " + y.length + ", offsets.length = " + offsets.length);
 
-		i = 0; // Add neighbor lists to the nodes
-		for(SMTNode n : this.nodes.values()) {
-		    n.setNeighbors(links.get(i++));
-		}
+	    if(numberOfDestinations > n)
+	        throw new IllegalArgumentException("Number of destination = " + numberOfDestinations + ", number of nodes = " + n);
 
-		distinctLinks = new HashSet<SMTLink>();
+	    for(int i = 0; i < offsets[n]; i++)
+	        if(targets[i] < 0 || targets[i] >= n)
+	            throw new IllegalArgumentException("Neighbor index " + targets[i] + " out of range, number of nodes = " + n);
 
-		updateLinks();
+	    graph = SMTGraph.fromArrays(x, y, numberOfDestinations, offsets, targets, IdTracker.reserveNodeIds(n));
+	    views = new SMTNode[Math.max(n, 16)];
+	    dirty = new DirtySet(n);
+	    journal = new DirtySet(n);
+	    counts = new SubtreeCounts(n);
 
-		recalculate();
+	    recalculate();
 	}
 
 
 
 	/**
-	 *
+	 * Adds a link, also one that closes a cycle, see wouldCreateCycle
 	 * @param id1
 	 * @param id2
 	 */
 	public void addLink(int id1, int id2) {
-	    nodes.get(id1).addNeighbor(id2);
-	    nodes.get(id2).addNeighbor(id1);
-	    distinctLinks.add(new SMTLink(id1, id2));
+	    int s1 = graph.slotOf(id1);
+	    int s2 = graph.slotOf(id2);
+	    graph.addTarget(s1, s2);
+	    graph.addTarget(s2, s1);
+	    if(subtreeIndex != null)
+	        subtreeIndex.link(s1, s2);
+	    if(connectivity != null)
+	        connectivity.link(s1, s2);
+	    dirty.add(s1);
+	    dirty.add(s2);
+	    structureChanged = true;
 	}
 
 	/**
@@ -75,28 +170,93 @@ public class SharedMulticastTree {
 	 * @param l
 	 */
 	public void removeLink(int id1, int id2) {
-	     nodes.get(id1).removeNeighbor(id2);
-	     nodes.get(id2).removeNeighbor(id1);
-	     distinctLinks.remove(new SMTLink(id1, id2));
+	    int s1 = graph.slotOf(id1);
+	    int s2 = graph.slotOf(id2);
+	    graph.removeTarget(s1, s2);
+	    graph.removeTarget(s2, s1);
+	    cutFromIndex(s1, s2);
+	    connectivity = null;
+	    dirty.add(s1);
+	    dirty.add(s2);
+	    structureChanged = true;
 	}
 
 
 	/**
-	 *
+	 * Replaces the link a-b by the link u-v, where u and v must be on different sides of a-b.
+	 * The tree stays a tree and only the nodes on the cycle path between u and v change cost,
+	 * so the tree is updated in O(sum of their degrees) without any recalculation.
+	 * Pending edits are recalculated first.
+	 * @param a
+	 *     slot
+	 * @param b
+	 *     slot linked to a
+	 * @param u
+	 *     slot
+	 * @param v
+	 *     slot not linked to u
 	 * @return
-	 *     All distinct links
+	 *     the change of the total cost
 	 */
-	public Set<SMTLink> getAllDistinctLinks() {
-	    return distinctLinks;
+	double exchangeLink(int a, int b, int u, int v) throws IllegalArgumentException {
+	    if(!graph.hasTarget(a, b) || graph.hasTarget(u, v))
+	        throw new IllegalArgumentException("Link " + graph.idOf(a) + "-" + graph.idOf(b) + " must exist and link " + graph.idOf(u) + "-" + graph.idOf(v) + " must not");
+	    if(structureChanged || dirty.size() > 0)
+	        recalculateIncremental();
+
+	    // Remember the cycle path before the counts are updated, both ends and everything between them change
+	    int top = counts.lca(u, v);
+	    if(top == SMTGraph.NO_SLOT)
+	        throw new IllegalArgumentException("Nodes " + graph.idOf(u) + " and " + graph.idOf(v) + " are in different components");
+	    int length = 0;
+	    for(int side = 0; side < 2; side++) {
+	        for(int s = side == 0 ? u : v; s != top; s = counts.parent[s]) {
+	            if(length == cyclePath.length)
+	                cyclePath = Arrays.copyOf(cyclePath, length*2);
+	            cyclePath[length++] = s;
+	        }
+	    }
+	    if(length == cyclePath.length)
+	        cyclePath = Arrays.copyOf(cyclePath, length*2);
+	    cyclePath[length++] = top;
+
+	    graph.removeTarget(a, b);
+	    graph.removeTarget(b, a);
+	    graph.addTarget(u, v);
+	    graph.addTarget(v, u);
+	    cutFromIndex(a, b);
+	    if(subtreeIndex != null)
+	        subtreeIndex.link(u, v);
+	    counts.exchange(a, b, u, v);
+
+	    setPowerLevels(a, mostDistant, squaredDistances);
+	    setPowerLevels(b, mostDistant, squaredDistances);
+	    setPowerLevels(u, mostDistant, squaredDistances);
+	    setPowerLevels(v, mostDistant, squaredDistances);
+
+	    double delta = 0;
+	    for(int i = 0; i < length; i++)
+	        delta += refreshCost(cyclePath[i]);
+	    this.cost += delta;
+	    version++;
+
+	    return delta;
 	}
 
 	/**
-	 * Iterates over all the neighbor lists and copies the links into the set of distinct links
+	 *
+	 * @return
+	 *     All distinct links
 	 */
-	private void updateLinks() {
-	    distinctLinks.clear();
-	    for(SMTNode n : nodes.values())
-	        distinctLinks.addAll(n.getAllLinks());
+	public Set<SMTLink> getAllDistinctLinks() {
+	    Set<SMTLink> distinctLinks = new HashSet<SMTLink>();
+	    for(int s = 0; s < graph.size; s++)
+	        for(int i = 0; i < graph.degrees[s]; i++) {
+	            int t = graph.neighbor(s, i);
+	            if(s < t)
+	                distinctLinks.add(new SMTLink(graph.idOfSlot[s], graph.idOfSlot[t]));
+	        }
+	    return distinctLinks;
 	}
 
 
@@ -111,15 +271,32 @@ public class SharedMulticastTree {
      *     the neighbor list, pass null if no neighbors
      */
     public void addNode(double x, double y, boolean isDestination, int nextNodeId, List<Integer> neighbors) {
-        nodes.put(nextNodeId, SMTNodeFactory.newNode(x, y, isDestination));
+        SMTNode node = SMTNodeFactory.newNode(graph, x, y, isDestination);
+        int slot = graph.slotOf(nextNodeId);
+        ensureViewCapacity(slot);
+        views[slot] = node;
+        dirty.add(slot);
+        structureChanged = true;
+        if(subtreeIndex != null)
+            subtreeIndex.addVertex(slot, isDestination);
+        if(spatialIndex != null)
+            spatialIndex.add(slot);
+        if(connectivity != null)
+            connectivity.addNode(slot);
+
         if(neighbors != null) {
-            nodes.get(nextNodeId).setNeighbors(neighbors);
-            // Update neighbor list of other nodes
-            for(Integer i : neighbors)
-                nodes.get(i).addNeighbor(nextNodeId);
+            // Update neighbor list of this node and the other nodes
+            for(Integer i : neighbors) {
+                int neighborSlot = graph.slotOf(i);
+                graph.addTarget(slot, neighborSlot);
+                graph.addTarget(neighborSlot, slot);
+                if(subtreeIndex != null)
+                    subtreeIndex.link(slot, neighborSlot);
+                if(connectivity != null)
+                    connectivity.link(slot, neighborSlot);
+                dirty.add(neighborSlot);
+            }
         }
-        else
-            nodes.get(nextNodeId).setNeighbors(new ArrayList<Integer>());
     }
 
 	/**
@@ -128,18 +305,35 @@ public class SharedMulticastTree {
 	 *     the node
 	 */
 	public void removeNode(Integer id) {
-	    SMTNode n = nodes.get(id);
+	    int slot = graph.slotOf(id);
 
 	    // Remove this node from all its neighbors neighbor list...
-	    for(Integer i : n.getNeighboursWithinRange())
-	        nodes.get(i).removeNeighbor(id);
+	    for(int i = 0; i < graph.degrees[slot]; i++) {
+	        int neighborSlot = graph.neighbor(slot, i);
+	        graph.removeTarget(neighborSlot, slot);
+	        cutFromIndex(slot, neighborSlot);
+	        dirty.add(neighborSlot);
+	    }
+	    if(subtreeIndex != null)
+	        subtreeIndex.removeVertex(slot);
+	    if(spatialIndex != null)
+	        spatialIndex.remove(slot);
+	    if(connectivity != null) {
+	        if(graph.degrees[slot] == 0)
+	            connectivity.removeIsolatedNode(slot);
+	        else
+	            connectivity = null;
+	    }
+
+	    structureChanged = true;
 
-	    // Remove links from distinctLinks
-	    for(Integer i : n.getNeighboursWithinRange())
-	        distinctLinks.remove(new SMTLink(id, i));
+	    // Its cost leaves the total right away, the slot might be reused before the next recalculation
+	    cost -= graph.nodeCosts[slot];
+	    journal(slot);
 
-	    // Remove node from this list
-	    nodes.remove(id);
+	    // Remove node from the graph
+	    graph.removeNode(slot);
+	    views[slot] = null;
 	}
 
     /**
@@ -149,7 +343,12 @@ public class SharedMulticastTree {
      * @param id
      */
     public void relocateNode(double x, double y, int id) {
-        nodes.get(id).relocate(x, y);
+        int slot = graph.slotOf(id);
+        graph.x[slot] = x;
+        graph.y[slot] = y;
+        if(spatialIndex != null)
+            spatialIndex.move(slot);
+        markWithNeighbors(slot);
     }
 
 	/**
@@ -166,7 +365,393 @@ public class SharedMulticastTree {
 	 *     All the nodes, node cost and links lie within the sMTNodes (assuming a calculation has been done)
 	 */
 	public Collection<SMTNode> getNodes() {
-	    return nodes.values();
+	    return new AbstractCollection<SMTNode>() {
+
+	        @Override
+	        public Iterator<SMTNode> iterator() {
+	            return new Iterator<SMTNode>() {
+	                private int slot = nextLiveSlot(0);
+
+	                @Override
+	                public boolean hasNext() {
+	                    return slot < graph.size;
+	                }
+
+	                @Override
+	                public SMTNode next() {
+	                    if(!hasNext())
+	                        throw new NoSuchElementException();
+	                    SMTNode node = view(slot);
+	                    slot = nextLiveSlot(slot + 1);
+	                    return node;
+	                }
+	            };
+	        }
+
+	        @Override
+	        public int size() {
+	            return graph.count;
+	        }
+	    };
+	}
+
+	/**
+	 * Counts the destinations behind a link in O(log n), also right after links were added or removed,
+	 * without waiting for a recalculation. The first call builds a dynamic index (an Euler tour tree)
+	 * in O(n), which is then kept up to date by addLink, removeLink, addNode and removeNode.
+	 * @param id1
+	 * @param id2
+	 *     a node linked to id1
+	 * @return
+	 *     the number of destinations on the side of id2 when the link id1-id2 is cut
+	 * @throws IllegalArgumentException
+	 *     if the nodes aren't linked
+	 */
+	public int destinationsBehind(int id1, int id2) throws IllegalArgumentException {
+	    int s1 = graph.slotOf(id1);
+	    int s2 = graph.slotOf(id2);
+	    if(s1 == SMTGraph.NO_SLOT || s2 == SMTGraph.NO_SLOT || !graph.hasTarget(s1, s2))
+	        throw new IllegalArgumentException("Nodes " + id1 + " and " + id2 + " are not linked");
+
+	    if(subtreeIndex == null || !subtreeIndex.isValid())
+	        subtreeIndex = EulerTourIndex.build(graph);
+
+	    return subtreeIndex.behind(s1, s2);
+	}
+
+	/**
+	 * Spatial index over the node coordinates, for nearest neighbor, radius and rectangle queries. The first call
+	 * builds it in O(n), addNode, relocateNode and removeNode keep it up to date afterwards. Nodes moved
+	 * through their SMTNode view aren't tracked.
+	 * @return
+	 *     the index, its queries return slots of getGraph()
+	 */
+	public SpatialGrid getSpatialIndex() {
+	    if(spatialIndex == null || !spatialIndex.isValid())
+	        spatialIndex = SpatialGrid.build(graph);
+	    return spatialIndex;
+	}
+
+	/**
+	 * Whether the nodes and links form a single tree, without waiting for a recalculation. The subtree
+	 * counts and so the cost are only meaningful then. The connectivity queries cost O(alpha(n)), the components
+	 * are kept up to date by addLink and addNode and built again in O(n) after links or linked nodes were removed.
+	 * Links changed through SMTNode views aren't tracked.
+	 * @return
+	 *     true if the tree is connected and has no cycles
+	 */
+	public boolean isTree() {
+	    return connectivity().isTree();
+	}
+
+	/**
+	 *
+	 * @return
+	 *     the number of connected components, 1 for a tree, more for a forest
+	 */
+	public int componentCount() {
+	    return connectivity().componentCount();
+	}
+
+	/**
+	 *
+	 * @return
+	 *     true if some links form a closed path, or two nodes are linked twice
+	 */
+	public boolean hasCycle() {
+	    return connectivity().hasCycle();
+	}
+
+	/**
+	 * Whether addLink(id1, id2) would close a cycle, that is whether the nodes are already connected.
+	 * Linking a node to itself or to a neighbor closes one too.
+	 * @param id1
+	 * @param id2
+	 * @return
+	 * @throws IllegalArgumentException
+	 *     if a node doesn't exist
+	 */
+	public boolean wouldCreateCycle(int id1, int id2) throws IllegalArgumentException {
+	    int s1 = graph.slotOf(id1);
+	    int s2 = graph.slotOf(id2);
+	    if(s1 == SMTGraph.NO_SLOT || s2 == SMTGraph.NO_SLOT)
+	        throw new IllegalArgumentException("Nodes " + id1 + " and " + id2 + " must both exist");
+	    return connectivity().connected(s1, s2);
+	}
+
+	private Connectivity connectivity() {
+	    if(connectivity == null)
+	        connectivity = Connectivity.build(graph);
+	    return connectivity;
+	}
+
+	/**
+	 * The cost the tree would have with the link id1-id2 added, the tree isn't modified.
+	 * Computed in O(degree of id1 and id2) from aggregates of the power levels and subtree counts, built in O(n)
+	 * on the first query after a recalculation. Queries can be made from several threads at once, as long as
+	 * the tree isn't edited meanwhile.
+	 * @param id1
+	 * @param id2
+	 * @return
+	 *     the cost
+	 * @throws IllegalArgumentException
+	 *     if the nodes are linked already, or the link would close a cycle
+	 * @throws IllegalStateException
+	 *     if the tree has edits that aren't recalculated
+	 */
+	public double costIfAddLink(int id1, int id2) throws IllegalArgumentException {
+	    return aggregates().ifAddLink(id1, id2);
+	}
+
+	/**
+	 * The cost the tree would have with the link id1-id2 removed, see costIfAddLink
+	 * @param id1
+	 * @param id2
+	 * @return
+	 *     the cost
+	 * @throws IllegalArgumentException
+	 *     if the nodes aren't linked
+	 */
+	public double costIfRemoveLink(int id1, int id2) throws IllegalArgumentException {
+	    return aggregates().ifRemoveLink(id1, id2);
+	}
+
+	/**
+	 * The cost the tree would have with the node moved to (x, y), see costIfAddLink
+	 * @param id
+	 * @param x
+	 * @param y
+	 * @return
+	 *     the cost
+	 */
+	public double costIfRelocate(int id, double x, double y) throws IllegalArgumentException {
+	    return aggregates().ifRelocate(id, x, y);
+	}
+
+	/**
+	 * Answers what-if queries in a batch, each as if it was the only edit, spread over the common ForkJoinPool
+	 * @param queries
+	 * @return
+	 *     the cost after each of the edits
+	 */
+	public double[] costIf(List<CostQuery> queries) throws IllegalArgumentException {
+	    return aggregates().ifAll(queries, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Takes a snapshot of the tree in O(k log n) for the k nodes whose position, links or power levels changed
+	 * since the previous snapshot, that is the edited nodes and their neighbors. Node costs aren't part of it,
+	 * so a link edit that changes the costs of a whole component still copies only a few nodes. The first
+	 * snapshot and the ones after a full recalculation take O(n). Taking it again without edits returns the same
+	 * snapshot. Nodes moved through their SMTNode view aren't tracked.
+	 * @return
+	 *     the snapshot
+	 * @throws IllegalStateException
+	 *     if the tree has edits that aren't recalculated
+	 */
+	public TreeSnapshot snapshot() throws IllegalStateException {
+	    if(structureChanged || dirty.size() > 0)
+	        throw new IllegalStateException("The tree has edits that aren't recalculated");
+
+	    if(snapshot != null && !journalAll && journal.size() == 0)
+	        return snapshot;
+
+	    PersistentArray<TreeSnapshot.Node> nodes;
+	    int copied;
+	    if(snapshot == null || journalAll) {
+	        TreeSnapshot.Node[] all = new TreeSnapshot.Node[graph.size];
+	        for(int s = 0; s < graph.size; s++)
+	            if(graph.isAlive(s))
+	                all[s] = new TreeSnapshot.Node(graph, s);
+	        nodes = PersistentArray.of(all, graph.size);
+	        copied = graph.count;
+	    }
+	    else {
+	        nodes = snapshot.nodes;
+	        for(int i = 0; i < journal.size(); i++) {
+	            int s = journal.get(i);
+	            nodes = nodes.set(s, graph.isAlive(s) ? new TreeSnapshot.Node(graph, s) : null);
+	        }
+	        copied = journal.size();
+	    }
+
+	    snapshot = new TreeSnapshot(this, version, nodes, graph.size, graph.count, cost, costModel, copied);
+	    journal.clear();
+	    journalAll = false;
+	    return snapshot;
+	}
+
+	/**
+	 * Brings the tree back to a snapshot taken from it, pending edits are dropped. Only the nodes that differ
+	 * from the current state are written, their power levels are taken from the snapshot and their costs
+	 * worked out from them. If links differ, the subtree counts of the components involved are recounted and
+	 * the costs of their nodes worked out again, like recalculateIncremental does after a link edit. No power
+	 * level is recomputed and the total cost is the one of the snapshot.
+	 * @param target
+	 * @throws IllegalArgumentException
+	 *     if the snapshot was taken from another tree
+	 */
+	public void restore(TreeSnapshot target) throws IllegalArgumentException {
+	    if(target.owner != this)
+	        throw new IllegalArgumentException("The snapshot was taken from another tree");
+	    if(structureChanged || dirty.size() > 0)
+	        recalculateIncremental();
+
+	    TreeSnapshot current = snapshot();
+	    if(current == target)
+	        return;
+
+	    graph.ensureSize(target.size);
+	    ensureViewCapacity(graph.size - 1);
+	    int[] changed = current.nodes.differences(target.nodes);
+	    boolean relinked = false;
+
+	    for(int s : changed) {
+	        TreeSnapshot.Node from = current.nodes.get(s);
+	        TreeSnapshot.Node to = target.nodes.get(s);
+	        views[s] = null;
+
+	        if(from != null && (to == null || to.id != from.id)) {
+	            if(spatialIndex != null)
+	                spatialIndex.remove(s);
+	            graph.removeNode(s);
+	            relinked = true;
+	        }
+	        if(to == null)
+	            continue;
+	        boolean added = from == null || to.id != from.id;
+	        if(added) {
+	            graph.claimSlot(s, to.id);
+	            relinked = true;
+	        }
+	        else if(!Arrays.equals(from.neighbors, to.neighbors))
+	            relinked = true;
+
+	        graph.destination[s] = to.destination;
+	        graph.x[s] = to.x;
+	        graph.y[s] = to.y;
+	        graph.setTargets(s, to.neighbors);
+	        graph.highestPowerLevels[s] = to.highestPowerLevel;
+	        graph.secondPowerLevels[s] = to.secondPowerLevel;
+	        graph.farthest[s] = to.farthest;
+
+	        if(spatialIndex != null) {
+	            if(added)
+	                spatialIndex.add(s);
+	            else if(from.x != to.x || from.y != to.y)
+	                spatialIndex.move(s);
+	        }
+	    }
+
+	    if(relinked) {
+	        counts.beginUpdate();
+	        for(int s : changed) {
+	            if(!graph.isAlive(s) || counts.isVisited(s))
+	                continue;
+	            counts.rebuildComponent(graph, s);
+	            for(int k = 0; k < counts.orderLength(); k++)
+	                graph.nodeCosts[counts.order(k)] = getCost(counts.order(k));
+	        }
+	        subtreeIndex = null;
+	        connectivity = null;
+	    }
+	    else { // same subtree counts, only the nodes with other power levels have other costs
+	        for(int s : changed)
+	            if(graph.isAlive(s))
+	                graph.nodeCosts[s] = getCost(s);
+	    }
+
+	    costModel = target.costModel;
+	    cost = target.getCost();
+	    journal.clear();
+	    journalAll = false;
+	    version++;
+	    snapshot = target.withVersion(version); // versions only grow, also when going back to an old state
+	}
+
+	/**
+	 * Publishes the current state of the tree to readers on other threads, see readSnapshot. It is taken like
+	 * snapshot(), only the edited nodes and their neighbors are copied, so publishing after an edit costs
+	 * O(k log n) for those k nodes. Snapshots no reader holds anymore are simply garbage collected.
+	 * Must be called from the thread editing the tree.
+	 * @return
+	 *     the published snapshot
+	 * @throws IllegalStateException
+	 *     if the tree has edits that aren't recalculated
+	 */
+	public TreeSnapshot publish() throws IllegalStateException {
+	    TreeSnapshot state = snapshot();
+	    published = state;
+	    return state;
+	}
+
+	/**
+	 * The last published state of the tree. Safe to call from any thread while the tree is being edited,
+	 * it never blocks and never sees a half done edit. The snapshot stays the same however the tree changes
+	 * afterwards, compare versions to see if a newer one was published.
+	 * @return
+	 *     the last published snapshot, null if nothing was published yet
+	 */
+	public TreeSnapshot readSnapshot() {
+	    return published;
+	}
+
+	private CostAggregates aggregates() throws IllegalStateException {
+	    if(structureChanged || dirty.size() > 0)
+	        throw new IllegalStateException("The tree has edits that aren't recalculated");
+
+	    CostAggregates current = aggregates;
+	    if(current == null || current.version != version) {
+	        synchronized(this) {
+	            current = aggregates;
+	            if(current == null || current.version != version)
+	                aggregates = current = new CostAggregates(graph, counts, costModel, cost, version);
+	        }
+	    }
+	    return current;
+	}
+
+	public CostModel getCostModel() {
+	    return costModel;
+	}
+
+	/**
+	 * Sets the cost of a transmission, and recalculates the tree with it
+	 * @param costModel
+	 */
+	public void setCostModel(CostModel costModel) throws IllegalArgumentException {
+	    if(costModel == null)
+	        throw new IllegalArgumentException("Cost model can't be null");
+	    this.costModel = costModel;
+	    recalculate();
+	}
+
+	/**
+	 * Copies the tree, the copy has the same node ids and cost model and is recalculated.
+	 * Pending edits are part of the copy. Copies don't share any mutable state, so they can be
+	 * worked on by different threads.
+	 * @return
+	 *     the copy
+	 */
+	public SharedMulticastTree copy() {
+	    return new SharedMulticastTree(graph, costModel);
+	}
+
+	/**
+	 * Subtree counts, up to date after any recalculation
+	 * @return
+	 */
+	SubtreeCounts getSubtreeCounts() {
+	    return counts;
+	}
+
+	/**
+	 *
+	 * @return
+	 *     the primitive storage of the tree
+	 */
+	public SMTGraph getGraph() {
+	    return graph;
 	}
 
 	/**
@@ -176,7 +761,8 @@ public class SharedMulticastTree {
 	 */
     public SMTNode getNode(int senderId) {
         System.out.println("SharedMultiCastTree.getNode(" + senderId + "), IdTracker.getNextId() - 1 = " + (IdTracker.getNextNodeId() - 1) );
-        return nodes.get(senderId);
+        int slot = graph.slotOf(senderId);
+        return slot == SMTGraph.NO_SLOT ? null : view(slot);
     }
 
     /**
@@ -185,11 +771,12 @@ public class SharedMulticastTree {
      * @return
      */
     public List<SMTNode> getNeighborsOfNode(int nodeId) {
-        List<Integer> neighborsWithinRangeIds = nodes.get(nodeId).getNeighboursWithinRange();
-        List<SMTNode> neighbors = new ArrayList<SMTNode>();
+        int slot = graph.slotOf(nodeId);
+        int degree = graph.degrees[slot];
+        List<SMTNode> neighbors = new ArrayList<SMTNode>(degree);
 
-        for(Integer i : neighborsWithinRangeIds)
-            neighbors.add(nodes.get(i));
+        for(int i = 0; i < degree; i++)
+            neighbors.add(view(graph.neighbor(slot, i)));
 
         return neighbors;
     }
@@ -197,25 +784,215 @@ public class SharedMulticastTree {
 	/**
 	 * Recalculates the value and returns the time it took in milliseconds.
 	 * The clearing of node data is not counted into the calculation.
+	 * Each phase is timed in Metrics when it is enabled.
 	 * @return
 	 *     the time of the recalculation
 	 */
     public double recalculate() {
-        for(SMTNode n : nodes.values())
-            n.resetData();
+        long phase = Metrics.start();
+        for(int s = 0; s < graph.size; s++)
+            graph.resetData(s);
+        phase = Metrics.lap(Phase.RESET, phase);
 
-        double start = System.currentTimeMillis();
+        long start = System.nanoTime();
 
-        for(Integer i : nodes.keySet()) {
-            nodes.get(i).setPowerLevels(getPowerLevels(i));
-            nodes.get(i).setNodeCost(getCost(i));
-        }
+        counts.rebuild(graph);
+        structureChanged = false;
+        phase = Metrics.lap(Phase.SUBTREE_COUNTS, phase);
+
+        setPowerLevels(0, graph.size, mostDistant, squaredDistances);
+        phase = Metrics.lap(Phase.POWER_LEVELS, phase);
+
+        for(int s = 0; s < graph.size; s++)
+            if(graph.isAlive(s))
+                graph.nodeCosts[s] = getCost(s);
+        phase = Metrics.lap(Phase.COST, phase);
 
         calculateTotalCost();
+        Metrics.lap(Phase.TOTAL, phase);
+        dirty.clear();
+        version++;
+        journalAll = true;
+
+        long time = System.nanoTime() - start;
+        Metrics.record(Phase.RECALCULATE, time);
+
+        return time/1e6;
+    }
+
+    /**
+     * Recalculates like recalculate(), but spreads the power levels and the node costs over the
+     * common ForkJoinPool
+     * @return
+     *     the time of the recalculation in milliseconds
+     */
+    public double recalculateParallel() {
+        return recalculateParallel(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Recalculates like recalculate(), but spreads the power levels and the node costs over the pool
+     * in chunks of PARALLEL_CHUNK_SIZE slots. Trees smaller than PARALLEL_THRESHOLD nodes are
+     * recalculated sequentially. The chunks and the order their partial sums are merged in only depend
+     * on the tree size, and each partial sum is compensated, so the total cost is the same whatever
+     * the number of threads.
+     * @param pool
+     * @return
+     *     the time of the recalculation in milliseconds
+     */
+    public double recalculateParallel(ForkJoinPool pool) {
+        if(graph.count < PARALLEL_THRESHOLD)
+            return recalculate();
+
+        long start = System.nanoTime();
+        long phase = Metrics.start();
+
+        // Power levels only read coordinates, subtree counts need a traversal of the whole tree
+        pool.invoke(new PowerLevelTask(0, graph.size));
+        phase = Metrics.lap(Phase.POWER_LEVELS, phase);
+
+        counts.rebuild(graph);
+        structureChanged = false;
+        phase = Metrics.lap(Phase.SUBTREE_COUNTS, phase);
 
-        double end = System.currentTimeMillis();
+        this.cost = pool.invoke(new CostTask(0, graph.size)).value(); // node costs and total in one pass
+        Metrics.lap(Phase.COST, phase);
+        dirty.clear();
+        version++;
+        journalAll = true;
 
-        return end - start;
+        long time = System.nanoTime() - start;
+        Metrics.record(Phase.RECALCULATE, time);
+
+        return time/1e6;
+    }
+
+    /**
+     * Refreshes the power levels and cost of the nodes touched since the last recalculation
+     * (added, relocated or relinked nodes and the neighbors whose power levels depend on them),
+     * and adjusts the total cost by the difference. A single relocation costs O(degree) instead of O(n).
+     * Adding or removing links or nodes changes the subtree counts of the components involved, those
+     * components are recounted and all their node costs refreshed.
+     * @return
+     *     the time of the recalculation in milliseconds
+     */
+    public double recalculateIncremental() {
+        long start = System.nanoTime();
+
+        double delta = 0;
+        long refreshed = 0;
+        for(int i = 0; i < dirty.size(); i++) {
+            int s = dirty.get(i);
+            if(!graph.isAlive(s))
+                continue;
+
+            setPowerLevels(s, mostDistant, squaredDistances);
+
+            if(!structureChanged) {
+                delta += refreshCost(s);
+                refreshed++;
+            }
+        }
+
+        if(structureChanged) { // recount the components containing dirty nodes, each of them only once
+            counts.beginUpdate();
+            for(int i = 0; i < dirty.size(); i++) {
+                int s = dirty.get(i);
+                if(!graph.isAlive(s) || counts.isVisited(s))
+                    continue;
+
+                counts.rebuildComponent(graph, s);
+                for(int k = 0; k < counts.orderLength(); k++)
+                    delta += refreshCost(counts.order(k));
+                refreshed += counts.orderLength();
+            }
+            structureChanged = false;
+        }
+        dirty.clear();
+
+        cost += delta;
+        version++;
+
+        long time = System.nanoTime() - start;
+        Metrics.record(Phase.INCREMENTAL, time);
+        Metrics.count(Counter.INCREMENTAL_NODES, refreshed);
+
+        return time/1e6;
+    }
+
+    /**
+     * Recomputes the cost of a node
+     * @param slot
+     * @return
+     *     the difference between the new and the old cost
+     */
+    private double refreshCost(int slot) {
+        double oldCost = graph.nodeCosts[slot];
+        graph.nodeCosts[slot] = getCost(slot);
+        return graph.nodeCosts[slot] - oldCost;
+    }
+
+    /**
+     * Remembers that a slot changed since the last snapshot
+     * @param slot
+     */
+    private void journal(int slot) {
+        if(!journalAll)
+            journal.add(slot);
+    }
+
+    /**
+     * Cuts a link from the dynamic subtree index, the index is dropped if it can no longer follow the
+     * components (links closing cycles), the next destinationsBehind call rebuilds it. Must be called
+     * after the link is removed from s2, if s2 still has s1 as a neighbor a parallel copy was removed
+     * and the nodes stay linked.
+     */
+    private void cutFromIndex(int s1, int s2) {
+        if(subtreeIndex == null)
+            return;
+        if(graph.hasTarget(s2, s1))
+            subtreeIndex.cutParallel();
+        else
+            subtreeIndex.cut(s1, s2);
+        if(!subtreeIndex.isValid())
+            subtreeIndex = null;
+    }
+
+    /**
+     * Marks a node and all its neighbors as dirty, the power levels of the neighbors depend on its position
+     * @param slot
+     */
+    private void markWithNeighbors(int slot) {
+        dirty.add(slot);
+        for(int i = 0; i < graph.degrees[slot]; i++)
+            dirty.add(graph.neighbor(slot, i));
+    }
+
+    /**
+     *
+     * @param slot
+     * @return
+     *     the view of the node in slot, created if it doesn't exist yet
+     */
+    private SMTNode view(int slot) {
+        ensureViewCapacity(slot);
+        SMTNode node = views[slot];
+        if(node == null) {
+            node = SMTNodeFactory.newView(graph, graph.idOfSlot[slot], graph.destination[slot]);
+            views[slot] = node;
+        }
+        return node;
+    }
+
+    private void ensureViewCapacity(int slot) {
+        if(slot >= views.length)
+            views = Arrays.copyOf(views, Math.max(slot + 1, views.length + (views.length >> 1)));
+    }
+
+    private int nextLiveSlot(int slot) {
+        while(slot < graph.size && !graph.isAlive(slot))
+            slot++;
+        return slot;
     }
 
 
@@ -226,60 +1003,85 @@ public class SharedMulticastTree {
      * @return
      */
 	private boolean isLinked(int id1, int id2) {
-	    return nodes.get(id1).getNeighboursWithinRange().contains(id2);
+	    return graph.hasTarget(graph.slotOf(id1), graph.slotOf(id2));
 	}
 
 	/**
-	 *
-	 * @param id
-	 * @return
-	 *     gets the two power levels of the node.
+	 * Computes and stores the two power levels of the node, and which neighbor the highest one reaches
+	 * @param slot
+	 * @param mostDistant
+	 *     scratch array of length 2
+	 * @param squaredDistances
+	 *     scratch array of length 2
 	 */
-	private double[] getPowerLevels(Integer id) {
-	    // 1. Find all nodes linked to n
-	    List<Integer> neighbors = nodes.get(id).getNeighboursWithinRange();
+	private void setPowerLevels(int slot, int[] mostDistant, double[] squaredDistances) {
+	    journal(slot);
+	    twoMostDistant(slot, mostDistant, squaredDistances);
+	    int degree = graph.degrees[slot];
+	    graph.farthest[slot] = mostDistant[1];
+	    graph.highestPowerLevels[slot] = degree > 0 ? costModel.cost(squaredDistances[1]) : 0;
+	    graph.secondPowerLevels[slot] = degree > 1 ? costModel.cost(squaredDistances[0]) : 0;
+	}
+
+	/**
+	 * Computes and stores the power levels of the slots from ... to - 1, which must have been reset.
+	 * The squared distances of POWER_LEVEL_BATCH slots at a time are collected in the power level arrays
+	 * and converted by a single call to the cost model.
+	 * @param from
+	 * @param to
+	 * @param mostDistant
+	 *     scratch array of length 2
+	 * @param squaredDistances
+	 *     scratch array of length 2
+	 */
+	private void setPowerLevels(int from, int to, int[] mostDistant, double[] squaredDistances) {
+	    double[] highest = graph.highestPowerLevels;
+	    double[] second = graph.secondPowerLevels;
+
+	    for(int batch = from; batch < to; batch += POWER_LEVEL_BATCH) {
+	        int end = Math.min(to, batch + POWER_LEVEL_BATCH);
+
+	        for(int s = batch; s < end; s++) {
+	            if(!graph.isAlive(s))
+	                continue;
+	            twoMostDistant(s, mostDistant, squaredDistances);
+	            graph.farthest[s] = mostDistant[1];
+	            highest[s] = squaredDistances[1];
+	            second[s] = squaredDistances[0];
+	        }
 
-	    // 2. Calculate distance between n and all sMTNodes, store highest two distances
-	    PowerFilter filter = new PowerFilter(); // run all distances through filter, highest two will remain
-	    for(Integer nodeId : neighbors)
-	        filter.runThroughFilter(getDistanceBetween(id, nodeId));
+	        costModel.costs(highest, batch, end);
+	        costModel.costs(second, batch, end);
 
-	    return filter.getHighestTwo();
+	        for(int s = batch; s < end; s++) { // a level without a neighbor to reach is no transmission at all
+	            int degree = graph.isAlive(s) ? graph.degrees[s] : 0;
+	            if(degree < 2)
+	                second[s] = 0;
+	            if(degree == 0)
+	                highest[s] = 0;
+	        }
+	    }
 	}
 
 	/**
 	 * Gets the distance between two nodes
-	 * @param id1
-	 * @param id2
+	 * @param s1
+	 * @param s2
 	 * @return
 	 */
-	private double getDistanceBetween(int id1, int id2) {
-	    SMTNode n1 = nodes.get(id1);
-	    SMTNode n2 = nodes.get(id2);
-
-	    return Math.sqrt(
-	            Math.pow((n2.getX() - n1.getX()), 2)
-	            + Math.pow((n2.getY() - n1.getY()), 2)
-	            );
+	private double getDistanceBetween(int s1, int s2) {
+	    return Geometry.distance(graph.x[s1], graph.y[s1], graph.x[s2], graph.y[s2]);
 	}
 
 	/**
 	 *
-	 * @param n1
-	 * @param n2
+	 * @param s1
+	 * @param s2
 	 * @return
 	 *  	The power cost of the transmission
 	 */
-	private double powerCost(int n1, int n2) {
-	    SMTNode node1 = nodes.get(n1);
-	    SMTNode node2 = nodes.get(n2);
-
-	    double lx = node2.getX() - node1.getX();
-	    double ly = node2.getY() - node1.getY();
-
-	    double dist = Math.sqrt(Math.pow(lx, 2) + Math.pow(ly, 2));
-
-		return dist;
+	private double powerCost(int s1, int s2) {
+	    return costModel.cost(Geometry.distanceSquared(graph.x[s1], graph.y[s1], graph.x[s2], graph.y[s2]));
 	}
 
 //	/**
@@ -297,227 +1099,138 @@ public class SharedMulticastTree {
 
 
 	/**
-	 *
-	 * @param id
-	 * @return
-	 *  	the two most distant nodes, the most distant at index 1, second most distant at index 0
+	 * Finds the two most distant neighbors of a node, writing their slots to mostDistant:
+	 * the most distant at index 1, second most distant at index 0, SMTGraph.NO_SLOT where there's no such neighbor
+	 * @param slot
+	 * @param mostDistant
+	 *     array of length 2 to write the result to
+	 * @param squaredDistances
+	 *     array of length 2 receiving the squared distances to the two neighbors
 	 */
-	private SMTNode[] twoMostDistant(int id) {
-		List<Integer> withinRange = nodes.get(id).getNeighboursWithinRange();
-		int size = withinRange.size();
-
-		SMTNode[] mostDistant = {null, null};
-
-		if(size == 1) {
-		    mostDistant[1] = nodes.get(withinRange.get(0));
-		}
-
-
-		if(size > 1) {
-		    NodeNeighborDistanceFilter filter = new NodeNeighborDistanceFilter(nodes.get(id));
-		    for(Integer neighborId : withinRange)
-		        filter.runThroughFilter(nodes.get(neighborId));
-
-		    return filter.getTwoMostDistantNodes();
-		}
-
-		return mostDistant;
+	private void twoMostDistant(int slot, int[] mostDistant, double[] squaredDistances) {
+	    int from = graph.offsets[slot];
+	    Geometry.topTwo(graph.x, graph.y, slot, graph.targets, from, from + graph.degrees[slot], mostDistant, squaredDistances);
 	}
 
 	/**
-    *
-    * @param id1
-    * @param id2
-    * @return
-    */
-   private Subtree arc(int id1, int id2) {
-       return null; // TODO
-   }
+	 *
+	 * @param s1
+	 * @param s2
+	 *     a neighbor of s1
+	 * @return
+	 *     the number of destinations in the subtree behind s2, as seen from s1
+	 */
+	private int arc(int s1, int s2) {
+	    return counts.behind(s1, s2);
+	}
 
 
-   /**
-    * Gets the subtree of a node
-    * @param id
-    * @return
-    */
-   private Subtree arc(int id) {
-       return null; // TODO
-   }
+	/**
+	 * Gets the number of destinations in the subtree behind the most distant neighbor of a node,
+	 * these are the destinations whose messages can be forwarded at the second highest power level.
+	 * Requires the power levels of the node to be up to date.
+	 * @param slot
+	 * @return
+	 */
+	private int arc(int slot) {
+	    int farthest = graph.farthest[slot];
+	    return farthest == SMTGraph.NO_SLOT ? 0 : arc(slot, farthest);
+	}
 
 
 	/**
-	 *
-	 * @param id
+	 * Every destination is a source. A message arriving from behind the most distant neighbor only has to
+	 * reach the other neighbors (second highest power level), all other messages must reach every neighbor
+	 * (highest power level). Requires the power levels and the subtree counts to be up to date.
+	 * @param slot
 	 * @return
 	 *     the cost of n
 	 */
-	private double getCost(int id) {
-	    return 0; // TODO
-	    /*
-		int numberOfDestinationsSubtree = arc(id).size();
-
-		if(numberOfDestinationsSubtree == 0)
-		    return 0;
+	private double getCost(int slot) {
+	    if(graph.degrees[slot] == 0)
+	        return 0;
 
-		SMTNode[] mostDistantN = twoMostDistant(id);
-		double costMostDistant = powerCost(id, mostDistantN[1].id);
-		double costSecondMostDistant = powerCost(id, mostDistantN[0].id);
+	    int numberOfDestinationsSubtree = arc(slot);
 
-		int numberOfDestinationsTree = nodes.size() - numberOfDestinationsSubtree; // TODO not sure if right
+	    double costMostDistant = graph.highestPowerLevels[slot];
+	    double costSecondMostDistant = graph.secondPowerLevels[slot];
 
-		double result = numberOfDestinationsSubtree*costSecondMostDistant + numberOfDestinationsTree*costMostDistant;
+	    int numberOfDestinationsTree = counts.componentDestinations(slot) - numberOfDestinationsSubtree;
 
-		return result; */
+	    return numberOfDestinationsSubtree*costSecondMostDistant + numberOfDestinationsTree*costMostDistant;
 	}
 
 	/**
 	 * Calculates the total cost
 	 */
 	private void calculateTotalCost() {
-		double sum = 0;
-		for(SMTNode n : nodes.values())
-			sum += n.getNodeCost();
-		this.cost = sum;
-	}
-
-	/**
-	 * Class to represent a subtree with minimal functionality
-	 * @author Yngve Sekse Kristiansen
-	 *
-	 */
-	private class Subtree {
-		private List<SMTNode> nodes;
-
-		/**
-		 * Initializes a new subtree
-		 * @param nodes
-		 *    the list of sMTNodes, can't be null or empty
-		 */
-		public Subtree(List<SMTNode> nodes) {
-			this.nodes = nodes;
-		}
-
-		public Subtree() {
-		    // empty subtree
-		}
-
-        /**
-		 *
-		 * @return
-		 *    The number of sMTNodes in the tree
-		 */
-		int size() {
-		    return (nodes == null) ? 0 : nodes.size();
-		}
+		CompensatedSum sum = new CompensatedSum();
+		for(int s = 0; s < graph.size; s++)
+			sum.add(graph.nodeCosts[s]);
+		this.cost = sum.value();
 	}
 
-
-
 	/**
-	 * Tiny class to pass double values through. After passing
-	 * n doubles through the filter, it will retain the two largest
-	 * values. All values passed through must be >= 0.
-	 * @author Yngve Sekse Kristiansen
-	 *
+	 * Resets and computes the power levels of a range of slots, splitting it in halves
+	 * until the ranges are at most PARALLEL_CHUNK_SIZE long
 	 */
-	private class PowerFilter {
+	private class PowerLevelTask extends RecursiveAction {
 
-	    private double highest, secondHighest;
+	    private static final long serialVersionUID = 1L;
+	    private final int from, to;
 
-	    /**
-	     * Initializes a new power filter.
-	     */
-	    public PowerFilter() {
-	        highest = 0; secondHighest = -1;
+	    PowerLevelTask(int from, int to) {
+	        this.from = from;
+	        this.to = to;
 	    }
 
-	    /**
-	     * Passes a double value through, if it is greater than the highest,
-	     * or second highest (but not equal to) it'll be retained and stored.
-	     * @param value
-	     */
-	    public void runThroughFilter(double value) {
-	        if(value > highest) {
-	            secondHighest = highest;
-	            highest = value;
+	    @Override
+	    protected void compute() {
+	        if(to - from > PARALLEL_CHUNK_SIZE) {
+	            int mid = (from + to) >>> 1;
+	            invokeAll(new PowerLevelTask(from, mid), new PowerLevelTask(mid, to));
+	            return;
 	        }
-	        else if(value > secondHighest && value < highest)
-	            secondHighest = value;
-	    }
 
-	    /**
-	     *
-	     * @return
-	     *     The highest two values retained in the filter.
-	     *     The highest value at index 0, second highest at index 1
-	     */
-	    public double[] getHighestTwo() {
-	        double[] highestTwo = {highest, secondHighest};
-	        return highestTwo;
+	        for(int s = from; s < to; s++)
+	            graph.resetData(s);
+	        setPowerLevels(from, to, new int[2], new double[2]);
 	    }
 	}
 
 	/**
-	 * Utility to help find the two most distant neighbors of a node
-	 * @author Yngve Sekse Kristiansen
-	 *
+	 * Computes the costs of a range of slots and returns their compensated sum, splitting the range
+	 * the same way as PowerLevelTask. The left half is always merged before the right half.
 	 */
-	private class NodeNeighborDistanceFilter {
-
-	    private SMTNode origin;
-
-	    private SMTNode furthest;
-	    private double furthestDistance;
+	private class CostTask extends RecursiveTask<CompensatedSum> {
 
-	    private SMTNode nextFurthest;
-	    private double nextFurthestDistance;
+	    private static final long serialVersionUID = 1L;
+	    private final int from, to;
 
-	    /**
-	     * Initializes a new filter, taking in origin node
-	     * @param origin
-	     */
-	    public NodeNeighborDistanceFilter(SMTNode origin) {
-	        this.origin = origin;
+	    CostTask(int from, int to) {
+	        this.from = from;
+	        this.to = to;
 	    }
 
-	    public SMTNode[] getTwoMostDistantNodes() {
-	        SMTNode[] twoMostDistant = {nextFurthest, furthest};
-            return twoMostDistant;
-        }
-
-        /**
-	     * Runs a node through the filter, retains it if its distance is greater than the next biggest
-	     * distance currently being retained
-	     * @param neighbor
-	     *     the neighbor
-	     */
-	    public void runThroughFilter(SMTNode neighbor) {
-	        if(furthest == null) {
-	            furthest = neighbor;
-	            furthestDistance = distanceTo(neighbor);
+	    @Override
+	    protected CompensatedSum compute() {
+	        if(to - from > PARALLEL_CHUNK_SIZE) {
+	            int mid = (from + to) >>> 1;
+	            CostTask right = new CostTask(mid, to);
+	            right.fork();
+	            CompensatedSum sum = new CostTask(from, mid).compute();
+	            sum.add(right.join());
+	            return sum;
 	        }
-	        else if(nextFurthest == null) {
-	            nextFurthest = neighbor;
-	            furthestDistance = distanceTo(neighbor);
-	        }
-
-	        double dist = distanceTo(neighbor);
 
-	        if(dist > furthestDistance) {
-	            furthest = neighbor;
-	            furthestDistance = dist;
+	        CompensatedSum sum = new CompensatedSum();
+	        for(int s = from; s < to; s++) {
+	            if(!graph.isAlive(s))
+	                continue;
+	            graph.nodeCosts[s] = getCost(s);
+	            sum.add(graph.nodeCosts[s]);
 	        }
-	        else if(dist < nextFurthestDistance && dist < furthestDistance) {
-	            nextFurthest = neighbor;
-	            nextFurthestDistance = dist;
-	        }
-	    }
-
-	    private double distanceTo(SMTNode neighbor) {
-	        double dx = neighbor.getX() - origin.getX();
-	        double dy = neighbor.getY() - origin.getY();
-
-	        return Math.sqrt(Math.pow(dx, 2) + Math.pow(dy, 2));
+	        return sum;
 	    }
 	}
 
@@ -0,0 +1,414 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Grid with quantile cell edges over the node coordinates of a SMTGraph, answers k nearest, radius and
+ * rectangle queries by only looking at the cells around the query.
+ * <p>
+ * The column and row edges are quantiles of the coordinates at build time, so every column and every row
+ * holds about as many nodes, also when the nodes are clustered along an axis. The cells are only balanced along
+ * each axis on its own: with unrelated x and y there are about two nodes per cell, but when they are correlated,
+ * like nodes along a diagonal band, the nodes pile up in the few cells on the band and the queries slow down
+ * with them. The border cells extend to infinity. Every cell keeps its nodes in an intrusive doubly linked list over slots, so nodes are added, moved
+ * and removed in O(1). Once the number of nodes has changed by a factor of two since the build, the cells no
+ * longer fit and the grid reports itself invalid and must be rebuilt.
+ * <p>
+ * Queries write their results into arrays of the caller and don't allocate.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public final class SpatialGrid {
+
+    private static final int NIL = -1;
+    private static final double NODES_PER_CELL = 2;
+    private static final int QUANTILE_SAMPLE = 1 << 16; // coordinates sorted to find the edges
+
+    private final SMTGraph graph;
+    private final double[] columnEdges, rowEdges; // column i starts at columnEdges[i], the first one at minus infinity
+    private final int columns, rows;
+    private final int builtCount;
+
+    private final int[] head; // cell -> first slot
+    private int[] next, previous; // slot -> slot
+    private int[] cellOf; // slot -> cell, NIL if not in the grid
+    private int count;
+
+    private SpatialGrid(SMTGraph graph, double[] columnEdges, double[] rowEdges) {
+        this.graph = graph;
+        this.columnEdges = columnEdges;
+        this.rowEdges = rowEdges;
+        this.columns = columnEdges.length;
+        this.rows = rowEdges.length;
+        this.builtCount = graph.count;
+
+        head = new int[columns*rows];
+        Arrays.fill(head, NIL);
+        int capacity = Math.max(16, graph.size);
+        next = new int[capacity];
+        previous = new int[capacity];
+        cellOf = new int[capacity];
+        Arrays.fill(cellOf, NIL);
+    }
+
+    /**
+     * Builds the grid over every node of the graph in O(n)
+     * @param graph
+     * @return
+     *      the grid
+     */
+    static SpatialGrid build(SMTGraph graph) {
+        int cells = (int) Math.max(1, Math.ceil(graph.count/NODES_PER_CELL));
+        double[] columnEdges = edges(graph, graph.x, (int) Math.ceil(Math.sqrt(cells)));
+        double[] rowEdges = edges(graph, graph.y, (int) Math.ceil((double) cells/columnEdges.length));
+
+        SpatialGrid grid = new SpatialGrid(graph, columnEdges, rowEdges);
+        for(int s = graph.size - 1; s >= 0; s--) // backwards, so the lists come out in slot order
+            if(graph.isAlive(s))
+                grid.add(s);
+        return grid;
+    }
+
+    /**
+     * Splits the coordinates of the nodes into parts of about the same size, at quantiles of a sample.
+     * Repeated coordinates give fewer parts.
+     * @param coordinates
+     * @param parts
+     * @return
+     *      the lowest coordinate of every part, the first one is never used
+     */
+    private static double[] edges(SMTGraph graph, double[] coordinates, int parts) {
+        int step = Math.max(1, graph.count/QUANTILE_SAMPLE);
+        double[] sample = new double[Math.min(graph.count, QUANTILE_SAMPLE + 1)];
+        int length = 0;
+        for(int s = 0, alive = 0; s < graph.size && length < sample.length; s++)
+            if(graph.isAlive(s) && alive++ % step == 0)
+                sample[length++] = coordinates[s];
+        Arrays.sort(sample, 0, length);
+
+        double[] edges = new double[Math.max(1, parts)];
+        int count = 1;
+        edges[0] = Double.NEGATIVE_INFINITY;
+        for(int i = 1; i < parts && length > 0; i++) {
+            double edge = sample[(int) ((long) i*length/parts)];
+            if(edge > sample[0] && edge > edges[count - 1])
+                edges[count++] = edge;
+        }
+        return Arrays.copyOf(edges, count);
+    }
+
+    /**
+     *
+     * @return
+     *      false if the number of nodes has changed too much since the build, the grid must be rebuilt then
+     */
+    boolean isValid() {
+        return count <= 2*Math.max(builtCount, 8) && 2*count >= builtCount;
+    }
+
+    /**
+     * Adds the node in slot at its current coordinates
+     * @param slot
+     */
+    void add(int slot) {
+        if(slot >= cellOf.length) {
+            int capacity = Math.max(slot + 1, cellOf.length + (cellOf.length >> 1));
+            next = Arrays.copyOf(next, capacity);
+            previous = Arrays.copyOf(previous, capacity);
+            int old = cellOf.length;
+            cellOf = Arrays.copyOf(cellOf, capacity);
+            Arrays.fill(cellOf, old, capacity, NIL);
+        }
+
+        int cell = cell(column(graph.x[slot]), row(graph.y[slot]));
+        cellOf[slot] = cell;
+        previous[slot] = NIL;
+        next[slot] = head[cell];
+        if(head[cell] != NIL)
+            previous[head[cell]] = slot;
+        head[cell] = slot;
+        count++;
+    }
+
+    /**
+     * Removes the node in slot, before the slot is freed
+     * @param slot
+     */
+    void remove(int slot) {
+        int cell = cellOf[slot];
+        if(cell == NIL)
+            return;
+
+        if(previous[slot] != NIL)
+            next[previous[slot]] = next[slot];
+        else
+            head[cell] = next[slot];
+        if(next[slot] != NIL)
+            previous[next[slot]] = previous[slot];
+        cellOf[slot] = NIL;
+        count--;
+    }
+
+    /**
+     * Moves the node in slot to the cell of its current coordinates
+     * @param slot
+     */
+    void move(int slot) {
+        int cell = cell(column(graph.x[slot]), row(graph.y[slot]));
+        if(cell == cellOf[slot])
+            return;
+        remove(slot);
+        add(slot);
+    }
+
+    /**
+     * Finds the k nodes nearest to a point
+     * @param x
+     * @param y
+     * @param k
+     * @param exclude
+     *      a slot to skip, such as the node the query is made for, or SMTGraph.NO_SLOT
+     * @param slots
+     *      receives the slots, nearest first, at least k long
+     * @param squaredDistances
+     *      receives their squared distances, at least k long
+     * @return
+     *      the number of nodes found, less than k only if the grid has fewer nodes
+     */
+    public int nearest(double x, double y, int k, int exclude, int[] slots, double[] squaredDistances) {
+        if(k <= 0)
+            return 0;
+
+        int cx = column(x);
+        int cy = row(y);
+        int found = 0;
+        double[] xs = graph.x;
+        double[] ys = graph.y;
+
+        for(int r = 0; ; r++) {
+            int left = cx - r, right = cx + r, bottom = cy - r, top = cy + r;
+            if(left < 0 && bottom < 0 && right >= columns && top >= rows)
+                return found; // every cell was searched
+
+            // The ring of cells at Chebyshev distance r
+            for(int row = Math.max(0, bottom); row <= Math.min(rows - 1, top); row++) {
+                boolean edge = row == bottom || row == top;
+                int step = edge ? 1 : right - left;
+                for(int column = edge ? Math.max(0, left) : left; column <= right && column < columns; column += step) {
+                    if(column < 0)
+                        continue;
+                    for(int s = head[cell(column, row)]; s != NIL; s = next[s]) {
+                        if(s == exclude)
+                            continue;
+                        double dist = Geometry.distanceSquared(x, y, xs[s], ys[s]);
+                        if(found == k && dist >= squaredDistances[k - 1])
+                            continue;
+
+                        int i = found == k ? k - 1 : found++;
+                        for(; i > 0 && squaredDistances[i - 1] > dist; i--) { // insertion into the sorted list
+                            slots[i] = slots[i - 1];
+                            squaredDistances[i] = squaredDistances[i - 1];
+                        }
+                        slots[i] = s;
+                        squaredDistances[i] = dist;
+                    }
+                }
+            }
+
+            // Nodes in the cells not searched yet lie beyond one of the sides of the searched square
+            if(found == k) {
+                double bound = Double.POSITIVE_INFINITY;
+                if(left > 0)
+                    bound = Math.min(bound, Math.max(0, x - columnEdges[left]));
+                if(right < columns - 1)
+                    bound = Math.min(bound, Math.max(0, columnEdges[right + 1] - x));
+                if(bottom > 0)
+                    bound = Math.min(bound, Math.max(0, y - rowEdges[bottom]));
+                if(top < rows - 1)
+                    bound = Math.min(bound, Math.max(0, rowEdges[top + 1] - y));
+                if(bound*bound >= squaredDistances[k - 1])
+                    return found;
+            }
+        }
+    }
+
+    /**
+     * Finds the nodes within a distance of a point, in no particular order
+     * @param x
+     * @param y
+     * @param radius
+     * @param slots
+     *      receives the slots, only the first slots.length are stored
+     * @return
+     *      the number of nodes within the distance, when more than slots.length the query can be repeated with
+     *      a larger array
+     */
+    public int withinRadius(double x, double y, double radius, int[] slots) {
+        if(!(radius >= 0))
+            return 0;
+
+        double squaredRadius = radius*radius;
+        double[] xs = graph.x;
+        double[] ys = graph.y;
+        int found = 0;
+
+        int columnTo = column(x + radius), rowTo = row(y + radius);
+        for(int row = row(y - radius); row <= rowTo; row++)
+            for(int column = column(x - radius); column <= columnTo; column++)
+                for(int s = head[cell(column, row)]; s != NIL; s = next[s])
+                    if(Geometry.distanceSquared(x, y, xs[s], ys[s]) <= squaredRadius) {
+                        if(found < slots.length)
+                            slots[found] = s;
+                        found++;
+                    }
+
+        return found;
+    }
+
+    /**
+     * Finds the nodes inside a rectangle, borders included, in no particular order
+     * @param fromX
+     * @param fromY
+     * @param toX
+     * @param toY
+     * @param slots
+     *      receives the slots, only the first slots.length are stored
+     * @return
+     *      the number of nodes inside, when more than slots.length the query can be repeated with a larger array
+     */
+    public int inRectangle(double fromX, double fromY, double toX, double toY, int[] slots) {
+        if(!(fromX <= toX && fromY <= toY))
+            return 0;
+
+        double[] xs = graph.x;
+        double[] ys = graph.y;
+        int found = 0;
+
+        int columnTo = column(toX), rowTo = row(toY);
+        for(int row = row(fromY); row <= rowTo; row++)
+            for(int column = column(fromX); column <= columnTo; column++)
+                for(int s = head[cell(column, row)]; s != NIL; s = next[s])
+                    if(xs[s] >= fromX && xs[s] <= toX && ys[s] >= fromY && ys[s] <= toY) {
+                        if(found < slots.length)
+                            slots[found] = s;
+                        found++;
+                    }
+
+        return found;
+    }
+
+    /**
+     * Finds links joining the components of a forest, enough to connect all of them. Every cell is claimed by
+     * the nearest non-empty cell, grown out breadth first, and a link is made wherever cells claimed for two
+     * different components touch, and wherever a cell holds nodes of several components.
+     * The links are short, but not necessarily the shortest between two components.
+     * @param components
+     *      slot -> component label
+     * @return
+     *      slot pairs, u at even and v at odd indexes
+     */
+    int[] bridges(int[] components) {
+        int cells = columns*rows;
+        int[] origin = new int[cells]; // cell -> node the cell is claimed for
+        Arrays.fill(origin, NIL);
+        int[] queue = new int[cells];
+        int queueEnd = 0;
+        int[] pairs = new int[16];
+        int length = 0;
+
+        for(int c = 0; c < cells; c++) {
+            int first = head[c];
+            if(first == NIL)
+                continue;
+            origin[c] = first;
+            queue[queueEnd++] = c;
+
+            // One link from the first node to every other component in the cell
+            for(int s = next[first]; s != NIL; s = next[s]) {
+                if(components[s] == components[first] || seenEarlier(components, first, s))
+                    continue;
+                if(length + 2 > pairs.length)
+                    pairs = Arrays.copyOf(pairs, pairs.length*2);
+                pairs[length++] = first;
+                pairs[length++] = s;
+            }
+        }
+
+        for(int q = 0; q < queueEnd; q++) {
+            int c = queue[q];
+            int column = c % columns;
+            int row = c/columns;
+            for(int side = 0; side < 4; side++) {
+                int nc = side == 0 ? column - 1 : side == 1 ? column + 1 : column;
+                int nr = side == 2 ? row - 1 : side == 3 ? row + 1 : row;
+                if(nc < 0 || nc >= columns || nr < 0 || nr >= rows)
+                    continue;
+
+                int d = cell(nc, nr);
+                if(origin[d] == NIL) {
+                    origin[d] = origin[c];
+                    queue[queueEnd++] = d;
+                }
+                else if(components[origin[d]] != components[origin[c]]) {
+                    if(length + 2 > pairs.length)
+                        pairs = Arrays.copyOf(pairs, pairs.length*2);
+                    pairs[length++] = origin[c];
+                    pairs[length++] = origin[d];
+                }
+            }
+        }
+
+        return Arrays.copyOf(pairs, length);
+    }
+
+    /**
+     *
+     * @return
+     *      true if a node between first and s in the list of their cell is in the component of s
+     */
+    private boolean seenEarlier(int[] components, int first, int s) {
+        for(int t = next[first]; t != s; t = next[t])
+            if(components[t] == components[s])
+                return true;
+        return false;
+    }
+
+    /**
+     *
+     * @return
+     *      the number of nodes in the grid
+     */
+    public int size() {
+        return count;
+    }
+
+    private int column(double x) {
+        return part(columnEdges, x);
+    }
+
+    private int row(double y) {
+        return part(rowEdges, y);
+    }
+
+    /**
+     *
+     * @return
+     *      the last part whose edge is at most coordinate, 0 for NaN
+     */
+    private static int part(double[] edges, double coordinate) {
+        int low = 0;
+        int high = edges.length - 1;
+        while(low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if(edges[mid] <= coordinate)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return low;
+    }
+
+    private int cell(int column, int row) {
+        return row*columns + column;
+    }
+}
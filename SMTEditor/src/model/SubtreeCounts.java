@@ -0,0 +1,240 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Number of destinations on each side of every link of a tree (or forest), computed in O(n) with one
+ * rooted depth first traversal and one rerooting pass:
+ * <ul>
+ * <li>down[v] is the number of destinations in the subtree of v, rooted at the root of its component</li>
+ * <li>up[v] is the number of destinations outside that subtree, up[c] = up[p] + down[p] - down[c]</li>
+ * </ul>
+ * Seen from v, the destinations behind a child c are down[c], and the destinations behind the parent are up[v].
+ * The traversal is iterative, so deep chain-shaped trees don't overflow the stack.
+ * <p>
+ * The arrays are reused between rebuilds and reading them never allocates.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+final class SubtreeCounts {
+
+    int[] parent; // SMTGraph.NO_SLOT for the root of a component
+    int[] down;
+    int[] up;
+
+    private SMTGraph graph;
+
+    private int[] visited; // generation in which a slot was last traversed
+    private int generation;
+
+    private int[] climbed; // lca stamps, marks slots passed while climbing from either end
+    private int climbGeneration;
+
+    private int[] stack;
+    private int[] order; // slots of the last traversed component, parents before children
+    private int orderLength;
+
+    SubtreeCounts(int capacity) {
+        allocate(Math.max(capacity, 16));
+    }
+
+    /**
+     * Recounts every component of the graph
+     * @param graph
+     */
+    void rebuild(SMTGraph graph) {
+        beginUpdate();
+        for(int s = 0; s < graph.size; s++)
+            if(graph.isAlive(s) && !isVisited(s))
+                rebuildComponent(graph, s);
+    }
+
+    /**
+     * Starts a new round of rebuildComponent calls, components traversed in the same round are
+     * reported by isVisited
+     */
+    void beginUpdate() {
+        generation++;
+    }
+
+    boolean isVisited(int slot) {
+        return slot < visited.length && visited[slot] == generation;
+    }
+
+    /**
+     * Recounts the component containing slot, rooting it at slot. Afterwards the component can be read
+     * in traversal order through orderLength() and order(i).
+     * @param graph
+     * @param slot
+     */
+    void rebuildComponent(SMTGraph graph, int slot) {
+        this.graph = graph;
+        if(graph.size > parent.length)
+            allocate(Math.max(graph.size, parent.length + (parent.length >> 1)));
+
+        int[] targets = graph.targets;
+        int top = 0;
+        orderLength = 0;
+
+        // 1. Iterative depth first traversal, records parents and the order the slots were reached in
+        stack[top++] = slot;
+        visited[slot] = generation;
+        parent[slot] = SMTGraph.NO_SLOT;
+        while(top > 0) {
+            int v = stack[--top];
+            order[orderLength++] = v;
+            down[v] = graph.destination[v] ? 1 : 0;
+
+            int end = graph.offsets[v] + graph.degrees[v];
+            for(int i = graph.offsets[v]; i < end; i++) {
+                int u = targets[i];
+                if(visited[u] != generation) { // a visited neighbor is the parent, or closes a cycle
+                    visited[u] = generation;
+                    parent[u] = v;
+                    stack[top++] = u;
+                }
+            }
+        }
+
+        // 2. Children before parents, sum up the subtrees
+        for(int i = orderLength - 1; i > 0; i--) {
+            int v = order[i];
+            down[parent[v]] += down[v];
+        }
+
+        // 3. Rerooting pass, parents before children
+        up[slot] = 0;
+        for(int i = 1; i < orderLength; i++) {
+            int v = order[i];
+            int p = parent[v];
+            up[v] = up[p] + down[p] - down[v];
+        }
+    }
+
+    /**
+     *
+     * @param from
+     * @param to
+     *      a neighbor of from
+     * @return
+     *      the number of destinations on the side of to, when the link from-to is cut. If the link closes a cycle
+     *      both sides are the same, all destinations of the component except from itself are counted.
+     */
+    int behind(int from, int to) {
+        if(parent[to] == from)
+            return down[to];
+        if(parent[from] == to)
+            return up[from];
+        return componentDestinations(from) - (graph.destination[from] ? 1 : 0);
+    }
+
+    /**
+     *
+     * @param slot
+     * @return
+     *      the number of destinations in the component of slot
+     */
+    int componentDestinations(int slot) {
+        return down[slot] + up[slot];
+    }
+
+    /**
+     * Finds the lowest common ancestor by climbing from both slots in turn, so it costs O(length of the path
+     * between them) rather than O(depth)
+     * @param a
+     * @param b
+     * @return
+     *      the lowest common ancestor, or SMTGraph.NO_SLOT if the slots are in different components
+     */
+    int lca(int a, int b) {
+        climbGeneration += 2;
+        int markA = climbGeneration;
+        int markB = climbGeneration + 1;
+
+        while(a != SMTGraph.NO_SLOT || b != SMTGraph.NO_SLOT) {
+            if(a != SMTGraph.NO_SLOT) {
+                if(climbed[a] == markB)
+                    return a;
+                climbed[a] = markA;
+                a = parent[a];
+            }
+            if(b != SMTGraph.NO_SLOT) {
+                if(climbed[b] == markA)
+                    return b;
+                climbed[b] = markB;
+                b = parent[b];
+            }
+        }
+        return SMTGraph.NO_SLOT;
+    }
+
+    /**
+     * Follows an edge exchange in a tree: the link a-b is removed and the link u-v, joining the two parts again,
+     * is added. Only the slots on the cycle path between u and v change, so the cost is O(length of that path).
+     * The subtree that was cut off is rerooted at whichever of u and v is in it.
+     * @param a
+     * @param b
+     * @param u
+     * @param v
+     */
+    void exchange(int a, int b, int u, int v) {
+        int child = parent[b] == a ? b : a;
+        int inside = u;
+        int outside = v;
+        if(lca(v, child) == child) {
+            inside = v;
+            outside = u;
+        }
+
+        int total = componentDestinations(child);
+        int moved = down[child];
+
+        // 1. The moved destinations leave the ancestors of the old attachment and join those of the new one
+        int top = lca(parent[child], outside);
+        for(int s = parent[child]; s != top; s = parent[s]) {
+            down[s] -= moved;
+            up[s] = total - down[s];
+        }
+        for(int s = outside; s != top; s = parent[s]) {
+            down[s] += moved;
+            up[s] = total - down[s];
+        }
+
+        // 2. Reverse the path from inside to child, the subtree of each slot on it is now everything
+        // that was cut off, except for the old subtree of the slot before it
+        int newParent = outside;
+        int below = 0;
+        for(int s = inside; ; ) {
+            int next = parent[s];
+            int old = down[s];
+
+            parent[s] = newParent;
+            down[s] = moved - below;
+            up[s] = total - down[s];
+
+            if(s == child)
+                break;
+            newParent = s;
+            below = old;
+            s = next;
+        }
+    }
+
+    int orderLength() {
+        return orderLength;
+    }
+
+    int order(int i) {
+        return order[i];
+    }
+
+    private void allocate(int capacity) {
+        parent = parent == null ? new int[capacity] : Arrays.copyOf(parent, capacity);
+        down = down == null ? new int[capacity] : Arrays.copyOf(down, capacity);
+        up = up == null ? new int[capacity] : Arrays.copyOf(up, capacity);
+        visited = visited == null ? new int[capacity] : Arrays.copyOf(visited, capacity);
+        climbed = climbed == null ? new int[capacity] : Arrays.copyOf(climbed, capacity);
+        stack = new int[capacity];
+        order = new int[capacity];
+    }
+}
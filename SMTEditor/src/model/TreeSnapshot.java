@@ -0,0 +1,163 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * An immutable state of a SharedMulticastTree: the positions, links and power levels of its nodes, and its total
+ * cost. The nodes are kept in a PersistentArray by slot, so snapshots taken after a few edits share almost
+ * everything with the previous one. The node costs aren't kept, a link edit changes those of the whole component,
+ * they are worked out again from the power levels when the snapshot is restored. See SharedMulticastTree.snapshot
+ * and restore.
+ * <p>
+ * Snapshots never change after they are made, so they can be read from any thread while the tree is edited,
+ * see SharedMulticastTree.publish and readSnapshot.
+ * @author Yngve Sekse Kristiansen
+ *
+ */
+public final class TreeSnapshot {
+
+    /**
+     * A node as it was when the snapshot was taken
+     */
+    static final class Node {
+
+        final int id;
+        final boolean destination;
+        final double x, y;
+        final int[] neighbors; // slots
+        final double highestPowerLevel, secondPowerLevel;
+        final int farthest;
+
+        Node(SMTGraph graph, int slot) {
+            id = graph.idOfSlot[slot];
+            destination = graph.destination[slot];
+            x = graph.x[slot];
+            y = graph.y[slot];
+            int from = graph.offsets[slot];
+            neighbors = Arrays.copyOfRange(graph.targets, from, from + graph.degrees[slot]);
+            highestPowerLevel = graph.highestPowerLevels[slot];
+            secondPowerLevel = graph.secondPowerLevels[slot];
+            farthest = graph.farthest[slot];
+        }
+    }
+
+    final SharedMulticastTree owner;
+    final PersistentArray<Node> nodes;
+    final int size;
+    final CostModel costModel;
+    final int copiedNodes; // nodes made for this snapshot, the rest are shared with the previous one
+
+    private final long version;
+    private final int nodeCount;
+    private final double cost;
+
+    TreeSnapshot(SharedMulticastTree owner, long version, PersistentArray<Node> nodes, int size, int nodeCount, double cost, CostModel costModel, int copiedNodes) {
+        this.owner = owner;
+        this.version = version;
+        this.nodes = nodes;
+        this.size = size;
+        this.nodeCount = nodeCount;
+        this.cost = cost;
+        this.costModel = costModel;
+        this.copiedNodes = copiedNodes;
+    }
+
+    /**
+     * The same state under a newer version
+     * @param version
+     * @return
+     */
+    TreeSnapshot withVersion(long version) {
+        return new TreeSnapshot(owner, version, nodes, size, nodeCount, cost, costModel, copiedNodes);
+    }
+
+    /**
+     *
+     * @return
+     *      the version of the tree the snapshot was taken at, later snapshots of the same tree have higher versions
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     *
+     * @return
+     *      the total cost of the tree
+     */
+    public double getCost() {
+        return cost;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     *
+     * @return
+     *      the number of slots, live nodes are spread over 0 ... size() - 1
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isAlive(int slot) {
+        return nodes.get(slot) != null;
+    }
+
+    public int getId(int slot) {
+        return node(slot).id;
+    }
+
+    public boolean isDestination(int slot) {
+        return node(slot).destination;
+    }
+
+    public double getX(int slot) {
+        return node(slot).x;
+    }
+
+    public double getY(int slot) {
+        return node(slot).y;
+    }
+
+    public int getDegree(int slot) {
+        return node(slot).neighbors.length;
+    }
+
+    /**
+     *
+     * @param slot
+     * @param i
+     * @return
+     *      the slot of the i-th neighbor of slot
+     */
+    public int getNeighbor(int slot, int i) {
+        return node(slot).neighbors[i];
+    }
+
+    public double getHighestPowerLevel(int slot) {
+        return node(slot).highestPowerLevel;
+    }
+
+    public double getSecondPowerLevel(int slot) {
+        return node(slot).secondPowerLevel;
+    }
+
+    public CostModel getCostModel() {
+        return costModel;
+    }
+
+    private Node node(int slot) throws IllegalArgumentException {
+        Node node = nodes.get(slot);
+        if(node == null)
+            throw new IllegalArgumentException("No node in slot " + slot);
+        return node;
+    }
+
+    @Override
+    public String toString() {
+        return "snapshot " + version + " of " + nodeCount + " nodes, cost " + cost;
+    }
+}